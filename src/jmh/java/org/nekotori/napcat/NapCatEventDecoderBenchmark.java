@@ -0,0 +1,57 @@
+package org.nekotori.napcat;
+
+import cn.hutool.json.JSONUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单遍解码与原先逐层 JSONUtil.toBean 解析的对比，
+ * 两边都取到 message 元素，因为 CommandRouter.isAtSelf 对每个事件都会触发懒解码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NapCatEventDecoderBenchmark {
+
+    private static final String FRAME = """
+            {"self_id":3889001,"user_id":1318985307,"time":1732000000,"message_id":1934455,"message_seq":1934455,\
+            "real_id":1934455,"real_seq":"88231","message_type":"group","sender":{"user_id":1318985307,\
+            "nickname":"neko","card":"","role":"member"},"raw_message":"[CQ:at,qq=3889001] 今天吃什么","font":14,\
+            "sub_type":"normal","message":[{"type":"at","data":{"qq":"3889001"}},{"type":"text","data":\
+            {"text":" 今天吃什么"}}],"message_format":"array","post_type":"message","group_id":123456789}""";
+
+    @Benchmark
+    public Object singlePass() throws IOException {
+        Event event = NapCatEventDecoder.decode(FRAME);
+        if (event instanceof MessageEvent messageEvent) {
+            return messageEvent.getMessage();
+        }
+        return event;
+    }
+
+    @Benchmark
+    public Object hutoolTripleParse() {
+        Event event = JSONUtil.toBean(FRAME, Event.class);
+        if ("message".equals(event.getPost_type())) {
+            MessageEvent messageEvent = JSONUtil.toBean(FRAME, MessageEvent.class);
+            if ("group".equals(messageEvent.getMessage_type())) {
+                return JSONUtil.toBean(FRAME, GroupMessageEvent.class).getMessage();
+            }
+            return messageEvent.getMessage();
+        }
+        return event;
+    }
+}
@@ -0,0 +1,102 @@
+package org.nekotori.napcat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 本地 WebSocket 服务端连续推送群消息帧，对比两种传输从收帧到解码完成的单帧耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NapCatTransportBenchmark {
+
+    private static final int FRAMES = 20_000;
+
+    private static final String FRAME = """
+            {"self_id":3889001,"user_id":1318985307,"time":1732000000,"message_id":1934455,"message_seq":1934455,\
+            "real_id":1934455,"real_seq":"88231","message_type":"group","sender":{"user_id":1318985307,\
+            "nickname":"neko","card":"","role":"member"},"raw_message":"[CQ:at,qq=3889001] 今天吃什么","font":14,\
+            "sub_type":"normal","message":[{"type":"at","data":{"qq":"3889001"}},{"type":"text","data":\
+            {"text":" 今天吃什么"}}],"message_format":"array","post_type":"message","group_id":123456789}""";
+
+    @Param({"tyrus", "netty"})
+    public String transport;
+
+    private DisposableServer server;
+
+    private URI endpoint;
+
+    @Setup
+    public void start() throws Exception {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.ws("/", (in, out) -> out.sendString(Flux.range(0, FRAMES).map(i -> FRAME))))
+                .bindNow();
+        endpoint = new URI("ws://127.0.0.1:" + server.port() + "/");
+    }
+
+    @TearDown
+    public void stop() {
+        server.disposeNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void receive() throws Exception {
+        CountDownLatch done = new CountDownLatch(FRAMES);
+        NapCatTransport client = NapCatTransport.create(transport);
+        client.connect(endpoint, "benchmark", new NapCatTransport.Listener() {
+            @Override
+            public void onOpen() {
+            }
+
+            @Override
+            public void onFrame(String frame) {
+                try {
+                    NapCatEventDecoder.decodeFrame(frame);
+                } catch (Exception ignored) {
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onClose() {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        });
+        try {
+            if (!done.await(1, TimeUnit.MINUTES)) {
+                throw new TimeoutException(done.getCount() + " frames not received");
+            }
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.nekotori.openai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一条常见聊天消息的 token 计数，count 走片段缓存，encode 每次完整合并
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BpeEncodingBenchmark {
+
+    @Param("bot/tokenizers/cl100k_base.tiktoken")
+    public String vocabulary;
+
+    private final String text = "你好，今天晚上一起打游戏吗？hello world, tokenizers are fun!";
+
+    private BpeEncoding encoding;
+
+    @Setup
+    public void load() throws IOException {
+        encoding = BpeEncoding.load("cl100k_base", Paths.get(vocabulary));
+    }
+
+    @Benchmark
+    public int count() {
+        return encoding.count(text);
+    }
+
+    @Benchmark
+    public List<Integer> encode() {
+        return encoding.encode(text);
+    }
+}
@@ -0,0 +1,45 @@
+package org.nekotori.openai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享 JsonParser 与原先每块新建 ObjectMapper 再 readTree 的对比；每块分配的字节数用 -prof gc 查看
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatDeltaParserBenchmark {
+
+    private static final String CHUNK = "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1732000000,"
+            + "\"model\":\"deepseek-v3\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\","
+            + "\"content\":\"今天也要好好吃饭\",\"reasoning_content\":null},\"logprobs\":null,"
+            + "\"finish_reason\":null}],\"usage\":null}";
+
+    @Benchmark
+    public String sharedParser() throws IOException {
+        return ChatDeltaParser.parseChatChunk(CHUNK).content();
+    }
+
+    @Benchmark
+    public String mapperPerChunk() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode deltaNode = objectMapper.readTree(CHUNK).get("choices").get(0).get("delta");
+        return deltaNode.has("content") && !deltaNode.get("content").isNull() ? deltaNode.get("content").asText() : null;
+    }
+}
@@ -0,0 +1,49 @@
+package org.nekotori.openai;
+
+import cn.hutool.json.JSONUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次 @ 对话组装提示词时的预算开销：扣掉系统提示词，再从 100 条历史里挑放得下的后缀。
+ * 没有词表时 TokenCounter 按字符粗估，结果偏快
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBudgeterBenchmark {
+
+    private final List<String> history = new ArrayList<>();
+
+    private final ChatMessage system = new ChatMessage("system", "你是一只猫娘，用简短可爱的语气回复群友");
+
+    @Setup
+    public void history() {
+        for (int i = 0; i < 100; i++) {
+            history.add(JSONUtil.toJsonStr(Map.of("user", "群友" + i, "userId", 10000 + i,
+                    "content", "第" + i + "条消息，今天晚上一起打游戏吗？ok")));
+        }
+    }
+
+    @Benchmark
+    public List<String> fitRecent() {
+        ContextBudgeter budgeter = ContextBudgeter.of("deepseek-v3", 2_000).reserve(system);
+        return budgeter.fitRecent(history, message -> budgeter.count(message) + 1);
+    }
+}
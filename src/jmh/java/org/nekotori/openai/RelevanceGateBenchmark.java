@@ -0,0 +1,47 @@
+package org.nekotori.openai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条群消息打分一次的开销，额度用完后仍然完整打分
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelevanceGateBenchmark {
+
+    private final String[] messages = {
+            "neko 今天晚上一起打游戏吗？",
+            "[CQ:image,file=abc.png,url=https://example.com/abc.png]",
+            "哈哈哈哈哈",
+            "有人知道这个报错怎么解决吗 https://example.com/issue/1",
+            "[CQ:at,qq=123456] 你说得对，但是这个版本的平衡性真的很差，下个赛季应该会改吧"
+    };
+
+    private int next;
+
+    @Setup
+    public void configure() {
+        RelevanceGate.configure(null);
+    }
+
+    @Benchmark
+    public boolean admit() {
+        int i = next++;
+        return RelevanceGate.admit(i & 15, messages[i % messages.length]);
+    }
+}
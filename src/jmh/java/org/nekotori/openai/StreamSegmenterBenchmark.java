@@ -0,0 +1,63 @@
+package org.nekotori.openai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 增量分段与原先字符串拼接加 split 的分段方式对比，单位是一整条回复
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamSegmenterBenchmark {
+
+    private final List<String> chunks = new ArrayList<>();
+
+    @Setup
+    public void reply() {
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            reply.append("[{\"type\":\"chat\",\"content\":\"第").append(i).append("行，今天也要好好吃饭哦\"}]\n");
+        }
+        for (int i = 0; i < reply.length(); i += 3) {
+            chunks.add(reply.substring(i, Math.min(reply.length(), i + 3)));
+        }
+    }
+
+    @Benchmark
+    public void segmenter(Blackhole blackhole) {
+        StreamSegmenter segmenter = StreamSegmenter.lines(blackhole::consume);
+        chunks.forEach(segmenter::append);
+        segmenter.close();
+    }
+
+    @Benchmark
+    public void concatSplit(Blackhole blackhole) {
+        String message2Send = "";
+        for (String content : chunks) {
+            message2Send = message2Send + content;
+            if (message2Send.contains("\n")) {
+                String[] split = message2Send.trim().split("\\n");
+                message2Send = message2Send.trim().substring(split[0].length());
+                blackhole.consume(split[0]);
+            }
+        }
+        blackhole.consume(message2Send.trim());
+    }
+}
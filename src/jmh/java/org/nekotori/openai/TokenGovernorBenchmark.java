@@ -0,0 +1,49 @@
+package org.nekotori.openai;
+
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次调用结束记账和发起前查额度的开销，500 个群、5000 个用户分散在各分段上
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TokenGovernorBenchmark {
+
+    private final LlmCallContext[] contexts = new LlmCallContext[5000];
+
+    @Setup
+    public void budget() {
+        TokenGovernor.configure(new FileBasedBotConfiguration.Budget());
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = new LlmCallContext((long) (i % 500), i, LlmCallContext.Priority.DIRECT, "at");
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        TokenGovernor.record("deepseek", contexts[(int) (System.nanoTime() % contexts.length)], 10, 1);
+    }
+
+    @Benchmark
+    public TokenGovernor.Level level() {
+        return TokenGovernor.level(contexts[(int) (System.nanoTime() % contexts.length)]);
+    }
+}
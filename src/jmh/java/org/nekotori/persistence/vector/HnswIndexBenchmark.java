@@ -0,0 +1,83 @@
+package org.nekotori.persistence.vector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 两万条 128 维随机向量上的 top-5 查询，索引在临时目录里构建一次
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HnswIndexBenchmark {
+
+    private static final int DIMENSIONS = 128;
+
+    private static final int NODES = 20_000;
+
+    private final Random random = new Random(42);
+
+    private final float[][] queries = new float[1024][];
+
+    private Path dir;
+
+    private HnswIndex index;
+
+    private int next;
+
+    @Setup
+    public void build() throws IOException {
+        dir = Files.createTempDirectory("hnsw-bench");
+        index = HnswIndex.open(dir, DIMENSIONS, 16, 100);
+        for (int i = 0; i < NODES; i++) {
+            index.add(i, i, "message " + i, randomVector());
+        }
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = randomVector();
+        }
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        index.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<HnswIndex.Hit> search() throws IOException {
+        return index.search(queries[next++ & (queries.length - 1)], 5, 64);
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSIONS];
+        for (int j = 0; j < DIMENSIONS; j++) {
+            vector[j] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
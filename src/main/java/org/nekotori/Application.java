@@ -21,11 +21,14 @@ import org.nekotori.qbit.TorrentListResponse;
 import org.nekotori.sd.StableDiffusionClient;
 import org.nekotori.tts.SovitsClient;
 import org.nekotori.util.Base64ToImageWithCommons;
-import reactor.core.scheduler.Schedulers;
+import org.nekotori.util.BlockingExecution;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.*;
@@ -40,6 +43,9 @@ public class Application {
     private static GroupPersistence groupPersistence;
     private static GroupChatHistoryPersistence historyPersistence;
     private static AiConversationPersistence conversationPersistence;
+    private static ConversationSummarizer summarizer;
+    private static ChatMemory chatMemory;
+    private static MentionCoalescer<GroupMessageEvent> mentionCoalescer;
     private static QBitTorrentClient qBitTorrentClient;
     private static final AtomicBoolean isSDRunning = new AtomicBoolean(false);
 
@@ -71,10 +77,14 @@ public class Application {
         conversationPersistence = new AiConversationPersistence();
         Semaphore semaphore = new Semaphore(0);
         var bot = new NapcatBot();
+        summarizer = new ConversationSummarizer(bot.getConfig().getLlm().getSummary());
+        chatMemory = new ChatMemory(bot.getConfig().getLlm().getMemory());
         bot.onMessageEvent(PrivateMessageEvent.class)
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
+                .onAny()
+                .handle(event->{
+                    if (linkDown(event)) {
+                        return;
+                    }
                     AnalysisMessage analysisMessage = new AnalysisMessage();
                     String s = simpleMessage(event.getRaw_message());
                     analysisMessage.setContent(s);
@@ -89,7 +99,8 @@ public class Application {
                     chatRequest.setModel("deepseek-v3");
                     chatRequest.setStream(true);
                     chatRequest.setMessages(list);
-                    DsClient.invoke(bot.getConfig().getDeepseek().getApiKey(), chatRequest, resp -> {
+                    LlmRouter.invoke(new LlmCallContext(null, event.getSender().getUser_id(),
+                            LlmCallContext.Priority.DIRECT, "private"), "chat", chatRequest, resp -> {
                         JSONArray entries = JSONUtil.parseArray(resp);
                         MessageBuilder builder = MessageBuilder.builder();
                         for (Object entry : entries) {
@@ -117,15 +128,18 @@ public class Application {
                             }
                         }
 
-                    });
+                    }, reason -> event.getClient().sendPrivateMessage(event.getSender().getUser_id(), MessageBuilder.builder()
+                            .plainText(reason == LlmScheduler.RejectReason.BUDGET
+                                    ? "今天和我聊天的额度用完了，明天再来吧" : "现在找我聊天的人太多了，请稍后再试")
+                            .build()));
                 });
 
 
         bot.onMessageEvent(GroupMessageEvent.class)
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event-> {
-                            if(Math.random()<0.95){
+                .onAny()
+                .handle(event-> {
+                            // 本地打分挑出值得回应的消息，每个群还有每小时额度；断线时不打分，免得白白用掉额度
+                            if(linkDown(event) || !RelevanceGate.admit(event.getGroup_id(), event.getRaw_message())){
                                 return;
                             }
                             var list = new ArrayList<ChatMessage>();
@@ -136,7 +150,9 @@ public class Application {
                             chatRequest.setModel("deepseek-v3");
                             chatRequest.setStream(true);
                             chatRequest.setMessages(list);
-                                DsClient.invoke(bot.getConfig().getDeepseek().getApiKey(), chatRequest, resp -> {
+                                // 插话不是发言人要求的，只计入群额度
+                                LlmRouter.invoke(new LlmCallContext(event.getGroup_id(), 0,
+                                        LlmCallContext.Priority.AMBIENT, "chime-in"), "chat", chatRequest, resp -> {
                                 AiConversationEntity conv = new AiConversationEntity();
                                 conv.setGroupId(event.getGroup_id());
                                 conv.setTargetUserId(event.getSender().getUser_id());
@@ -145,20 +161,21 @@ public class Application {
                                 conv.setTime(System.currentTimeMillis());
                                 conversationPersistence.save(conv);
                                 sendMessageWithAt(event,resp);
-                            });
+                            }, null);
                         }
                 );
 
         bot.onMessageEvent(GroupMessageEvent.class)
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
+                .onAny()
+                .handle(event->{
                     GroupChatHistoryEntity val = new GroupChatHistoryEntity();
                     val.setGroupId(event.getGroup_id());
                     val.setUserId(event.getSender().getUser_id());
                     val.setMessage(event.getRaw_message());
                     val.setTime(System.currentTimeMillis());
                     historyPersistence.save(val);
+                    chatMemory.add(event.getGroup_id(), event.getSender().getUser_id(), val.getTime(),
+                            simpleMessage(event.getRaw_message()));
                     AiConversationEntity conv = new AiConversationEntity();
                     conv.setGroupId(event.getGroup_id());
                     conv.setTargetUserId(event.getSender().getUser_id());
@@ -166,8 +183,7 @@ public class Application {
                     conv.setMessage(event.getRaw_message());
                     conv.setTime(System.currentTimeMillis());
                     conversationPersistence.save(conv);
-                    GroupEntity groupById = groupPersistence.getGroupById(event.getGroup_id());
-                    if (groupById == null) {
+                    if (groupPersistence.getConfig(event.getGroup_id()) == null) {
                         groupPersistence.save(event.getGroup_id(),"",false,false,0,"","");
                     }
                 });
@@ -175,16 +191,8 @@ public class Application {
         // 查看bt列表
         bot.onMessageEvent(GroupMessageEvent.class)
                 .onCommand("btlist")
-                .onSenderIdentity(event->{
-                    GroupEntity groupById = groupPersistence.getGroupById(event.getGroup_id());
-                    if (groupById == null) {
-                        return false;
-                    }
-                    return groupById.getFeatures().contains("btlist");
-                })
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
+                .onSenderIdentity(event-> groupPersistence.hasFeature(event.getGroup_id(), GroupFeature.BTLIST))
+                .handle(event->{
                     StringBuffer sb = new StringBuffer();
                     ApiResponse<TorrentListResponse> torrents = qBitTorrentClient.getTorrents();
                     torrents.data().torrents().forEach(torrent->{
@@ -203,10 +211,9 @@ public class Application {
 
         // 磁链下载
         bot.onMessageEvent(GroupMessageEvent.class)
+                .onAny()
                 .onSenderIdentity(event-> event.getRaw_message().startsWith("magnet:?"))
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
+                .handle(event->{
                     var downloadResponse = qBitTorrentClient.addMagnetDownload(new MagnetRequest(event.getRaw_message().trim(),"movies"));
                     if (downloadResponse.success()) {
                         event.getClient().sendGroupMessage(event.getGroup_id(),MessageBuilder.builder()
@@ -220,125 +227,59 @@ public class Application {
                 });
 
 
-        // Deepseek对话
+        // Deepseek对话，同一个群接连的 @ 合并成一次调用
+        mentionCoalescer = new MentionCoalescer<>(bot.getConfig().getLlm().getCoalesce(), Application::answerMentions);
         bot.onMessageEvent(GroupMessageEvent.class)
                 .onAt()
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
-                    var message = conversationPersistence.getAllMessagesByUser(event.getGroup_id(), event.getSender().getUser_id());
-                    var reverse = CollectionUtil.reverse(message);
-                    var analysisMessages = new ArrayList<>();
-                    reverse.forEach(m->{
-                        AnalysisMessage analysisMessage = new AnalysisMessage();
-                        analysisMessage.setContent(simpleMessage(m.getMessage()));
-                        analysisMessage.setUserId(!Objects.equals(m.getRole(), "assistant") ?m.getTargetUserId():0L);
-                        analysisMessage.setUser(m.getRole());
-                        analysisMessages.add(analysisMessage);
-                    });
-
-                    AnalysisMessage analysisMessage = new AnalysisMessage();
-                    String s = simpleMessage(event.getRaw_message());
-                    if(reverse.isEmpty()|| !Objects.equals(reverse.get(reverse.size() - 1).getMessage(), s)) {
-                        analysisMessage.setContent(s);
-                        analysisMessage.setUserId(event.getSender().getUser_id());
-                        analysisMessage.setUser(event.getSender().getNickname());
-                        analysisMessages.add(analysisMessage);
+                .handle(event->{
+                    if (linkDown(event)) {
+                        return;
                     }
-                    var list = new ArrayList<ChatMessage>();
-                    list.add(new ChatMessage("system", StaticPrompts.prompt.get(11)));
-                    list.add(new ChatMessage("user", JSONUtil.toJsonStr(analysisMessages)));
-                    ChatRequest chatRequest = new ChatRequest();
-                    chatRequest.setModel("deepseek-v3");
-                    chatRequest.setStream(true);
-                    chatRequest.setMessages(list);
-                    DsClient.invoke(bot.getConfig().getDeepseek().getApiKey(), chatRequest, resp -> {
-                        JSONArray entries = JSONUtil.parseArray(resp);
-                        MessageBuilder builder = MessageBuilder.builder();
-                        for (Object entry : entries) {
-                            JSONObject entryJson = JSONUtil.parseObj(entry);
-                            String type = entryJson.getStr("type");
-                            String content = entryJson.getStr("content");
-                            String targetUser = entryJson.getStr("targetUser");
-                            if ("chat".equals(type)){
-                                if(Math.random()>1){
-                                    SovitsClient.ttsV4(content,5,(data)->{
-                                                event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
-                                                        .record(data)
-                                                        .build());
-                                            });
-                                    continue;
-                                }
-                                event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
-                                        .plainText(content)
-                                        .build());
-                            }else if("audio".equals(type)){
-                                SovitsClient.ttsV4(content,5,(data)->{
-                                    event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
-                                            .record(data)
-                                            .build());
-                                });
-                            }else if("image".equals(type)){
-//                                List<String> imageUrls = getImageUrls(event);
-                                event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
-                                        .plainText("画图请使用-bnn + 提示词 指令哦")
-                                        .build());
-//                                GroupEntity groupById = groupPersistence.getGroupById(event.getGroup_id());
-//                                String nanoApiKey = groupById.getNanoApiKey();
-//                                Integer credits = groupById.getCredits();
-//                                if(StringUtil.isNullOrEmpty(nanoApiKey) || credits<=0){
-//                                    event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
-//                                            .plainText("绘图功能未开启，请先购买Token哦")
-//                                            .build());
-//                                    return;
-//                                }
-//                                NanoBananaClient client = new NanoBananaClient(nanoApiKey);
-//                                generateImageAndSend(event,imageUrls,content,client);
-//                                groupById.setCredits(credits-1);
-//                                groupPersistence.updateGroup(groupById);
-                            }
-                        }
-                    });
+                    mentionCoalescer.submit(event.getGroup_id(), event);
                 });
 
+        // 管理员查看大模型用量
+        bot.onMessageEvent(GroupMessageEvent.class)
+                .onCommand("usage")
+                .onSenderIdentity(event -> Objects.equals(bot.getConfig().getAdmin(), event.getSender().getUser_id()))
+                .handle(event -> event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
+                        .plainText(TokenGovernor.report(event.getGroup_id(), 5))
+                        .build()));
+
         // NanoBanana图像生成
         bot.onMessageEvent(GroupMessageEvent.class)
                 .onCommand("bnn")
                 .onSenderIdentity(event->{
-                    Long groupId = event.getGroup_id();
-                    GroupEntity group = groupPersistence.getGroupById(groupId);
-                    return group != null && group.getNanoApiKey() != null && group.getCredits()>0;
+                    GroupConfig group = groupPersistence.getConfig(event.getGroup_id());
+                    return group != null && group.nanoApiKey() != null && group.credits()>0;
                 })
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
+                .handle(event->{
                     Long groupId = event.getGroup_id();
                     GroupEntity group = groupPersistence.getGroupById(groupId);
                     var nanoClient = new NanoBananaClient(group.getNanoApiKey());
-                    List<Message> parse = MessageBuilder.parse(event);
-                    String prompt = parse.stream().filter(message -> message.getType().equals("text"))
-                                    .map(message -> message.getData().get("text"))
-                                    .collect(Collectors.joining("\n"))
-                                    .replace("-bnn","");
-                    List<String> imageUrls = parse.stream().filter(message -> message.getType().equals("image"))
-                            .map(message -> message.getData().get("url"))
-                            .toList();
-                    generateImageAndSend(event, imageUrls, prompt, nanoClient);
-                    group.setCredits(group.getCredits()-1);
-                    groupPersistence.updateGroup(group);
+                    // 引用的消息异步加载，生成图片放回阻塞线程池，不占着 NapCat 的响应线程
+                    MessageBuilder.parseAsync(event).thenAcceptAsync(parse -> {
+                        String prompt = parse.stream().filter(message -> message.getType().equals("text"))
+                                        .map(message -> message.getData().get("text"))
+                                        .collect(Collectors.joining("\n"))
+                                        .replace("-bnn","");
+                        List<String> imageUrls = parse.stream().filter(message -> message.getType().equals("image"))
+                                .map(message -> message.getData().get("url"))
+                                .toList();
+                        generateImageAndSend(event, imageUrls, prompt, nanoClient);
+                        group.setCredits(group.getCredits()-1);
+                        groupPersistence.updateGroup(group);
+                    }, BlockingExecution::execute).exceptionally(e -> {
+                        log.error("bnn generate for group {} failed", groupId, e);
+                        return null;
+                    });
                 });
 
         // Sd图像生成
         bot.onMessageEvent(GroupMessageEvent.class)
                 .onCommand("sd")
-                .onSenderIdentity(event->{
-                    Long groupId = event.getGroup_id();
-                    GroupEntity group = groupPersistence.getGroupById(groupId);
-                    return group != null && group.getFeatures()!=null && group.getFeatures().contains("sd");
-                })
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event-> {
+                .onSenderIdentity(event-> groupPersistence.hasFeature(event.getGroup_id(), GroupFeature.SD))
+                .handle(event-> {
                     if(isSDRunning.get()){
                         event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
                                 .plainText("抱歉，SD模型正在处理中，请稍后再试")
@@ -347,8 +288,9 @@ public class Application {
                     }
                     isSDRunning.set(true);
                     String s = simpleMessage(event.getRaw_message());
-                    StableDiffusionClient.drawWithNatureLang(s.contains("nsfw"),bot.getConfig().getDeepseek().getApiKey(),
-                            s,text->{
+                    StableDiffusionClient.drawWithNatureLang(new LlmCallContext(event.getGroup_id(),
+                                    event.getSender().getUser_id(), LlmCallContext.Priority.COMMAND, "sd"),
+                            s.contains("nsfw"), s,text->{
                                 if (text.startsWith("file:")) {
                                     isSDRunning.set(false);
                                     text = text.substring(5);
@@ -362,6 +304,12 @@ public class Application {
                                 event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
                                         .plainText(text)
                                         .build());
+                            }, reason -> {
+                                isSDRunning.set(false);
+                                event.getClient().sendGroupMessage(event.getGroup_id(), MessageBuilder.builder()
+                                        .plainText(reason == LlmScheduler.RejectReason.BUDGET
+                                                ? "本群今天的额度用完了，明天再来画吧" : "排队绘图的人太多了，请稍后再试")
+                                        .build());
                             });
                 });
 
@@ -369,9 +317,7 @@ public class Application {
         bot.onMessageEvent(PrivateMessageEvent.class)
                 .onCommand("hello")
                 .onSenderIdentity(event->1318985307L==event.getSender().getUser_id())
-                .flux()
-                .subscribeOn(Schedulers.fromExecutor(executorService))
-                .subscribe(event->{
+                .handle(event->{
                     event.getClient().sendPrivateMessage(event.getSender().getUser_id(),MessageBuilder.builder()
                             .plainText("hello")
                             .build());
@@ -411,6 +357,170 @@ public class Application {
                 });
     }
 
+    // 一次调用回复同一个群里攒在一起的 @，多人时按 targetUser 分别 @ 回去
+    private static void answerMentions(long groupId, List<GroupMessageEvent> events) {
+        GroupMessageEvent last = events.get(events.size() - 1);
+        if (linkDown(last)) {
+            return;
+        }
+        var targets = new LinkedHashMap<Long, GroupMessageEvent>();
+        events.forEach(event -> targets.put(event.getSender().getUser_id(), event));
+        if (events.size() > 1) {
+            log.info("answer {} mentions from {} users in group {} with one call, {}", events.size(), targets.size(),
+                    groupId, mentionCoalescer.stats());
+        }
+        var current = events.stream().map(event -> {
+            AnalysisMessage analysisMessage = new AnalysisMessage();
+            analysisMessage.setContent(simpleMessage(event.getRaw_message()));
+            analysisMessage.setUserId(event.getSender().getUser_id());
+            analysisMessage.setUser(event.getSender().getNickname());
+            return analysisMessage;
+        }).toList();
+        var list = new ArrayList<ChatMessage>();
+        list.add(new ChatMessage("system", StaticPrompts.prompt.get(11)));
+        // 每个人较早的对话折叠成摘要，之后的原文都作为候选，几个人的按时间合在一起
+        var recentTurns = new ArrayList<ConversationSummarizer.Turn>();
+        var windows = new LinkedHashMap<Long, List<ConversationSummarizer.Turn>>();
+        targets.forEach((userId, event) -> {
+            var message = conversationPersistence.getAllMessagesByUser(groupId, userId, summarizer.historyLimit());
+            var reverse = CollectionUtil.reverse(message);
+            var window = summarizer.window(groupId, userId, reverse.stream()
+                    .map(m -> new ConversationSummarizer.Turn(m.getTime(), m.getRole(),
+                            !Objects.equals(m.getRole(), "assistant") ? m.getTargetUserId() : 0L,
+                            simpleMessage(m.getMessage())))
+                    .toList());
+            if (window.summary() != null) {
+                list.add(new ChatMessage("system", targets.size() > 1
+                        ? "此前和" + event.getSender().getNickname() + "（" + userId + "）对话的摘要：" + window.summary()
+                        : "此前对话的摘要：" + window.summary()));
+            }
+            windows.put(userId, window.recent());
+            recentTurns.addAll(window.recent());
+        });
+        // 当前这几条最后统一带上，已经入库的不重复
+        var currentKeys = current.stream().map(m -> m.getUserId() + ":" + m.getContent()).collect(Collectors.toSet());
+        var candidates = recentTurns.stream()
+                .distinct()
+                .filter(turn -> !currentKeys.contains(turn.userId() + ":" + turn.content()))
+                .sorted(Comparator.comparingLong(ConversationSummarizer.Turn::time))
+                .toList();
+        var analysisMessages = candidates.stream()
+                .map(m -> {
+                    AnalysisMessage analysisMessage = new AnalysisMessage();
+                    analysisMessage.setContent(m.content());
+                    analysisMessage.setUserId(m.userId());
+                    analysisMessage.setUser(m.user());
+                    return analysisMessage;
+                })
+                .toList();
+        // 按语义取回群里较早的相关发言，已在最近对话里的不重复带
+        var recentContents = recentTurns.stream().map(ConversationSummarizer.Turn::content).collect(Collectors.toSet());
+        var currentContents = current.stream().map(AnalysisMessage::getContent).collect(Collectors.toSet());
+        var recalled = chatMemory.recall(groupId, String.join("\n", currentContents)).stream()
+                .filter(hit -> !recentContents.contains(hit.text()) && !currentContents.contains(hit.text()))
+                .map(hit -> {
+                    AnalysisMessage recalledMessage = new AnalysisMessage();
+                    recalledMessage.setContent(hit.text());
+                    recalledMessage.setUserId(hit.userId());
+                    recalledMessage.setUser("user");
+                    return recalledMessage;
+                })
+                .toList();
+        if (!recalled.isEmpty()) {
+            list.add(new ChatMessage("system", "群里可能相关的较早发言：" + JSONUtil.toJsonStr(recalled)));
+        }
+        if (targets.size() > 1) {
+            list.add(new ChatMessage("system", "最后" + current.size() + "条消息来自同时@你的" + targets.size()
+                    + "位群友，请分别回复每一位，targetUser 填对应的 userId"));
+        }
+        // 按 token 预算保留最近的对话，当前这几条一定带上；额度紧张时预算更小
+        var context = new LlmCallContext(groupId, events.get(0).getSender().getUser_id(),
+                LlmCallContext.Priority.DIRECT, "at");
+        var budget = ContextBudgeter.forModel("deepseek-v3", context);
+        list.forEach(budget::reserve);
+        budget.reserve(TokenCounter.MESSAGE_OVERHEAD);
+        current.forEach(m -> budget.reserve(budget.count(JSONUtil.toJsonStr(m)) + 1));
+        var history = budget.fitRecent(analysisMessages, m -> budget.count(JSONUtil.toJsonStr(m)) + 1);
+        // 放不下的较早对话交给摘要
+        var dropped = new HashSet<>(candidates.subList(0, candidates.size() - history.size()));
+        windows.forEach((userId, turns) -> summarizer.spill(groupId, userId,
+                turns.stream().filter(dropped::contains).toList()));
+        history.addAll(current);
+        list.add(new ChatMessage("user", JSONUtil.toJsonStr(history)));
+        ChatRequest chatRequest = new ChatRequest();
+        chatRequest.setModel("deepseek-v3");
+        chatRequest.setStream(true);
+        chatRequest.setMessages(list);
+        LlmRouter.invoke(context, "chat", chatRequest, resp -> {
+            JSONArray entries = JSONUtil.parseArray(resp);
+            for (Object entry : entries) {
+                JSONObject entryJson = JSONUtil.parseObj(entry);
+                String type = entryJson.getStr("type");
+                String content = entryJson.getStr("content");
+                String targetUser = entryJson.getStr("targetUser");
+                // 合并了多人时 @ 回对应的人，targetUser 不在这批里就不 @
+                MessageBuilder builder = MessageBuilder.builder();
+                Long target = targets.size() > 1 ? parseUserId(targetUser) : null;
+                if (target != null && targets.containsKey(target)) {
+                    builder.at(target);
+                }
+                if ("chat".equals(type)){
+                    if(Math.random()>1){
+                        SovitsClient.ttsV4(content,5,(data)->{
+                                    last.getClient().sendGroupMessage(groupId, MessageBuilder.builder()
+                                            .record(data)
+                                            .build());
+                                });
+                        continue;
+                    }
+                    last.getClient().sendGroupMessage(groupId, builder
+                            .plainText(content)
+                            .build());
+                }else if("audio".equals(type)){
+                    // 语音消息不能带 @，先单独 @ 对应的人
+                    if (target != null && targets.containsKey(target)) {
+                        last.getClient().sendGroupMessage(groupId, builder.build());
+                    }
+                    SovitsClient.ttsV4(content,5,(data)->{
+                        last.getClient().sendGroupMessage(groupId, MessageBuilder.builder()
+                                .record(data)
+                                .build());
+                    });
+                }else if("image".equals(type)){
+                    last.getClient().sendGroupMessage(groupId, builder
+                            .plainText("画图请使用-bnn + 提示词 指令哦")
+                            .build());
+                }
+            }
+        }, reason -> {
+            MessageBuilder builder = MessageBuilder.builder();
+            if (targets.size() > 1) {
+                targets.keySet().forEach(builder::at);
+            }
+            last.getClient().sendGroupMessage(groupId, builder
+                    .plainText(reason == LlmScheduler.RejectReason.BUDGET
+                            ? "本群今天和我聊天的额度用完了，明天再来@我吧" : "现在找我聊天的人太多了，请稍后再@我")
+                    .build());
+        });
+    }
+
+    private static Long parseUserId(String userId) {
+        try {
+            return userId == null ? null : Long.parseLong(userId.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // 连接断开时回复发不出去，跳过 LLM 调用
+    private static boolean linkDown(MessageEvent event) {
+        if (event.getClient().isConnectedFor(event.getGroup_id())) {
+            return false;
+        }
+        log.info("napcat link is down, skip llm call for message {}", event.getMessage_id());
+        return true;
+    }
+
     private static @NotNull String simpleMessage(String rawMessage) {
         return rawMessage.replaceAll("\\[.*]", "")
                 .replaceAll("（.*）", "");
@@ -6,17 +6,35 @@ import org.nekotori.config.FileBasedBotConfiguration;
 import org.nekotori.event.NapCatMessageEvent;
 import org.nekotori.event.NekoMessageEvent;
 import org.nekotori.napcat.*;
+import org.nekotori.openai.AdaptiveLimiter;
+import org.nekotori.openai.LlmResponseCache;
+import org.nekotori.openai.LlmRouter;
+import org.nekotori.openai.LlmScheduler;
+import org.nekotori.openai.RelevanceGate;
+import org.nekotori.openai.TokenCounter;
+import org.nekotori.openai.TokenGovernor;
+import org.nekotori.resource.HttpTransport;
+import org.nekotori.util.BlockingExecution;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Schedulers;
 
 import java.io.File;
-import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.List;
 
 @Slf4j
 public class NapcatBot implements NekoBot<Event, MessageEvent>{
 
-    private NapCatMessageClient client;
+    private static final int DISPATCH_PREFETCH = 16;
+
+    private static final String HANDLER_RESOURCE = "handler";
+
+    private static final Duration INGEST_REPORT_INTERVAL = Duration.ofMinutes(1);
+
+    private NapCatClientPool pool;
+
+    private GroupLanes lanes;
     @Getter
     private FileBasedBotConfiguration config;
 
@@ -30,22 +48,80 @@ public class NapcatBot implements NekoBot<Event, MessageEvent>{
 
     private void init(String path) throws URISyntaxException {
         config = FileBasedBotConfiguration.resolveFile(new File(path));
-        var uri = new URI(config.getOnebot().getHost());
-        client = new NapCatMessageClient(uri, config.getOnebot().getToken());
+        BlockingExecution.configure(config.getExecution());
+        HttpTransport.configure(config.getHttp());
+        TokenCounter.configure(config.getLlm());
+        AdaptiveLimiter.configure(config.getLlm());
+        LlmScheduler.configure(config.getLlm());
+        LlmResponseCache.configure(config.getLlm());
+        LlmRouter.configure(config);
+        RelevanceGate.configure(config.getLlm());
+        TokenGovernor.configure(config.getLlm());
+        HttpTransport.prewarm(config.getHttp().getPrewarm());
+        pool = new NapCatClientPool(config.resolveOneBotEndpoints(), config.getIngest());
+        if (config.getLanes() != null && config.getLanes().isEnabled()) {
+            lanes = new GroupLanes(config.getLanes());
+        }
+        Flux.interval(INGEST_REPORT_INTERVAL)
+                .subscribe(tick -> {
+                    ingestStats().forEach(stats -> log.info("ingest {}", stats));
+                    pool.getClients().forEach(c -> log.info("message cache {} {}", c.getSelfId(), c.messageCacheStats()));
+                    log.info("napcat pool duplicates {}", pool.duplicates());
+                    laneStats().forEach(stats -> log.info("group {}", stats));
+                    HttpTransport.stats().forEach((origin, stats) -> log.info("http {} {}", origin, stats));
+                    AdaptiveLimiter.allStats().forEach(stats -> log.info("llm limiter {}", stats));
+                    LlmScheduler.allStats().forEach(stats -> log.info("llm {}", stats));
+                    log.info("llm response cache {}", LlmResponseCache.stats());
+                    LlmRouter.stats().forEach(stats -> log.info("llm provider {}", stats));
+                    log.info("relevance gate {}", RelevanceGate.stats());
+                    log.info("token governor {}", TokenGovernor.stats());
+                    BlockingExecution.pinnedStats().forEach((site, count) -> log.info("virtual thread pinned {} x{}", site, count));
+                });
+    }
+
+    public boolean isConnected() {
+        return pool.isConnected();
+    }
+
+    public Flux<ConnectionState> connectionStates() {
+        return pool.connectionStates();
+    }
+
+    public List<IngestBuffer.Stats> ingestStats() {
+        return pool.ingestStats();
+    }
+
+    public List<GroupLanes.Stats> laneStats() {
+        return lanes == null ? List.of() : lanes.stats();
     }
 
 
     @Override
     public <T extends Event> Flux<T> onEvent(Class<T> eventType) {
-        return client.subscribeOn(eventType)
-                .publishOn(Schedulers.boundedElastic())
+        // 预取保持较小，积压留在有界的入队缓冲里，而不是 publishOn 的队列里
+        return deliver(pool.subscribeOn(eventType));
+    }
+
+    private <T extends Event> Flux<T> deliver(Flux<T> source) {
+        return source
+                .publishOn(Schedulers.boundedElastic(), DISPATCH_PREFETCH)
                 .doOnComplete(()->log.info("NapcatBot onEvent complete"))
                 .doOnError(throwable -> log.error("NapcatBot onEvent failed",throwable));
     }
 
     @Override
     public <T extends MessageEvent> NekoMessageEvent<T> onMessageEvent(Class<T> eventType) {
-        return NapCatMessageEvent.of(onEvent(eventType));
+        if (lanes != null) {
+            // 不经过 publishOn，按通道空位逐条请求，保证同群的投递顺序
+            return NapCatMessageEvent.of(pool.router(eventType), source -> source
+                    .doOnError(throwable -> log.error("NapcatBot onEvent failed",throwable)), lanes);
+        }
+        if (BlockingExecution.isVirtual()) {
+            // 每次处理一个虚拟线程，并发由 handler 许可数限制
+            return NapCatMessageEvent.of(pool.router(eventType), this::deliver,
+                    (event, task) -> BlockingExecution.execute(HANDLER_RESOURCE, task));
+        }
+        return NapCatMessageEvent.of(pool.router(eventType), this::deliver);
     }
 
     @Override
@@ -198,5 +198,12 @@ public class StaticPrompts {
                参数数量一定不能超过50个。\
                请严格按照json格式输出回答，不能添加其他的回复。只输出json即可，并且Json内不允许换行。
                """);
+
+        prompt.put(13, """
+               你是一个对话摘要工具。用户的输入包含两部分：已有的摘要（可能为空）和一段新的聊天记录，\
+               聊天记录是json数组，用户名为"assistant"的是AI的发言。\
+               请把新的聊天记录合并进已有摘要，输出一段新的摘要，保留双方提到的事实、偏好、约定和还没有解决的问题，\
+               省略寒暄和重复内容。摘要使用中文第三人称，不超过200字，不要换行，只输出摘要本身。
+               """);
     }
 }
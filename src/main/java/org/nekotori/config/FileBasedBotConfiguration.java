@@ -6,6 +6,10 @@ import lombok.Data;
 import lombok.Getter;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author nekotori
@@ -43,8 +47,27 @@ public class FileBasedBotConfiguration {
 
     private OneBotWs onebot;
 
+    // 多账号时配置多个 OneBot 端点，未配置时使用 onebot
+    private List<OneBotWs> onebots;
+
     private Deepseek deepseek;
 
+    private Ingest ingest = new Ingest();
+
+    private Lanes lanes = new Lanes();
+
+    private Execution execution = new Execution();
+
+    private Http http = new Http();
+
+    private Llm llm = new Llm();
+
+    public List<OneBotWs> resolveOneBotEndpoints() {
+        if (onebots != null && !onebots.isEmpty()) {
+            return onebots;
+        }
+        return List.of(onebot);
+    }
 
 
     @Data
@@ -69,10 +92,255 @@ public class FileBasedBotConfiguration {
         private String host;
         private String token;
         private String msg;
+        // 传输实现：tyrus 或 netty
+        private String transport = "tyrus";
     }
 
     @Data
     public static class Deepseek {
         private String apiKey;
     }
+
+    @Data
+    public static class Ingest {
+        // 每个订阅的事件缓冲上限
+        private int capacity = 1024;
+        // BLOCK 策略下越过容量入队的指令最多等待的时间，超时后由消费端丢弃，入队本身从不等待
+        private long blockTimeoutMillis = 5000;
+        // 以此前缀开头的消息视为指令，按 BLOCK 策略入队
+        private String commandPrefix = "-";
+        // 事件类名 -> DROP_OLDEST / BLOCK / LATEST，未配置的类型沿父类查找
+        private Map<String, String> policies;
+    }
+
+    @Data
+    public static class Lanes {
+        // 开启后消息按群号分到串行执行通道，同一个群严格有序，不同群并行
+        private boolean enabled = false;
+        // 通道数，即处理线程数
+        private int count = 8;
+        // 每个通道排队的任务上限，满了之后订阅暂停，积压留在入队缓冲里
+        private int capacity = 256;
+    }
+
+    @Data
+    public static class Execution {
+        // pooled：固定线程池；virtual：每个阻塞任务一个虚拟线程，需要 JDK 21
+        private String mode = "pooled";
+        // pooled 模式的线程数
+        private int poolThreads = 32;
+        // 资源名 -> 并发上限，如 handler、sovits；大模型调用由 llm 限流器限制
+        private Map<String, Integer> permits = new HashMap<>(Map.of(
+                "handler", 256, "sovits", 2));
+        // 虚拟线程被钉住超过这个时间才报告
+        private long pinnedThresholdMillis = 20;
+    }
+
+    @Data
+    public static class Http {
+        // 每个上游主机保留的空闲连接数
+        private int maxIdleConnections = 8;
+        private long keepAliveMinutes = 5;
+        // 每个上游主机同时进行的请求上限
+        private int maxRequests = 64;
+        // 启动时预先建立连接的上游地址
+        private List<String> prewarm = List.of("https://api.lkeap.cloud.tencent.com/v1");
+    }
+
+    @Data
+    public static class Llm {
+        // 每个优先级排队的总数上限
+        private int queueCapacity = 64;
+        // 每个群在每个优先级排队的上限
+        private int groupQueueCapacity = 4;
+        // 每轮轮询给每个群补充的额度，单位是预估 token 数，请求按自己的预估 token 数扣减
+        private int quantum = 2048;
+        // 优先级 -> 最长排队时间，超时的请求直接拒绝
+        private Map<String, Long> maxQueueWaitMillis = new HashMap<>(Map.of(
+                "DIRECT", 60_000L, "COMMAND", 60_000L, "AMBIENT", 10_000L));
+        // 调用位置 -> 回复缓存秒数，未配置的调用位置不缓存
+        private Map<String, Long> cacheTtlSeconds = new HashMap<>(Map.of("sd", 3600L, "private", 600L));
+        // 回复缓存的条数和总字符数上限
+        private int cacheMaxEntries = 512;
+        private long cacheMaxChars = 1_000_000;
+        // 模型提供方 -> 限流参数，未配置的提供方使用 Limit 的默认值
+        private Map<String, Limit> limits = new HashMap<>(Map.of(
+                "deepseek", Limit.of(120, 200_000, 8, 32, 8_000),
+                "ollama", Limit.of(0, 0, 1, 2, 20_000)));
+
+        private Routing routing = new Routing();
+
+        private Summary summary = new Summary();
+
+        private Tokens tokens = new Tokens();
+
+        private Memory memory = new Memory();
+
+        private Relevance relevance = new Relevance();
+
+        private Budget budget = new Budget();
+
+        private Coalesce coalesce = new Coalesce();
+    }
+
+    @Data
+    public static class Coalesce {
+        // 空闲时第一条 @ 立即回复，之后间隔在这个时间内接连的 @ 合并成一次调用，0 表示不合并
+        private long windowMillis = 1_500;
+        // 从第一条 @ 算起，后续 @ 的最长等待
+        private long maxWaitMillis = 4_000;
+        // 攒够这么多条立即发出
+        private int maxBatch = 5;
+    }
+
+    @Data
+    public static class Budget {
+        // 滑动窗口内的计费量上限，默认 0 即不限，用量照常记录；计费量 = (提示 token + completionWeight × 回复 token) × 提供方权重。
+        // 要开启时在 llm.budget 下参考管理员 -usage 看到的实际用量填写，例如 groupDailyLimit: 200000、groupMonthlyLimit: 3000000、
+        // userDailyLimit: 50000；插话和摘要只计入群额度，不占发言人的个人额度
+        private long groupDailyLimit = 0;
+        private long groupMonthlyLimit = 0;
+        private long userDailyLimit = 0;
+        private double completionWeight = 2;
+        // 提供方 -> 计费权重，本地模型不计费
+        private Map<String, Double> providerWeights = new HashMap<>(Map.of(
+                "deepseek", 1.0, "openai", 1.0, "ollama", 0.0));
+        // 用量达到额度的这些比例时依次缩短上下文、只用本地模型、拒绝
+        private double shortContextAt = 0.7;
+        private double localOnlyAt = 0.85;
+        private double refuseAt = 1.0;
+        // 缩短上下文时提示词的 token 上限
+        private int shortContextTokens = 1_500;
+        private long flushIntervalSeconds = 60;
+    }
+
+    @Data
+    public static class Relevance {
+        // RelevanceTrainer 从 chat_history 离线训练的权重，文件不存在时只用内置的问句、关键词和活跃度特征
+        private String modelPath = "bot/relevance.model";
+        // 提到这些词的消息更值得回应
+        private List<String> keywords = new ArrayList<>(List.of("neko"));
+        // 分数下限
+        private double minScore = 0.3;
+        // 只回应分数排进本群最近 window 条消息前 topFraction 的消息
+        private double topFraction = 0.05;
+        private int window = 200;
+        // 每个群每小时的插话额度和可以连续使用的上限
+        private double callsPerHour = 6;
+        private int burst = 2;
+    }
+
+    @Data
+    public static class Memory {
+        // 开启后群聊记录写入本地向量索引，@ 对话时按语义取回相关的历史发言
+        private boolean enabled = false;
+        // 每个群一个子目录
+        private String dir = "bot/vectors";
+        // Ollama 向量接口和模型，dimensions 必须和模型输出一致
+        private String embedUrl = "http://localhost:11434/api/embed";
+        private String model = "bge-m3";
+        private int dimensions = 1024;
+        // HNSW 每层邻居数，以及建图、查询时的候选集大小
+        private int m = 16;
+        private int efConstruction = 100;
+        private int efSearch = 64;
+        // 每次取回的条数和最低余弦相似度
+        private int topK = 5;
+        private double minScore = 0.55;
+        // @ 回复前取当前消息向量的限时，超时或失败时这次回复不带历史发言
+        private long recallTimeoutMillis = 800;
+        // 待写入队列上限，满了直接丢弃，不阻塞收消息
+        private int queueCapacity = 4096;
+        // 每次向 Ollama 批量取向量的条数
+        private int batchSize = 32;
+        // 短于这个字数的消息不入索引
+        private int minChars = 4;
+        private long flushIntervalSeconds = 60;
+    }
+
+    @Data
+    public static class Tokens {
+        // tiktoken 格式词表所在目录，文件名为 <encoding>.tiktoken
+        private String tokenizerDir = "bot/tokenizers";
+        // 模型 -> 词表名，未配置的模型使用 defaultEncoding；词表缺失时按字符粗估
+        private Map<String, String> encodings = new HashMap<>();
+        private String defaultEncoding = "cl100k_base";
+        // 模型 -> 上下文窗口 token 数
+        private Map<String, Integer> contextTokens = new HashMap<>(Map.of("deepseek-v3", 64_000, "qwen3:8b", 32_768));
+        private int defaultContextTokens = 8_192;
+        // 给回复预留的 token 数
+        private int reservedOutputTokens = 2_048;
+        // 单次提示词的 token 上限，控制费用和首包时间，0 表示只受上下文窗口限制
+        private int maxPromptTokens = 6_000;
+    }
+
+    @Data
+    public static class Summary {
+        // @ 对话每人从库里取的最近对话条数，实际带多少由 token 预算决定
+        private int historyLimit = 100;
+        // 预算放不下的对话攒到这么多条时在后台折叠进摘要
+        private int foldThreshold = 4;
+        // 摘要最多保留的字符数
+        private int maxChars = 600;
+    }
+
+    @Data
+    public static class Routing {
+        // 模型类别 -> 按偏好排列的提供方
+        private Map<String, List<String>> classes = new HashMap<>(Map.of("chat", List.of("deepseek")));
+        private Map<String, Provider> providers = new HashMap<>(Map.of(
+                "deepseek", Provider.of("deepseek", Map.of("chat", "deepseek-v3")),
+                "ollama", Provider.of("ollama", Map.of("chat", "qwen3:8b"))));
+        // 对冲延迟取主提供方首包延迟的 p95，限制在这个范围内
+        private long minHedgeDelayMillis = 1_500;
+        private long maxHedgeDelayMillis = 10_000;
+        // 窗口内失败这么多次就熔断，熔断持续时间
+        private int breakerFailures = 5;
+        private long breakerWindowMillis = 30_000;
+        private long breakerOpenMillis = 30_000;
+    }
+
+    @Data
+    public static class Provider {
+        // deepseek、ollama 或 openai
+        private String type;
+        // openai 类型的接口地址
+        private String baseUrl;
+        private String apiKey;
+        // 模型类别 -> 该提供方的模型名
+        private Map<String, String> models = new HashMap<>();
+
+        public static Provider of(String type, Map<String, String> models) {
+            Provider provider = new Provider();
+            provider.setType(type);
+            provider.setModels(new HashMap<>(models));
+            return provider;
+        }
+    }
+
+    @Data
+    public static class Limit {
+        // 每分钟请求数、token 数，0 表示不限
+        private int requestsPerMinute;
+        private int tokensPerMinute;
+        // 自适应并发上限的初始值和范围
+        private int initialLimit = 4;
+        private int minLimit = 1;
+        private int maxLimit = 16;
+        // 首包延迟超过这个值按过载处理
+        private long latencyTargetMillis = 10_000;
+        // 过载时并发上限乘以这个比例
+        private double backoffRatio = 0.7;
+
+        public static Limit of(int requestsPerMinute, int tokensPerMinute, int initialLimit, int maxLimit,
+                               long latencyTargetMillis) {
+            Limit limit = new Limit();
+            limit.setRequestsPerMinute(requestsPerMinute);
+            limit.setTokensPerMinute(tokensPerMinute);
+            limit.setInitialLimit(initialLimit);
+            limit.setMaxLimit(maxLimit);
+            limit.setLatencyTargetMillis(latencyTargetMillis);
+            return limit;
+        }
+    }
 }
@@ -1,20 +1,112 @@
 package org.nekotori.event;
 
+import org.nekotori.napcat.CommandRouter;
+import org.nekotori.napcat.GroupLanes;
 import org.nekotori.napcat.MessageEvent;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 
-import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 public class NapCatMessageEvent<T extends MessageEvent> extends NekoMessageEvent<T>{
 
+    private CommandRouter<T> router;
+
+    private UnaryOperator<Flux<T>> delivery;
+
+    // 处理器的执行方式：虚拟线程等，为空时直接在投递线程上执行
+    private BiConsumer<MessageEvent, Runnable> executor;
+
+    // 按群串行通道，按通道空位向上游请求
+    private GroupLanes lanes;
+
+    // 订阅时才向路由注册，链上先声明的 onCommand / onAt / onAny 决定走哪条路由，三者都没声明时拒绝订阅
+    private String command;
+
+    private boolean at;
+
+    private boolean any;
+
     public static <E extends MessageEvent> NekoMessageEvent<E> of(Flux<E> flux){
         var eMessageEvent = new NapCatMessageEvent<E>();
         eMessageEvent.flux = flux;
         return eMessageEvent;
     }
 
+    public static <E extends MessageEvent> NekoMessageEvent<E> of(CommandRouter<E> router, UnaryOperator<Flux<E>> delivery){
+        return of(router, delivery, (BiConsumer<MessageEvent, Runnable>) null);
+    }
+
+    /**
+     * executor 不为空时，{@link #handle} 把每次处理交给它执行
+     */
+    public static <E extends MessageEvent> NekoMessageEvent<E> of(CommandRouter<E> router, UnaryOperator<Flux<E>> delivery,
+                                                                  BiConsumer<MessageEvent, Runnable> executor){
+        var eMessageEvent = new NapCatMessageEvent<E>();
+        eMessageEvent.router = router;
+        eMessageEvent.delivery = delivery;
+        eMessageEvent.executor = executor;
+        eMessageEvent.flux = Flux.defer(eMessageEvent::routed);
+        return eMessageEvent;
+    }
+
+    /**
+     * 处理器按群号交给串行通道执行
+     */
+    public static <E extends MessageEvent> NekoMessageEvent<E> of(CommandRouter<E> router, UnaryOperator<Flux<E>> delivery,
+                                                                  GroupLanes lanes){
+        var eMessageEvent = new NapCatMessageEvent<E>();
+        eMessageEvent.router = router;
+        eMessageEvent.delivery = delivery;
+        eMessageEvent.lanes = lanes;
+        eMessageEvent.flux = Flux.defer(eMessageEvent::routed);
+        return eMessageEvent;
+    }
+
+    private Flux<T> routed() {
+        Flux<T> source;
+        if (command != null) {
+            source = router.command(command);
+        } else if (at) {
+            source = router.at();
+        } else if (any) {
+            source = router.any();
+        } else {
+            return Flux.error(undeclaredRoute());
+        }
+        return delivery.apply(source);
+    }
+
+    private boolean routeSelected() {
+        return command != null || at || any;
+    }
+
+    private IllegalStateException undeclaredRoute() {
+        return new IllegalStateException("no route declared, call onCommand, onAt or onAny before handle");
+    }
+
+    @Override
+    public Disposable handle(Consumer<T> handler) {
+        if (router != null && !routeSelected()) {
+            throw undeclaredRoute();
+        }
+        if (lanes != null) {
+            return lanes.subscribe(flux, handler);
+        }
+        if (executor == null) {
+            return flux.subscribe(handler);
+        }
+        return flux.subscribe(event -> executor.accept(event, () -> handler.accept(event)));
+    }
+
     @Override
     public NekoMessageEvent<T> onCommand(String command) {
+        if (router != null && !routeSelected()) {
+            this.command = command;
+            return this;
+        }
         this.flux = flux.filter(event ->{
             String rawMessage = event.getRaw_message();
             return rawMessage.contains("-"+command +" ");
@@ -24,18 +116,19 @@ public class NapCatMessageEvent<T extends MessageEvent> extends NekoMessageEvent
 
     @Override
     public NekoMessageEvent<T> onAt() {
-        this.flux = flux.filter(event -> {
-            List<MessageEvent.MessageElement> message = event.getMessage();
-            for (MessageEvent.MessageElement element : message) {
-                if (element.getType().equals("at")) {
-                    var qq = element.getData().getQq();
-                    if (qq.equals("" +event.getSelf_id())) {
-                        return true;
-                    }
-                }
-            }
-            return false;
-        });
+        if (router != null && !routeSelected()) {
+            this.at = true;
+            return this;
+        }
+        this.flux = flux.filter(CommandRouter::isAtSelf);
+        return this;
+    }
+
+    @Override
+    public NekoMessageEvent<T> onAny() {
+        if (router != null && !routeSelected()) {
+            this.any = true;
+        }
         return this;
     }
 
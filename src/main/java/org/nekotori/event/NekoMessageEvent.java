@@ -1,7 +1,9 @@
 package org.nekotori.event;
 
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public abstract class NekoMessageEvent<E> {
@@ -17,6 +19,21 @@ public abstract class NekoMessageEvent<E> {
 
     public abstract NekoMessageEvent<E> onVerify(Class<?> clazz);
 
+    /**
+     * 显式声明接收全部消息，不依赖指令或 @。
+     * 按过滤实现的平台本来就收到全部消息，原样返回；集中路由的实现只有声明了才注册全量路由
+     */
+    public NekoMessageEvent<E> onAny() {
+        return this;
+    }
+
+    /**
+     * 订阅并处理事件，由具体实现决定处理线程
+     */
+    public Disposable handle(Consumer<E> handler) {
+        return flux.subscribe(handler);
+    }
+
     public NekoMessageEvent<E> onCommand(Predicate<E> commandSelector){
         this.flux = flux.filter(commandSelector);
         return this;
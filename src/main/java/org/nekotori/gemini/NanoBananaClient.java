@@ -3,13 +3,14 @@ package org.nekotori.gemini;
 import cn.hutool.json.JSONUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.nekotori.resource.HttpTransport;
 import reactor.core.publisher.Flux;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
@@ -20,7 +21,7 @@ public class NanoBananaClient {
     private final String baseUrl;
     private final String generateUrl = "/draw/nano-banana";
     private final String recordInfoUrl = "/draw/result";
-    private final HttpClient httpClient;
+    private final OkHttpClient httpClient;
     private final ObjectMapper objectMapper;
 
     public NanoBananaClient(String apiKey) {
@@ -31,9 +32,8 @@ public class NanoBananaClient {
 
         this.apiKey = apiKey;
         this.baseUrl = baseUrl;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
+        // 按主机共享连接，不再每条 -bnn 指令新建一个客户端
+        this.httpClient = HttpTransport.client(baseUrl);
         this.objectMapper = new ObjectMapper();
     }
 
@@ -47,22 +47,24 @@ public class NanoBananaClient {
         String requestBodyJson = objectMapper.writeValueAsString(options);
         log.info("请求体：\n{}", requestBodyJson);
 
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + generateUrl))
+        Request httpRequest = new Request.Builder()
+                .url(baseUrl + generateUrl)
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(requestBodyJson))
+                .post(RequestBody.create(requestBodyJson, MediaType.parse("application/json")))
                 .build();
         log.info("发送请求完成");
-        HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() != 200) {
-            log.info("请求失败,{}", response.body());
-            throw new RuntimeException("HTTP error: " + response.statusCode());
+        String responseBody;
+        try (Response response = httpClient.newCall(httpRequest).execute()) {
+            responseBody = response.body() == null ? "" : response.body().string();
+            if (response.code() != 200) {
+                log.info("请求失败,{}", responseBody);
+                throw new RuntimeException("HTTP error: " + response.code());
+            }
         }
 
-        log.info("请求成功，返回结果：\n{}", response.body());
-        BaseApiResponse apiResponse = objectMapper.readValue(response.body(), BaseApiResponse.class);
+        log.info("请求成功，返回结果：\n{}", responseBody);
+        BaseApiResponse apiResponse = objectMapper.readValue(responseBody, BaseApiResponse.class);
 
         if (apiResponse.getCode() != 0) {
             throw new RuntimeException("Generation failed: " + apiResponse.getMsg());
@@ -82,19 +84,21 @@ public class NanoBananaClient {
     public Data getTaskStatus(String taskId) throws Exception {
         Map<String, String> id = Map.of("id", taskId);
         String body = objectMapper.writeValueAsString(id);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl +recordInfoUrl))
+        Request request = new Request.Builder()
+                .url(baseUrl +recordInfoUrl)
                 .header("Authorization", "Bearer " + apiKey)
-                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .post(RequestBody.create(body, null))
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("HTTP error: " + response.statusCode());
+        String responseBody;
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.code() != 200) {
+                throw new RuntimeException("HTTP error: " + response.code());
+            }
+            responseBody = response.body() == null ? "" : response.body().string();
         }
 
-        GsrResponseData apiResponse = objectMapper.readValue(response.body(), GsrResponseData.class);
+        GsrResponseData apiResponse = objectMapper.readValue(responseBody, GsrResponseData.class);
         log.info(JSONUtil.toJsonPrettyStr(apiResponse));
         if (apiResponse.getCode() != 0) {
             throw new RuntimeException("Failed to get task status: " + apiResponse.getMsg());
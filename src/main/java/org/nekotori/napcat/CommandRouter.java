@@ -0,0 +1,197 @@
+package org.nekotori.napcat;
+
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 某类消息的集中路由。
+ * 每条消息只扫描一遍 raw_message，用指令前缀树找出其中出现的全部指令，只投递给命中的订阅；
+ * @ 机器人的订阅和显式注册的全量订阅各自单独一组。每个订阅仍带自己的有界入队缓冲，
+ * 路由成本只和消息长度、指令长度有关，不随注册的指令数增长。
+ */
+public class CommandRouter<T extends MessageEvent> {
+
+    private enum Kind {COMMAND, AT, ANY}
+
+    private final String name;
+
+    private final IngestPolicies policies;
+
+    private final String prefix;
+
+    private final List<Route<T>> routes = new ArrayList<>();
+
+    // 注册变化时整体重建，路由时只读
+    private volatile Table<T> table = new Table<>(new Node<>(), emptyTargets(), emptyTargets(), false);
+
+    public CommandRouter(String name, IngestPolicies policies) {
+        this.name = name;
+        this.policies = policies;
+        this.prefix = policies.commandPrefix() == null ? "" : policies.commandPrefix();
+    }
+
+    /**
+     * 包含指定指令的消息
+     */
+    public Flux<T> command(String command) {
+        return subscribe(Kind.COMMAND, command);
+    }
+
+    /**
+     * @ 了机器人自己的消息
+     */
+    public Flux<T> at() {
+        return subscribe(Kind.AT, null);
+    }
+
+    /**
+     * 全部消息，用于历史记录、随机插话等不依赖指令的处理器
+     */
+    public Flux<T> any() {
+        return subscribe(Kind.ANY, null);
+    }
+
+    // 全量订阅（历史记录等）先投递，按群串行执行时它们排在同一条消息的回复之前
+    public void route(T event) {
+        Table<T> current = table;
+        for (IngestBuffer<T> target : current.any()) {
+            target.offer(event);
+        }
+        if (current.at().length > 0 && isAtSelf(event)) {
+            for (IngestBuffer<T> target : current.at()) {
+                target.offer(event);
+            }
+        }
+        if (current.hasCommands()) {
+            for (IngestBuffer<T> target : matchCommands(current.root(), event.getRaw_message())) {
+                target.offer(event);
+            }
+        }
+    }
+
+    public List<IngestBuffer.Stats> ingestStats() {
+        synchronized (routes) {
+            return routes.stream().map(route -> route.buffer().stats()).toList();
+        }
+    }
+
+    private Flux<T> subscribe(Kind kind, String command) {
+        return Flux.create(sink -> {
+            String label = kind == Kind.COMMAND ? prefix + command : kind.name().toLowerCase();
+            var buffer = new IngestBuffer<T>(name + ":" + label, policies, sink);
+            var route = new Route<>(kind, command, buffer);
+            update(() -> routes.add(route));
+            sink.onRequest(n -> buffer.drain());
+            sink.onDispose(() -> {
+                update(() -> routes.remove(route));
+                buffer.clear();
+            });
+        });
+    }
+
+    private void update(Runnable change) {
+        synchronized (routes) {
+            change.run();
+            table = compile(routes);
+        }
+    }
+
+    private static <T extends MessageEvent> Table<T> compile(List<Route<T>> routes) {
+        Node<T> root = new Node<>();
+        List<IngestBuffer<T>> at = new ArrayList<>();
+        List<IngestBuffer<T>> any = new ArrayList<>();
+        boolean hasCommands = false;
+        for (Route<T> route : routes) {
+            switch (route.kind()) {
+                case COMMAND -> {
+                    Node<T> node = root;
+                    for (int i = 0; i < route.command().length(); i++) {
+                        node = node.children.computeIfAbsent(route.command().charAt(i), c -> new Node<>());
+                    }
+                    node.targets = append(node.targets, route.buffer());
+                    hasCommands = true;
+                }
+                case AT -> at.add(route.buffer());
+                case ANY -> any.add(route.buffer());
+            }
+        }
+        return new Table<>(root, at.toArray(emptyTargets()), any.toArray(emptyTargets()), hasCommands);
+    }
+
+    // 指令前缀出现在开头、空白或 CQ 码之后，指令名之后是空白或结尾才算命中；同一指令多次出现只投递一次
+    private List<IngestBuffer<T>> matchCommands(Node<T> root, String rawMessage) {
+        if (rawMessage == null || prefix.isEmpty()) {
+            return List.of();
+        }
+        List<IngestBuffer<T>> matched = null;
+        List<Node<T>> seen = null;
+        int length = rawMessage.length();
+        int from = 0;
+        int index;
+        while ((index = rawMessage.indexOf(prefix, from)) >= 0) {
+            from = index + prefix.length();
+            if (index > 0 && !Character.isWhitespace(rawMessage.charAt(index - 1)) && rawMessage.charAt(index - 1) != ']') {
+                continue;
+            }
+            Node<T> node = root;
+            for (int i = from; i < length && node != null; i++) {
+                node = node.children.get(rawMessage.charAt(i));
+                if (node == null || node.targets.length == 0) {
+                    continue;
+                }
+                if (i + 1 < length && !Character.isWhitespace(rawMessage.charAt(i + 1))) {
+                    continue;
+                }
+                if (seen == null) {
+                    seen = new ArrayList<>(2);
+                    matched = new ArrayList<>();
+                }
+                if (!seen.contains(node)) {
+                    seen.add(node);
+                    matched.addAll(Arrays.asList(node.targets));
+                }
+            }
+        }
+        return matched == null ? List.of() : matched;
+    }
+
+    public static boolean isAtSelf(MessageEvent event) {
+        String self = String.valueOf(event.getSelf_id());
+        for (MessageEvent.MessageElement element : event.getMessage()) {
+            if ("at".equals(element.getType()) && element.getData() != null && self.equals(element.getData().getQq())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends MessageEvent> IngestBuffer<T>[] emptyTargets() {
+        return (IngestBuffer<T>[]) new IngestBuffer<?>[0];
+    }
+
+    private static <T extends MessageEvent> IngestBuffer<T>[] append(IngestBuffer<T>[] targets, IngestBuffer<T> buffer) {
+        IngestBuffer<T>[] next = Arrays.copyOf(targets, targets.length + 1);
+        next[targets.length] = buffer;
+        return next;
+    }
+
+    private record Route<T extends MessageEvent>(Kind kind, String command, IngestBuffer<T> buffer) {
+    }
+
+    private record Table<T extends MessageEvent>(Node<T> root, IngestBuffer<T>[] at, IngestBuffer<T>[] any,
+                                                 boolean hasCommands) {
+    }
+
+    private static final class Node<T extends MessageEvent> {
+
+        private final Map<Character, Node<T>> children = new HashMap<>();
+
+        private IngestBuffer<T>[] targets = emptyTargets();
+    }
+}
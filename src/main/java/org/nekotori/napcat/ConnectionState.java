@@ -0,0 +1,11 @@
+package org.nekotori.napcat;
+
+/**
+ * NapCat 连接状态，处理器可以据此在断线期间暂停 LLM 调用等耗时工作
+ */
+public enum ConnectionState {
+    CONNECTING,
+    CONNECTED,
+    DISCONNECTED,
+    CLOSED
+}
@@ -0,0 +1,136 @@
+package org.nekotori.napcat;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 按事件具体类型索引的分发表。
+ * 注册表是写时复制数组，注册和移除都用 CAS 完成；每个具体事件类型第一次出现时，
+ * 沿类型层次算好需要它的监听器数组并缓存，之后每帧只做一次查表，不再逐个 isInstance。
+ */
+@Slf4j
+public class EventDispatcher {
+
+    private static final Registration<?>[] EMPTY = new Registration<?>[0];
+
+    private final AtomicReference<Registration<?>[]> registrations = new AtomicReference<>(EMPTY);
+
+    private final ConcurrentHashMap<Class<?>, Route> routes = new ConcurrentHashMap<>();
+
+    private final Set<IngestBuffer<?>> ingestBuffers = ConcurrentHashMap.newKeySet();
+
+    public <T extends Event> Registration<T> register(Class<T> type, Consumer<? super T> listener) {
+        Registration<T> registration = new Registration<>(type, listener);
+        while (true) {
+            Registration<?>[] current = registrations.get();
+            Registration<?>[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = registration;
+            if (registrations.compareAndSet(current, next)) {
+                return registration;
+            }
+        }
+    }
+
+    public void remove(Registration<?> registration) {
+        while (true) {
+            Registration<?>[] current = registrations.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == registration) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            Registration<?>[] next = new Registration<?>[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            if (registrations.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    public void dispatch(Event event) {
+        Registration<?>[] snapshot = registrations.get();
+        Class<?> eventType = event.getClass();
+        Route route = routes.get(eventType);
+        // 注册表变化后路由自然失效，按当前快照重新计算
+        if (route == null || route.source != snapshot) {
+            route = new Route(snapshot, resolve(snapshot, eventType));
+            routes.put(eventType, route);
+        }
+        for (Registration<?> target : route.targets) {
+            try {
+                target.deliver(event);
+            } catch (Exception e) {
+                log.error("dispatch {} to {} listener error", eventType.getSimpleName(), target.type.getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * 订阅某类事件，每个订阅各自带一个有界入队缓冲，订阅取消时自动移除
+     */
+    public <T extends Event> Flux<T> subscribe(Class<T> clazz, IngestPolicies policies) {
+        return Flux.create(fluxSink -> {
+            var buffer = new IngestBuffer<T>(clazz.getSimpleName(), policies, fluxSink);
+            var registration = register(clazz, buffer::offer);
+            ingestBuffers.add(buffer);
+            fluxSink.onRequest(n -> buffer.drain());
+            fluxSink.onDispose(() -> {
+                remove(registration);
+                ingestBuffers.remove(buffer);
+                buffer.clear();
+            });
+        });
+    }
+
+    public List<IngestBuffer.Stats> ingestStats() {
+        return ingestBuffers.stream().map(IngestBuffer::stats).toList();
+    }
+
+    public int size() {
+        return registrations.get().length;
+    }
+
+    private static Registration<?>[] resolve(Registration<?>[] snapshot, Class<?> eventType) {
+        return Arrays.stream(snapshot)
+                .filter(registration -> registration.type.isAssignableFrom(eventType))
+                .toArray(Registration<?>[]::new);
+    }
+
+    private record Route(Registration<?>[] source, Registration<?>[] targets) {
+    }
+
+    public static final class Registration<T extends Event> {
+
+        private final Class<T> type;
+
+        private final Consumer<? super T> listener;
+
+        private Registration(Class<T> type, Consumer<? super T> listener) {
+            this.type = type;
+            this.listener = listener;
+        }
+
+        public Class<T> getType() {
+            return type;
+        }
+
+        // 路由表已经保证了类型匹配，这里不再做 isInstance 检查
+        @SuppressWarnings("unchecked")
+        private void deliver(Event event) {
+            listener.accept((T) event);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.nekotori.napcat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.util.BlockingExecution;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 按群号分片的串行执行通道。
+ * 同一个群的任务总落在同一条通道上按提交顺序执行，不同群分散在各通道上并行。
+ * 订阅每次只向上游请求一条，放进通道后再请求下一条；通道满时订阅暂停，直到该通道腾出位置，
+ * 积压留在入队缓冲里由它的 DROP / BLOCK 策略处理，投递线程从不在通道上等待。
+ */
+@Slf4j
+public class GroupLanes {
+
+    private final Lane[] lanes;
+
+    public GroupLanes(FileBasedBotConfiguration.Lanes config) {
+        int count = Math.max(1, config.getCount());
+        this.lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane(i, Math.max(1, config.getCapacity()));
+        }
+        log.info("group lanes started: {} lanes, capacity {}", count, config.getCapacity());
+    }
+
+    /**
+     * 群消息按群号分片，私聊按发送者分片
+     */
+    public static long keyOf(Event event) {
+        if (event instanceof MessageEvent messageEvent) {
+            return messageEvent.getGroup_id() != null ? messageEvent.getGroup_id() : messageEvent.getUser_id();
+        }
+        return event.getSelf_id();
+    }
+
+    /**
+     * 订阅事件流，每个事件交给所属通道执行 handler
+     */
+    public <T extends Event> Disposable subscribe(Flux<T> source, Consumer<? super T> handler) {
+        LaneSubscriber<T> subscriber = new LaneSubscriber<>(handler);
+        source.subscribe(subscriber);
+        return subscriber;
+    }
+
+    public List<Stats> stats() {
+        List<Stats> stats = new ArrayList<>(lanes.length);
+        for (Lane lane : lanes) {
+            stats.add(new Stats(lane.index, lane.queue.size(), lane.capacity, lane.executed.sum(), lane.stalled.sum(),
+                    lane.waiters.size()));
+        }
+        return stats;
+    }
+
+    // 群号连续分配时低位分布不均，先打散再取模
+    private int laneOf(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(mixed ^ (mixed >>> 32), (long) lanes.length);
+    }
+
+    private final class LaneSubscriber<T extends Event> extends BaseSubscriber<T> {
+
+        private final Consumer<? super T> handler;
+
+        private LaneSubscriber(Consumer<? super T> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(1);
+        }
+
+        @Override
+        protected void hookOnNext(T event) {
+            Lane lane = lanes[laneOf(keyOf(event))];
+            Waiter waiter = new Waiter(this, () -> handler.accept(event));
+            if (!lane.resume(waiter)) {
+                // 先登记再复查，避免通道在两步之间清空而没人唤醒
+                lane.stalled.increment();
+                lane.waiters.addLast(waiter);
+                lane.wake();
+            }
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            log.error("group lane subscription failed", throwable);
+        }
+    }
+
+    private record Waiter(BaseSubscriber<?> subscriber, Runnable task) {
+    }
+
+    private static final class Lane implements Runnable {
+
+        private final int index;
+
+        private final int capacity;
+
+        private final BlockingQueue<Runnable> queue;
+
+        // 因通道满而暂停的订阅，通道腾出位置时按暂停顺序恢复
+        private final ConcurrentLinkedDeque<Waiter> waiters = new ConcurrentLinkedDeque<>();
+
+        private final LongAdder executed = new LongAdder();
+
+        private final LongAdder stalled = new LongAdder();
+
+        private Lane(int index, int capacity) {
+            this.index = index;
+            this.capacity = capacity;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            BlockingExecution.newThread("napcat-lane-" + index, this).start();
+        }
+
+        private boolean resume(Waiter waiter) {
+            if (!queue.offer(waiter.task())) {
+                return false;
+            }
+            waiter.subscriber().request(1);
+            return true;
+        }
+
+        private void wake() {
+            while (queue.remainingCapacity() > 0) {
+                Waiter waiter = waiters.pollFirst();
+                if (waiter == null) {
+                    return;
+                }
+                if (!resume(waiter)) {
+                    waiters.addFirst(waiter);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wake();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("group lane {} task error", index, e);
+                }
+                executed.increment();
+            }
+        }
+    }
+
+    public record Stats(int lane, int depth, int capacity, long executed, long stalled, int waiting) {
+
+        @Override
+        public String toString() {
+            return String.format("lane=%d depth=%d/%d executed=%d stalled=%d waiting=%d",
+                    lane, depth, capacity, executed, stalled, waiting);
+        }
+    }
+}
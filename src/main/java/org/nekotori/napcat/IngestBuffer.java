@@ -0,0 +1,211 @@
+package org.nekotori.napcat;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个订阅的有界入队缓冲。
+ * 事件先进入固定容量的环形队列，只有下游有需求时才向 FluxSink 发射，
+ * 队列满时按事件的策略处理：丢最旧的可丢弃事件、越过容量保留指令或只保留同类型的最新一条。
+ * 生产者是连接的读线程，入队从不等待；积压只由消费端按需求拉取，超时的指令也在消费端丢弃。
+ */
+@Slf4j
+public class IngestBuffer<T extends Event> {
+
+    public enum Policy {
+        // 队列满时丢弃最旧的非 BLOCK 事件
+        DROP_OLDEST,
+        // 队列满时先挤掉可丢弃事件，仍满则越过容量入队，最多再占一倍容量，等待超时后由消费端丢弃
+        BLOCK,
+        // 队列中同类型事件只保留最新一条
+        LATEST
+    }
+
+    private final String name;
+
+    private final IngestPolicies policies;
+
+    private final FluxSink<T> sink;
+
+    private final ArrayDeque<Slot<T>> ring;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final LongAdder enqueued = new LongAdder();
+
+    private final LongAdder dispatched = new LongAdder();
+
+    private final LongAdder[] drops = new LongAdder[Policy.values().length];
+
+    private final LongAdder latencyNanos = new LongAdder();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public IngestBuffer(String name, IngestPolicies policies, FluxSink<T> sink) {
+        this.name = name;
+        this.policies = policies;
+        this.sink = sink;
+        this.ring = new ArrayDeque<>(policies.capacity());
+        for (int i = 0; i < drops.length; i++) {
+            drops[i] = new LongAdder();
+        }
+    }
+
+    public void offer(T event) {
+        Policy policy = policies.resolve(event);
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (policy == Policy.LATEST && replaceLatest(event, now)) {
+                return;
+            }
+            boolean overflow = false;
+            if (ring.size() >= policies.capacity() && !evictOldest()) {
+                // 队列里全是指令，指令越过容量排队，其余只能丢弃新来的
+                if (policy != Policy.BLOCK || ring.size() >= policies.capacity() * 2) {
+                    drop(policy);
+                    return;
+                }
+                overflow = true;
+            }
+            ring.addLast(new Slot<>(event, policy, now, overflow));
+            enqueued.increment();
+        } finally {
+            lock.unlock();
+            // 替换或丢弃时也尝试发射，保证下游需求不会被遗漏
+            drain();
+        }
+    }
+
+    public void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                Slot<T> slot = poll();
+                if (slot == null) {
+                    break;
+                }
+                long latency = System.nanoTime() - slot.enqueuedAt;
+                if (slot.overflow && latency > TimeUnit.MILLISECONDS.toNanos(policies.blockTimeoutMillis())) {
+                    drop(Policy.BLOCK);
+                    continue;
+                }
+                latencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                dispatched.increment();
+                sink.next(slot.event);
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            ring.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        long count = dispatched.sum();
+        long[] dropCounts = new long[drops.length];
+        for (int i = 0; i < drops.length; i++) {
+            dropCounts[i] = drops[i].sum();
+        }
+        return new Stats(name, depth(), policies.capacity(), enqueued.sum(), count, dropCounts,
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(latencyNanos.sum() / count),
+                TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get()));
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return ring.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Slot<T> poll() {
+        lock.lock();
+        try {
+            return ring.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean replaceLatest(T event, long now) {
+        for (Slot<T> slot : ring) {
+            if (slot.policy == Policy.LATEST && slot.event.getClass() == event.getClass()) {
+                slot.event = event;
+                slot.enqueuedAt = now;
+                drop(Policy.LATEST);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean evictOldest() {
+        Iterator<Slot<T>> iterator = ring.iterator();
+        while (iterator.hasNext()) {
+            Slot<T> slot = iterator.next();
+            if (slot.policy != Policy.BLOCK) {
+                iterator.remove();
+                drop(slot.policy);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drop(Policy policy) {
+        drops[policy.ordinal()].increment();
+    }
+
+    private static final class Slot<T> {
+        T event;
+        final Policy policy;
+        long enqueuedAt;
+        // 越过容量入队的指令，等待超时后由消费端丢弃
+        final boolean overflow;
+
+        Slot(T event, Policy policy, long enqueuedAt, boolean overflow) {
+            this.event = event;
+            this.policy = policy;
+            this.enqueuedAt = enqueuedAt;
+            this.overflow = overflow;
+        }
+    }
+
+    public record Stats(String name, int depth, int capacity, long enqueued, long dispatched, long[] drops,
+                        long avgLatencyMicros, long maxLatencyMicros) {
+
+        public long dropped(Policy policy) {
+            return drops[policy.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s depth=%d/%d enqueued=%d dispatched=%d dropOldest=%d blockTimeout=%d latestReplaced=%d avg=%dus max=%dus",
+                    name, depth, capacity, enqueued, dispatched, dropped(Policy.DROP_OLDEST), dropped(Policy.BLOCK),
+                    dropped(Policy.LATEST), avgLatencyMicros, maxLatencyMicros);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.nekotori.napcat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 入队溢出策略的解析：指令消息走 BLOCK，其余按事件类型配置，默认心跳只保留最新一条、普通聊天丢最旧的。
+ */
+@Slf4j
+public class IngestPolicies {
+
+    private final Map<String, IngestBuffer.Policy> byTypeName = new HashMap<>();
+
+    private final ClassValue<IngestBuffer.Policy> byType = new ClassValue<>() {
+        @Override
+        protected IngestBuffer.Policy computeValue(Class<?> type) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                IngestBuffer.Policy policy = byTypeName.get(c.getSimpleName());
+                if (policy != null) {
+                    return policy;
+                }
+            }
+            return IngestBuffer.Policy.DROP_OLDEST;
+        }
+    };
+
+    private final String commandPrefix;
+
+    private final FileBasedBotConfiguration.Ingest config;
+
+    public IngestPolicies(FileBasedBotConfiguration.Ingest config) {
+        this.config = Optional.ofNullable(config).orElseGet(FileBasedBotConfiguration.Ingest::new);
+        this.commandPrefix = this.config.getCommandPrefix();
+        byTypeName.put(MetaEvent.class.getSimpleName(), IngestBuffer.Policy.LATEST);
+        Optional.ofNullable(this.config.getPolicies()).ifPresent(policies -> policies.forEach((type, policy) -> {
+            try {
+                byTypeName.put(type, IngestBuffer.Policy.valueOf(policy.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                log.error("unknown ingest policy {} for {}", policy, type);
+            }
+        }));
+    }
+
+    public int capacity() {
+        return config.getCapacity();
+    }
+
+    public long blockTimeoutMillis() {
+        return config.getBlockTimeoutMillis();
+    }
+
+    public String commandPrefix() {
+        return commandPrefix;
+    }
+
+    public IngestBuffer.Policy resolve(Event event) {
+        if (event instanceof MessageEvent messageEvent && isCommand(messageEvent.getRaw_message())) {
+            return IngestBuffer.Policy.BLOCK;
+        }
+        return byType.get(event.getClass());
+    }
+
+    // 指令前缀出现在开头、空白或 CQ 码之后，并紧跟字母，才算指令
+    private boolean isCommand(String rawMessage) {
+        if (rawMessage == null || commandPrefix == null || commandPrefix.isEmpty()) {
+            return false;
+        }
+        int from = 0;
+        int index;
+        while ((index = rawMessage.indexOf(commandPrefix, from)) >= 0) {
+            int next = index + commandPrefix.length();
+            boolean boundary = index == 0 || Character.isWhitespace(rawMessage.charAt(index - 1))
+                    || rawMessage.charAt(index - 1) == ']';
+            if (boundary && next < rawMessage.length() && Character.isLetter(rawMessage.charAt(next))) {
+                return true;
+            }
+            from = next;
+        }
+        return false;
+    }
+}
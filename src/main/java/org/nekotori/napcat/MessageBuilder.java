@@ -6,6 +6,7 @@ import cn.hutool.json.JSONUtil;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class MessageBuilder {
 
@@ -63,28 +64,44 @@ public class MessageBuilder {
         return messages;
     }
 
-    public static List<Message> parse(MessageEvent event){
-        List<Message> messages = new ArrayList<>();
-        List<MessageEvent.MessageElement> message = event.getMessage();
-        message.forEach(messageElement -> {
+    /**
+     * 展开消息元素，回复引用通过 getMessageAsync 加载被引用的消息，加载失败或超时时跳过该引用
+     */
+    public static CompletableFuture<List<Message>> parseAsync(MessageEvent event){
+        List<CompletableFuture<List<Message>>> parts = new ArrayList<>();
+        event.getMessage().forEach(messageElement -> {
             if (messageElement.getType().equals("reply")){
-                MessageEvent innerMessage = NapCatMessageClient.getMessage(messageElement.getData().getId());
-                innerMessage.getMessage().forEach(messageElement1 -> {
-                    Message message1 = new Message();
-                    message1.setType(messageElement1.getType());
-                    message1.setData(JSONUtil.toBean(JSONUtil.toJsonStr(messageElement1.getData()),
-                            new TypeReference<Map<String,String>>(){},true));
-                    messages.add(message1);
-                });
+                parts.add(event.getClient().getMessageAsync(messageElement.getData().getId())
+                        .handle((innerMessage, throwable) -> {
+                            if (innerMessage == null || innerMessage.getMessage() == null) {
+                                return List.<Message>of();
+                            }
+                            return innerMessage.getMessage().stream().map(MessageBuilder::toMessage).toList();
+                        }));
             }else {
-                Message message1 = new Message();
-                message1.setType(messageElement.getType());
-                message1.setData(JSONUtil.toBean(JSONUtil.toJsonStr(messageElement.getData()),
-                        new TypeReference<Map<String,String>>(){},true));
-                messages.add(message1);
+                parts.add(CompletableFuture.completedFuture(List.of(toMessage(messageElement))));
             }
         });
-        return messages;
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            List<Message> messages = new ArrayList<>();
+            parts.forEach(part -> messages.addAll(part.join()));
+            return messages;
+        });
+    }
+
+    /**
+     * 同步版本，回复引用的加载受 get_msg 调用超时约束，处理器线程里请优先使用 {@link #parseAsync}
+     */
+    public static List<Message> parse(MessageEvent event){
+        return parseAsync(event).join();
+    }
+
+    private static Message toMessage(MessageEvent.MessageElement messageElement) {
+        Message message = new Message();
+        message.setType(messageElement.getType());
+        message.setData(JSONUtil.toBean(JSONUtil.toJsonStr(messageElement.getData()),
+                new TypeReference<Map<String,String>>(){},true));
+        return message;
     }
 
 }
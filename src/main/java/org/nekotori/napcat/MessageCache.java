@@ -0,0 +1,119 @@
+package org.nekotori.napcat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+
+/**
+ * 最近消息的有界 LRU 缓存，message_id -> MessageEvent。
+ * 入站消息被动写入，回复引用命中时不再发起 get_msg；未命中时同一 id 的并发查询只加载一次。
+ */
+public class MessageCache {
+
+    private final int capacity;
+
+    private final LinkedHashMap<Long, MessageEvent> entries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ConcurrentHashMap<Long, CompletableFuture<MessageEvent>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    public MessageCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MessageEvent> eldest) {
+                return size() > MessageCache.this.capacity;
+            }
+        };
+    }
+
+    public void put(MessageEvent event) {
+        lock.lock();
+        try {
+            entries.put(event.getMessage_id(), event);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public MessageEvent getIfPresent(long messageId) {
+        lock.lock();
+        try {
+            return entries.get(messageId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CompletableFuture<MessageEvent> get(long messageId, LongFunction<CompletableFuture<MessageEvent>> loader) {
+        MessageEvent cached = getIfPresent(messageId);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<MessageEvent> created = new CompletableFuture<>();
+        CompletableFuture<MessageEvent> inFlight = loading.putIfAbsent(messageId, created);
+        if (inFlight != null) {
+            coalesced.increment();
+            return inFlight;
+        }
+        misses.increment();
+        CompletableFuture<MessageEvent> load;
+        try {
+            load = loader.apply(messageId);
+        } catch (RuntimeException e) {
+            // 同步抛出时也要让出位置，否则之后的查询都会等一个永远不会完成的 future
+            loading.remove(messageId, created);
+            created.completeExceptionally(e);
+            return created;
+        }
+        load.whenComplete((event, throwable) -> {
+            if (event != null) {
+                put(event);
+            }
+            loading.remove(messageId, created);
+            if (throwable != null) {
+                created.completeExceptionally(throwable);
+            } else {
+                created.complete(event);
+            }
+        });
+        return created;
+    }
+
+    public Stats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(size, capacity, hits.sum(), misses.sum(), coalesced.sum());
+    }
+
+    public record Stats(int size, int capacity, long hits, long misses, long coalesced) {
+
+        public double hitRate() {
+            long total = hits + misses + coalesced;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d/%d hits=%d misses=%d coalesced=%d hitRate=%.2f%%",
+                    size, capacity, hits, misses, coalesced, hitRate() * 100);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package org.nekotori.napcat;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
-import org.nekotori.event.NekoMessageEvent;
+import lombok.Getter;
+import lombok.ToString;
 
 import java.util.List;
 
@@ -21,13 +23,27 @@ public class MessageEvent extends Event{
     private String raw_message;
     private int font;
     private String sub_type; // normal / friend / ...
-    private List<MessageElement> message;
+    private volatile List<MessageElement> message;
+    // 解码器截取的 message 原始数组，首次 getMessage 时才反序列化
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient String rawMessageElements;
     private String message_format;
     private String post_type;
     private Long group_id;  // nullable
     private Long target_id; // nullable, 私聊专用
     // Getters & Setters
 
+    public List<MessageElement> getMessage() {
+        List<MessageElement> elements = message;
+        if (elements == null && rawMessageElements != null) {
+            elements = NapCatEventDecoder.decodeElements(rawMessageElements);
+            message = elements;
+        }
+        return elements;
+    }
+
     @Data
     public static class Sender {
         private long user_id;
@@ -1,5 +1,15 @@
 package org.nekotori.napcat;
 
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+@Slf4j
+@Data
 public class MessageRequestResponse {
 
     private String status;
@@ -8,5 +18,46 @@ public class MessageRequestResponse {
 
     private String message;
 
+    private String echo;
+
     private MessageEvent data;
+
+    // 解码器截取的 data 原始内容，按调用方需要的类型再反序列化
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient String rawData;
+
+    public boolean isOk() {
+        return "ok".equals(status) && retcode == 0;
+    }
+
+    /**
+     * get_msg 等动作返回的消息事件
+     */
+    public MessageEvent getData() {
+        MessageEvent event = data;
+        if (event == null && rawData != null) {
+            event = getData(MessageEvent.class);
+            data = event;
+        }
+        return event;
+    }
+
+    /**
+     * 按指定类型解析 data，用于 send_msg 等返回其他结构的动作
+     */
+    public <T> T getData(Class<T> type) {
+        if (rawData == null) {
+            return null;
+        }
+        try {
+            if (MessageEvent.class.isAssignableFrom(type)) {
+                return type.cast(NapCatEventDecoder.decode(rawData));
+            }
+            return NapCatEventDecoder.MAPPER.readValue(rawData, type);
+        } catch (IOException | ClassCastException e) {
+            log.error("decode {} response data error: {}", echo, e.getMessage());
+            return null;
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package org.nekotori.napcat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 多账号 NapCat 连接池。
+ * 每个 OneBot 端点一个连接，多个账号在同一个群里收到的同一条消息只向下游分发一次；
+ * 群消息的出站连接按一致性哈希分配，在群内账号之间分摊发送量，同一个群始终走同一个账号。
+ */
+@Slf4j
+public class NapCatClientPool {
+
+    private static final int VIRTUAL_NODES = 64;
+
+    private static final int DEDUP_WINDOW = 8192;
+
+    private final List<NapCatMessageClient> clients = new ArrayList<>();
+
+    private final TreeMap<Long, NapCatMessageClient> ring = new TreeMap<>();
+
+    private final EventDispatcher dispatcher = new EventDispatcher();
+
+    private final IngestPolicies ingestPolicies;
+
+    private final ConcurrentHashMap<Class<?>, CommandRouter<?>> routers = new ConcurrentHashMap<>();
+
+    // 群号 -> 在该群里收到过消息的账号
+    private final ConcurrentHashMap<Long, Set<Long>> groupMembers = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, Boolean> recentKeys = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > DEDUP_WINDOW;
+        }
+    };
+
+    private final ReentrantLock dedupLock = new ReentrantLock();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    public NapCatClientPool(List<FileBasedBotConfiguration.OneBotWs> endpoints, FileBasedBotConfiguration.Ingest ingest)
+            throws URISyntaxException {
+        this(endpoints, ingest, endpoint -> NapCatTransport.create(endpoint.getTransport()));
+    }
+
+    NapCatClientPool(List<FileBasedBotConfiguration.OneBotWs> endpoints, FileBasedBotConfiguration.Ingest ingest,
+                     Function<FileBasedBotConfiguration.OneBotWs, NapCatTransport> transports) throws URISyntaxException {
+        this.ingestPolicies = new IngestPolicies(ingest);
+        for (FileBasedBotConfiguration.OneBotWs endpoint : endpoints) {
+            var client = new NapCatMessageClient(new URI(endpoint.getHost()), endpoint.getToken(), ingest,
+                    transports.apply(endpoint));
+            client.setEventListener(this::onEvent);
+            client.setGroupSender(this::ownerOf);
+            clients.add(client);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(endpoint.getHost() + "#" + i), client);
+            }
+        }
+        log.info("napcat pool started with {} connections", clients.size());
+    }
+
+    public <T extends Event> Flux<T> subscribeOn(Class<T> clazz) {
+        return dispatcher.subscribe(clazz, ingestPolicies);
+    }
+
+    /**
+     * 某类消息的指令路由，每个类型只向分发表注册一次
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends MessageEvent> CommandRouter<T> router(Class<T> clazz) {
+        return (CommandRouter<T>) routers.computeIfAbsent(clazz, type -> {
+            var router = new CommandRouter<T>(clazz.getSimpleName(), ingestPolicies);
+            dispatcher.register(clazz, router::route);
+            return router;
+        });
+    }
+
+    public List<NapCatMessageClient> getClients() {
+        return clients;
+    }
+
+    public boolean isConnected() {
+        return clients.stream().anyMatch(NapCatMessageClient::isConnected);
+    }
+
+    public Flux<ConnectionState> connectionStates() {
+        return Flux.merge(clients.stream().map(NapCatMessageClient::connectionStates).toList());
+    }
+
+    public List<IngestBuffer.Stats> ingestStats() {
+        List<IngestBuffer.Stats> stats = new ArrayList<>(dispatcher.ingestStats());
+        routers.values().forEach(router -> stats.addAll(router.ingestStats()));
+        return stats;
+    }
+
+    public long duplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * 群的出站连接：从群号的哈希位置顺时针找第一个已连接且在群里的账号
+     */
+    public NapCatMessageClient ownerOf(Long groupId) {
+        if (groupId == null || clients.size() == 1) {
+            return clients.get(0);
+        }
+        Set<Long> members = groupMembers.getOrDefault(groupId, Set.of());
+        NapCatMessageClient fallback = null;
+        var clockwise = ring.tailMap(hash(String.valueOf(groupId))).values();
+        for (var candidates : List.of(clockwise, ring.values())) {
+            for (NapCatMessageClient client : candidates) {
+                if (!client.isConnected()) {
+                    continue;
+                }
+                if (members.contains(client.getSelfId())) {
+                    return client;
+                }
+                if (fallback == null) {
+                    fallback = client;
+                }
+            }
+        }
+        return fallback != null ? fallback : clients.get(0);
+    }
+
+    private void onEvent(Event event) {
+        if (event instanceof GroupMessageEvent groupEvent && groupEvent.getGroup_id() != null) {
+            groupMembers.computeIfAbsent(groupEvent.getGroup_id(), id -> ConcurrentHashMap.newKeySet())
+                    .add(groupEvent.getSelf_id());
+            // 池内其他账号发的消息不当作用户消息
+            if (isPoolAccount(groupEvent.getUser_id()) || !firstSeen(dedupKey(groupEvent))) {
+                duplicates.increment();
+                return;
+            }
+        }
+        dispatcher.dispatch(event);
+    }
+
+    private boolean isPoolAccount(long userId) {
+        for (NapCatMessageClient client : clients) {
+            if (client.getSelfId() == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean firstSeen(String key) {
+        dedupLock.lock();
+        try {
+            return recentKeys.putIfAbsent(key, Boolean.TRUE) == null;
+        } finally {
+            dedupLock.unlock();
+        }
+    }
+
+    // message_id 是账号各自的编号，群内全局的是 real_seq；拿不到时退回发送者、时间和内容
+    private static String dedupKey(GroupMessageEvent event) {
+        String realSeq = event.getReal_seq();
+        if (realSeq != null && !realSeq.isEmpty() && !"0".equals(realSeq)) {
+            return event.getGroup_id() + ":" + realSeq;
+        }
+        return event.getGroup_id() + ":" + event.getUser_id() + ":" + event.getTime() + ":"
+                + (event.getRaw_message() == null ? 0 : event.getRaw_message().hashCode());
+    }
+
+    // FNV-1a 64 位
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,200 @@
+package org.nekotori.napcat;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * NapCat 上报帧的单遍解码器。
+ * 流式读取一遍帧内容，读到 post_type / message_type 后直接构造具体的事件类型，
+ * message 元素数组只截取原始文本，等处理器真正调用 {@link MessageEvent#getMessage()} 时才反序列化。
+ * 带 echo 的动作响应帧解码为 {@link MessageRequestResponse}。
+ */
+@Slf4j
+public final class NapCatEventDecoder {
+
+    static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private static final TypeReference<List<MessageEvent.MessageElement>> ELEMENTS_TYPE = new TypeReference<>() {};
+
+    private NapCatEventDecoder() {
+    }
+
+    public static Event decode(String frame) throws IOException {
+        if (decodeFrame(frame) instanceof Event event) {
+            return event;
+        }
+        throw new IOException("napcat frame is an action response, not an event");
+    }
+
+    /**
+     * 解码任意一帧，返回 {@link Event} 或 {@link MessageRequestResponse}
+     */
+    public static Object decodeFrame(String frame) throws IOException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(frame)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("napcat frame is not a json object");
+            }
+            Fields fields = new Fields();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                readField(frame, parser, name, fields);
+                // 标量字段意外给了对象或数组时整体跳过，例如心跳里的 status 对象；
+                // 按对象绑定的字段（sender）读完后 Jackson 会清掉当前 token
+                JsonToken token = parser.currentToken();
+                if (token != null && token.isStructStart()) {
+                    parser.skipChildren();
+                }
+            }
+            return fields.build();
+        }
+    }
+
+    /**
+     * 解码 message 元素数组，供 {@link MessageEvent#getMessage()} 懒加载使用
+     */
+    static List<MessageEvent.MessageElement> decodeElements(String rawElements) {
+        try {
+            return MAPPER.readValue(rawElements, ELEMENTS_TYPE);
+        } catch (IOException e) {
+            log.error("decode message elements error: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static void readField(String frame, JsonParser parser, String name, Fields fields) throws IOException {
+        switch (name) {
+            case "time" -> fields.time = parser.getValueAsLong();
+            case "self_id" -> fields.selfId = parser.getValueAsLong();
+            case "post_type" -> fields.postType = parser.getValueAsString();
+            case "meta_event_type" -> fields.metaEventType = parser.getValueAsString();
+            case "sub_type" -> fields.subType = parser.getValueAsString();
+            case "message_type" -> fields.messageType = parser.getValueAsString();
+            case "user_id" -> fields.userId = parser.getValueAsLong();
+            case "message_id" -> fields.messageId = parser.getValueAsLong();
+            case "message_seq" -> fields.messageSeq = parser.getValueAsLong();
+            case "real_id" -> fields.realId = parser.getValueAsLong();
+            case "real_seq" -> fields.realSeq = parser.getValueAsString();
+            case "raw_message" -> fields.rawMessage = parser.getValueAsString();
+            case "font" -> fields.font = parser.getValueAsInt();
+            case "message_format" -> fields.messageFormat = parser.getValueAsString();
+            case "group_id" -> fields.groupId = nullableLong(parser);
+            case "target_id" -> fields.targetId = nullableLong(parser);
+            case "sender" -> fields.sender = parser.currentToken() == JsonToken.START_OBJECT
+                    ? MAPPER.readValue(parser, MessageEvent.Sender.class)
+                    : null;
+            case "message" -> {
+                // 事件里是元素数组，动作响应里是错误信息
+                if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                    fields.responseMessage = parser.getText();
+                } else {
+                    fields.rawElements = captureStructure(frame, parser, JsonToken.START_ARRAY);
+                }
+            }
+            case "status" -> fields.status = parser.getValueAsString();
+            case "retcode" -> fields.retcode = parser.getValueAsInt();
+            case "echo" -> fields.echo = parser.getValueAsString();
+            case "data" -> fields.rawData = captureStructure(frame, parser,
+                    parser.currentToken() == JsonToken.START_ARRAY ? JsonToken.START_ARRAY : JsonToken.START_OBJECT);
+            default -> parser.skipChildren();
+        }
+    }
+
+    private static Long nullableLong(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsLong();
+    }
+
+    // 只记录结构在原始帧中的位置，跳过内部内容，避免在分发前就构建对象
+    private static String captureStructure(String frame, JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.currentToken() != expected) {
+            parser.skipChildren();
+            return null;
+        }
+        int start = (int) parser.currentTokenLocation().getCharOffset();
+        parser.skipChildren();
+        int end = (int) parser.currentTokenLocation().getCharOffset() + 1;
+        return frame.substring(start, end);
+    }
+
+    private static final class Fields {
+        long time;
+        long selfId;
+        String postType;
+        String metaEventType;
+        String subType;
+        String messageType;
+        long userId;
+        long messageId;
+        long messageSeq;
+        long realId;
+        String realSeq;
+        String rawMessage;
+        int font;
+        String messageFormat;
+        Long groupId;
+        Long targetId;
+        MessageEvent.Sender sender;
+        String rawElements;
+        String status;
+        int retcode;
+        String echo;
+        String responseMessage;
+        String rawData;
+
+        Object build() {
+            if (postType == null && (echo != null || status != null)) {
+                MessageRequestResponse response = new MessageRequestResponse();
+                response.setStatus(status);
+                response.setRetcode(retcode);
+                response.setMessage(responseMessage);
+                response.setEcho(echo);
+                response.setRawData(rawData);
+                return response;
+            }
+            // get_msg 返回的 data 可能不带 post_type，有 message_type 就按消息处理
+            if ("message".equals(postType) || (postType == null && messageType != null)) {
+                MessageEvent event;
+                if ("group".equals(messageType)) {
+                    event = new GroupMessageEvent();
+                } else if ("private".equals(messageType)) {
+                    event = new PrivateMessageEvent();
+                } else {
+                    event = new MessageEvent();
+                }
+                event.setTime(time);
+                event.setSelf_id(selfId);
+                event.setPost_type(postType);
+                event.setSub_type(subType);
+                event.setMessage_type(messageType);
+                event.setUser_id(userId);
+                event.setMessage_id(messageId);
+                event.setMessage_seq(messageSeq);
+                event.setReal_id(realId);
+                event.setReal_seq(realSeq);
+                event.setRaw_message(rawMessage);
+                event.setFont(font);
+                event.setMessage_format(messageFormat);
+                event.setGroup_id(groupId);
+                event.setTarget_id(targetId);
+                event.setSender(sender);
+                event.setRawMessageElements(rawElements);
+                return event;
+            }
+            Event event = "meta_event".equals(postType) ? new MetaEvent() : new Event();
+            event.setTime(time);
+            event.setSelf_id(selfId);
+            event.setPost_type(postType);
+            event.setMeta_event_type(metaEventType);
+            event.setSub_type(subType);
+            return event;
+        }
+    }
+}
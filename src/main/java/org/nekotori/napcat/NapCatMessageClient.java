@@ -1,164 +1,465 @@
 package org.nekotori.napcat;
 
-import cn.hutool.http.HttpUtil;
 import cn.hutool.json.JSONUtil;
-import jakarta.websocket.*;
 import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 
-@ClientEndpoint(configurator = NapCatMessageClient.MyConfigurator.class)
 @Slf4j
-public class NapCatMessageClient {
+public class NapCatMessageClient implements NapCatTransport.Listener {
 
-    private Session session;
+    private final NapCatTransport transport;
 
-    public static String token;
+    private final String token;
 
-    private final List<Consumer<Event>> eventListener = new ArrayList<>();
+    private volatile long selfId;
 
+    private volatile Function<Long, NapCatMessageClient> groupSender;
 
-    private final List<Consumer<MessageEvent>> messageListener = new ArrayList<>();
+    private static final long RECONNECT_BASE_MILLIS = 1000;
+
+    private static final long RECONNECT_MAX_MILLIS = 60_000;
+
+    private static final int OUTBOUND_QUEUE_CAPACITY = 512;
+
+    private static final ScheduledExecutorService reconnectScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "napcat-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final URI endpointURI;
+
+    private volatile ConnectionState state = ConnectionState.CONNECTING;
+
+    private final Sinks.Many<ConnectionState> stateSink = Sinks.many().replay().latest();
+
+    private final AtomicBoolean reconnectScheduled = new AtomicBoolean(false);
+
+    private volatile int reconnectAttempts;
+
+    // 断线期间暂存的出站帧，重连后按顺序补发
+    private final ArrayDeque<Outbound> outbound = new ArrayDeque<>();
+
+    private final ReentrantLock outboundLock = new ReentrantLock();
+
+    private long outboundDropped;
+
+    private final EventDispatcher dispatcher = new EventDispatcher();
+
+    private final IngestPolicies ingestPolicies;
+
+    private static final Duration DEFAULT_CALL_TIMEOUT = Duration.ofSeconds(10);
+
+    // 回复引用在处理器路径上加载，等不起默认的调用超时
+    private static final Duration GET_MESSAGE_TIMEOUT = Duration.ofSeconds(3);
+
+    private static final int MESSAGE_CACHE_CAPACITY = 4096;
+
+    private final MessageCache messageCache = new MessageCache(MESSAGE_CACHE_CAPACITY);
+
+    private final AtomicLong echoSequence = new AtomicLong();
+
+    // echo -> 等待响应的调用
+    private final ConcurrentHashMap<String, CompletableFuture<MessageRequestResponse>> pendingCalls = new ConcurrentHashMap<>();
 
 
     public void setMessageListener(Consumer<MessageEvent> listener) {
-        messageListener.add(listener);
+        dispatcher.register(MessageEvent.class, listener);
     }
 
     public void setEventListener(Consumer<Event> listener) {
-        eventListener.add(listener);
+        dispatcher.register(Event.class, listener);
     }
 
 
-    // 自定义 Configurator 添加 Header
-    public static class MyConfigurator extends ClientEndpointConfig.Configurator {
-        @Override
-        public void beforeRequest(Map<String, List<String>> headers) {
-            headers.put("Authorization", List.of("Bearer "+token));
-        }
+    public NapCatMessageClient(URI endpointURI,String token) {
+        this(endpointURI, token, null);
     }
 
+    public NapCatMessageClient(URI endpointURI, String token, FileBasedBotConfiguration.Ingest ingest) {
+        this(endpointURI, token, ingest, new TyrusNapCatTransport());
+    }
 
-    public NapCatMessageClient(URI endpointURI,String token) {
+    public NapCatMessageClient(URI endpointURI, String token, FileBasedBotConfiguration.Ingest ingest,
+                               NapCatTransport transport) {
+        this.transport = transport;
+        this.ingestPolicies = new IngestPolicies(ingest);
+        this.endpointURI = endpointURI;
+        this.token = token;
+        connect();
+    }
+
+    private void connect() {
+        if (state == ConnectionState.CLOSED) {
+            return;
+        }
+        transition(ConnectionState.CONNECTING);
         try {
-            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-            NapCatMessageClient.token = token;
-            container.connectToServer(this, endpointURI);
+            transport.connect(endpointURI, token, this);
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            log.error("connect to napcat {} failed: {}", endpointURI, e.getMessage());
+            transition(ConnectionState.DISCONNECTED);
+            scheduleReconnect();
         }
     }
 
-    @OnOpen
-    public void onOpen(Session session) {
-        this.session = session;
+    // 指数退避加抖动，一半固定一半随机，避免多个实例同时重连
+    private void scheduleReconnect() {
+        if (state == ConnectionState.CLOSED || !reconnectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long ceiling = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(reconnectAttempts, 16));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        reconnectAttempts++;
+        log.info("reconnect to napcat in {} ms, attempt {}", delay, reconnectAttempts);
+        reconnectScheduler.schedule(() -> {
+            reconnectScheduled.set(false);
+            connect();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void transition(ConnectionState next) {
+        if (state == next || state == ConnectionState.CLOSED) {
+            return;
+        }
+        log.info("napcat connection {} -> {}", state, next);
+        state = next;
+        stateSink.tryEmitNext(next);
+    }
+
+    public ConnectionState getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        return state == ConnectionState.CONNECTED;
+    }
+
+    public Flux<ConnectionState> connectionStates() {
+        return stateSink.asFlux();
+    }
+
+    /**
+     * 停止重连并关闭连接
+     */
+    public void close() {
+        transition(ConnectionState.CLOSED);
+        stateSink.tryEmitComplete();
+        transport.close();
+        outboundLock.lock();
+        try {
+            // 不会再重连，暂存的帧也不会发出
+            outbound.clear();
+        } finally {
+            outboundLock.unlock();
+        }
+        failPending(new IllegalStateException("napcat client closed"));
+    }
+
+    @Override
+    public void onOpen() {
         log.info("Connected to napcat server");
+        reconnectAttempts = 0;
+        outboundLock.lock();
+        try {
+            transition(ConnectionState.CONNECTED);
+            if (!outbound.isEmpty()) {
+                log.info("flush {} queued frames to napcat", outbound.size());
+            }
+            Outbound frame;
+            while ((frame = outbound.pollFirst()) != null) {
+                transport.send(frame.frame());
+            }
+        } finally {
+            outboundLock.unlock();
+        }
     }
 
-    @OnMessage
-    public void onMessage(String message) {
+    @Override
+    public void onFrame(String message) {
         try {
             log.info("receive message: {}", message);
-            Event event = JSONUtil.toBean(message, Event.class);
-            if ("message".equals(event.getPost_type())) {
-                MessageEvent messageEvent = JSONUtil.toBean(message, MessageEvent.class);
-                if("group".equals(messageEvent.getMessage_type())){
-                    GroupMessageEvent groupMessageEvent = JSONUtil.toBean(message, GroupMessageEvent.class);
-                    groupMessageEvent.setClient(this);
-                    eventListener.forEach(listener->listener.accept(groupMessageEvent));
-                }else if("private".equals(messageEvent.getMessage_type())){
-                    PrivateMessageEvent privateMessageEvent = JSONUtil.toBean(message, PrivateMessageEvent.class);
-                    privateMessageEvent.setClient(this);
-                    eventListener.forEach(listener->listener.accept(privateMessageEvent));
-                } else {
-                    event.setClient(this);
-                    eventListener.forEach(listener -> listener.accept(event));
-                }
-                messageListener.forEach(listener -> listener.accept(messageEvent));
+            Object frame = NapCatEventDecoder.decodeFrame(message);
+            if (frame instanceof MessageRequestResponse response) {
+                completeCall(response);
+                return;
             }
-            //其他事件，需要实现类继承Event
-            else if ("meta_event".equals(event.getPost_type())){
-                MetaEvent metaEvent = JSONUtil.toBean(message, MetaEvent.class);
-                metaEvent.setClient(this);
-                eventListener.forEach(listener->listener.accept(metaEvent));
-            }else {
-                event.setClient(this);
-                eventListener.forEach(listener->listener.accept(event));
+            Event event = (Event) frame;
+            event.setClient(this);
+            selfId = event.getSelf_id();
+            if (event instanceof MessageEvent messageEvent) {
+                messageCache.put(messageEvent);
             }
+            dispatcher.dispatch(event);
         }catch (Exception e){
             log.error("receive message error",e);
         }
     }
 
     public <T extends Event> Flux<T> subscribeOn(Class<T> clazz){
-        return Flux.create(fluxSink -> {
-            eventListener.add(event -> {
-                if (clazz.isInstance(event)) {
-                    fluxSink.next(clazz.cast(event));
-                }
-            });
-        });
+        return dispatcher.subscribe(clazz, ingestPolicies);
+    }
+
+    public List<IngestBuffer.Stats> ingestStats() {
+        return dispatcher.ingestStats();
     }
 
-    @OnClose
+    @Override
     public void onClose() {
         log.info("Napcat Connection closed");
+        transition(ConnectionState.DISCONNECTED);
+        failPending(new IllegalStateException("napcat connection closed"));
+        scheduleReconnect();
     }
 
-    @OnError
+    @Override
     public void onError(Throwable t) {
         log.error("Napcat Connection error",t);
+        if (!transport.isOpen()) {
+            transition(ConnectionState.DISCONNECTED);
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * 连接可用时直接发送；断线期间放入有界队列，满了丢弃最旧的一帧，重连后按顺序补发
+     */
+    public boolean sendCommand(String message) {
+        return send(message, null, null);
     }
 
-    public void sendCommand(String message) {
-        if (session != null && session.isOpen()) {
-            log.info("send message: {}", message);
-            session.getAsyncRemote().sendText(message);
+    // 登记等待响应的调用和发送（或入队）在同一把锁里，failPending 不会误判还在队列里的调用
+    private boolean send(String message, String echo, CompletableFuture<MessageRequestResponse> future) {
+        Outbound dropped = null;
+        outboundLock.lock();
+        try {
+            if (state == ConnectionState.CLOSED) {
+                return false;
+            }
+            if (future != null) {
+                pendingCalls.put(echo, future);
+            }
+            if (state == ConnectionState.CONNECTED && transport.isOpen() && outbound.isEmpty()) {
+                log.info("send message: {}", message);
+                transport.send(message);
+                return true;
+            }
+            if (outbound.size() >= OUTBOUND_QUEUE_CAPACITY) {
+                dropped = outbound.pollFirst();
+                outboundDropped++;
+                log.warn("napcat outbound queue full, dropped {} frames so far", outboundDropped);
+            }
+            outbound.addLast(new Outbound(message, echo));
+            return true;
+        } finally {
+            outboundLock.unlock();
+            // 被挤掉的帧不会再发出，对应的调用立即失败
+            if (dropped != null && dropped.echo() != null) {
+                var droppedCall = pendingCalls.remove(dropped.echo());
+                if (droppedCall != null) {
+                    droppedCall.completeExceptionally(new IllegalStateException("napcat outbound queue full"));
+                }
+            }
         }
     }
 
-    public void sendGroupMessage(Long groupId,List<Message> message){
+    /**
+     * 通过当前连接调用 OneBot 动作，按 echo 关联响应
+     */
+    public CompletableFuture<MessageRequestResponse> call(String action, Map<String, Object> params) {
+        return call(action, params, DEFAULT_CALL_TIMEOUT);
+    }
+
+    public CompletableFuture<MessageRequestResponse> call(String action, Map<String, Object> params, Duration timeout) {
+        String echo = action + "#" + echoSequence.incrementAndGet();
+        CompletableFuture<MessageRequestResponse> future = new CompletableFuture<>();
+        future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((response, throwable) -> {
+                    pendingCalls.remove(echo);
+                    // 超时或失败的调用不再在重连后补发，调用方看到失败就确实没有执行
+                    if (throwable != null) {
+                        dropQueued(echo);
+                    }
+                });
+
         MessageRequest messageRequest = new MessageRequest();
-        messageRequest.setAction("send_group_msg");
+        messageRequest.setAction(action);
+        messageRequest.setParams(params);
+        messageRequest.setEcho(echo);
+        if (!send(JSONUtil.toJsonStr(messageRequest), echo, future)) {
+            future.completeExceptionally(new IllegalStateException("napcat client is closed"));
+        }
+        return future;
+    }
+
+    public Mono<MessageRequestResponse> callMono(String action, Map<String, Object> params, Duration timeout) {
+        return Mono.fromFuture(() -> call(action, params, timeout));
+    }
+
+    public int pendingCalls() {
+        return pendingCalls.size();
+    }
+
+    private void completeCall(MessageRequestResponse response) {
+        var future = response.getEcho() == null ? null : pendingCalls.remove(response.getEcho());
+        if (future == null) {
+            log.debug("no pending call for echo {}", response.getEcho());
+            return;
+        }
+        future.complete(response);
+    }
+
+    /**
+     * 连接断开时让已经发出、响应不会再来的调用失败；帧还在出站队列里的调用会在重连后补发，保留不动
+     */
+    private void failPending(Throwable cause) {
+        List<CompletableFuture<MessageRequestResponse>> failed = new ArrayList<>();
+        outboundLock.lock();
+        try {
+            Set<String> queued = new HashSet<>();
+            for (Outbound frame : outbound) {
+                if (frame.echo() != null) {
+                    queued.add(frame.echo());
+                }
+            }
+            pendingCalls.forEach((echo, future) -> {
+                if (!queued.contains(echo) && pendingCalls.remove(echo, future)) {
+                    failed.add(future);
+                }
+            });
+        } finally {
+            outboundLock.unlock();
+        }
+        failed.forEach(future -> future.completeExceptionally(cause));
+    }
+
+    private void dropQueued(String echo) {
+        outboundLock.lock();
+        try {
+            outbound.removeIf(frame -> echo.equals(frame.echo()));
+        } finally {
+            outboundLock.unlock();
+        }
+    }
 
+    // echo 为空的是不关心响应的帧
+    private record Outbound(String frame, String echo) {
+    }
+
+    public URI getEndpoint() {
+        return endpointURI;
+    }
+
+    /**
+     * 当前连接登录的 QQ 号，收到第一帧之前为 0
+     */
+    public long getSelfId() {
+        return selfId;
+    }
+
+    /**
+     * 设置群消息的出站连接选择，多账号时由连接池按群分配
+     */
+    public void setGroupSender(Function<Long, NapCatMessageClient> groupSender) {
+        this.groupSender = groupSender;
+    }
+
+    /**
+     * 回复能否发出：群消息看负责该群出站的账号，而不是收到事件的这条连接
+     */
+    public boolean isConnectedFor(Long groupId) {
+        var sender = groupSender == null || groupId == null ? null : groupSender.apply(groupId);
+        return (sender == null ? this : sender).isConnected();
+    }
+
+    public CompletableFuture<MessageRequestResponse> sendGroupMessage(Long groupId,List<Message> message){
+        var sender = groupSender == null ? null : groupSender.apply(groupId);
+        return (sender == null ? this : sender).sendGroupMessageDirect(groupId, message);
+    }
+
+    private CompletableFuture<MessageRequestResponse> sendGroupMessageDirect(Long groupId, List<Message> message) {
         HashMap<String, Object> params = new HashMap<>();
         params.put("message",message);
         params.put("group_id", groupId);
-        messageRequest.setParams(params);
-        messageRequest.setEcho("1234567890");
-        String jsonStr = JSONUtil.toJsonStr(messageRequest);
-        sendCommand(jsonStr);
+        return call("send_group_msg", params);
     }
-    public void sendPrivateMessage(Long userId,List<Message> message){
-        MessageRequest messageRequest = new MessageRequest();
-        messageRequest.setAction("send_private_msg");
 
+    public CompletableFuture<MessageRequestResponse> sendPrivateMessage(Long userId,List<Message> message){
         HashMap<String, Object> params = new HashMap<>();
         params.put("message",message);
         params.put("user_id", userId);
-        messageRequest.setParams(params);
-        messageRequest.setEcho("1234567890");
-        String jsonStr = JSONUtil.toJsonStr(messageRequest);
-        sendCommand(jsonStr);
+        return call("send_private_msg", params);
     }
 
-    public static MessageEvent getMessage(String messageId){
+    /**
+     * 优先从最近消息缓存取，未命中时通过 get_msg 加载，同一 id 的并发查询共享一次调用
+     */
+    public CompletableFuture<MessageEvent> getMessageAsync(String messageId){
+        long id;
+        try {
+            id = Long.parseLong(messageId.trim());
+        } catch (NumberFormatException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return messageCache.get(id, this::fetchMessage);
+    }
+
+    private CompletableFuture<MessageEvent> fetchMessage(long messageId) {
         HashMap<String, Object> params = new HashMap<>();
         params.put("message_id", messageId);
-        String resp = HttpUtil.createPost("http://localhost:3000/get_msg")
-                .header("Authorization", "Bearer " + token)
-                .body(JSONUtil.toJsonStr(params))
-                .execute()
-                .body();
-        String data = JSONUtil.parseObj(resp).getStr("data");
-        return JSONUtil.toBean(data, MessageEvent.class);
+        return call("get_msg", params, GET_MESSAGE_TIMEOUT).thenApply(response -> {
+            if (!response.isOk()) {
+                throw new IllegalStateException("get_msg " + messageId + " failed: " + response.getMessage());
+            }
+            MessageEvent event = response.getData();
+            if (event != null) {
+                event.setClient(this);
+            }
+            return event;
+        });
+    }
+
+    public MessageCache.Stats messageCacheStats() {
+        return messageCache.stats();
+    }
+
+    /**
+     * 同步版本最多等待 get_msg 的超时时间，处理器里请优先使用 {@link #getMessageAsync}
+     */
+    public MessageEvent getMessage(String messageId){
+        try {
+            // 缓存里的 future 由同一 id 的查询共享，先复制再加超时
+            return getMessageAsync(messageId).copy().orTimeout(GET_MESSAGE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).join();
+        } catch (CompletionException e) {
+            log.error("get message {} error: {}", messageId, e.getCause().getMessage());
+            return null;
+        }
     }
 
 }
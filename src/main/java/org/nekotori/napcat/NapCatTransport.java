@@ -0,0 +1,42 @@
+package org.nekotori.napcat;
+
+import java.net.URI;
+
+/**
+ * NapCat WebSocket 的底层传输。
+ * 连接状态、重连、出站排队和动作关联都在 {@link NapCatMessageClient} 里，传输只负责握手、收发文本帧和上报连接事件。
+ */
+public interface NapCatTransport {
+
+    /**
+     * 阻塞直到握手完成，失败时抛出异常；握手成功前不会回调 listener
+     */
+    void connect(URI endpoint, String token, Listener listener) throws Exception;
+
+    boolean isOpen();
+
+    void send(String frame);
+
+    void close();
+
+    /**
+     * 按配置名创建传输，默认 tyrus
+     */
+    static NapCatTransport create(String kind) {
+        if ("netty".equalsIgnoreCase(kind)) {
+            return new NettyNapCatTransport();
+        }
+        return new TyrusNapCatTransport();
+    }
+
+    interface Listener {
+
+        void onOpen();
+
+        void onFrame(String frame);
+
+        void onClose();
+
+        void onError(Throwable t);
+    }
+}
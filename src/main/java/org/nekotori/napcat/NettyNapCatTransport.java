@@ -0,0 +1,161 @@
+package org.nekotori.napcat;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.http.websocket.WebsocketInbound;
+import reactor.netty.resources.LoopResources;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 Reactor Netty 的传输，每个连接独占一个事件循环和一个分发线程。
+ * 入站是按需请求的 {@code Flux<ByteBuf>}：事件循环上转成字符串后交给有界的分发队列，
+ * 分发线程处理慢了就不再向 Netty 请求，读暂停，背压一直传到 TCP 窗口，事件循环本身不会被阻塞，出站和其他账号不受影响。
+ * 出站是一个单播 sink。
+ */
+@Slf4j
+public class NettyNapCatTransport implements NapCatTransport {
+
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private static final int INBOUND_PREFETCH = 32;
+
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private final LoopResources loop;
+
+    // 入站解码和未开通道时的处理器都跑在分发线程上，放在事件循环之外
+    private final Scheduler dispatch;
+
+    private volatile Sinks.Many<String> outbound;
+
+    private volatile Disposable connection;
+
+    private volatile boolean open;
+
+    // 每次连接换一代，旧连接迟到的帧、关闭和错误按代号识别后忽略
+    private final AtomicLong generation = new AtomicLong();
+
+    public NettyNapCatTransport() {
+        int id = SEQUENCE.incrementAndGet();
+        this.loop = LoopResources.create("napcat-ws-" + id, 1, true);
+        this.dispatch = Schedulers.newSingle("napcat-dispatch-" + id, true);
+    }
+
+    /**
+     * 按需读取的入站帧，每请求一个才从连接读一帧；ByteBuf 只在 onNext 内有效
+     */
+    public static Flux<ByteBuf> inbound(WebsocketInbound in) {
+        return in.aggregateFrames(MAX_FRAME_BYTES).receive();
+    }
+
+    @Override
+    public void connect(URI endpoint, String token, Listener listener) throws Exception {
+        long current = generation.incrementAndGet();
+        Disposable previous = connection;
+        if (previous != null) {
+            previous.dispose();
+        }
+        Sinks.Many<String> sink = Sinks.many().unicast().onBackpressureBuffer();
+        CompletableFuture<Void> handshake = new CompletableFuture<>();
+        outbound = sink;
+        connection = HttpClient.create()
+                .runOn(loop)
+                .headers(headers -> headers.set("Authorization", "Bearer " + token))
+                .websocket(WebsocketClientSpec.builder().maxFramePayloadLength(MAX_FRAME_BYTES).build())
+                .uri(endpoint)
+                .handle((in, out) -> {
+                    if (generation.get() != current) {
+                        return Mono.empty();
+                    }
+                    open = true;
+                    handshake.complete(null);
+                    listener.onOpen();
+                    // 先在事件循环上拷出字符串，ByteBuf 随即释放；publishOn 只预取 INBOUND_PREFETCH 帧
+                    Mono<Void> inbound = inbound(in)
+                            .map(NettyNapCatTransport::decode)
+                            .publishOn(dispatch, INBOUND_PREFETCH)
+                            .filter(frame -> generation.get() == current)
+                            .doOnNext(listener::onFrame)
+                            .doFinally(signal -> sink.tryEmitComplete())
+                            .then();
+                    return Mono.when(inbound, out.sendString(sink.asFlux()).then());
+                })
+                .then()
+                .subscribe(null, error -> {
+                    if (generation.get() != current) {
+                        handshake.completeExceptionally(error);
+                        return;
+                    }
+                    open = false;
+                    if (!handshake.completeExceptionally(error)) {
+                        listener.onError(error);
+                        listener.onClose();
+                    }
+                }, () -> {
+                    if (generation.get() != current) {
+                        handshake.completeExceptionally(new IOException("napcat connection superseded"));
+                        return;
+                    }
+                    open = false;
+                    if (!handshake.completeExceptionally(new IOException("napcat closed during handshake"))) {
+                        listener.onClose();
+                    }
+                });
+        try {
+            handshake.get(HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            connection.dispose();
+            throw e;
+        }
+    }
+
+    private static String decode(ByteBuf buf) {
+        return buf.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    // 调用方在出站锁内发送，单播 sink 不会被并发写入
+    @Override
+    public void send(String frame) {
+        Sinks.EmitResult result = outbound.tryEmitNext(frame);
+        if (result.isFailure()) {
+            log.warn("napcat outbound frame rejected: {}", result);
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        Sinks.Many<String> sink = outbound;
+        if (sink != null) {
+            sink.tryEmitComplete();
+        }
+        Disposable current = connection;
+        if (current != null) {
+            current.dispose();
+        }
+        dispatch.dispose();
+        loop.disposeLater().subscribe();
+    }
+}
@@ -0,0 +1,106 @@
+package org.nekotori.napcat;
+
+import jakarta.websocket.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 jakarta.websocket 的传输，帧在容器线程上推送，没有背压
+ */
+@ClientEndpoint(configurator = TyrusNapCatTransport.AuthConfigurator.class)
+@Slf4j
+public class TyrusNapCatTransport implements NapCatTransport {
+
+    // 握手时由 Configurator 读取，多个账号各自带自己的 token
+    private static final ThreadLocal<String> connectingToken = new ThreadLocal<>();
+
+    private volatile Session session;
+
+    private volatile Listener listener;
+
+    // 自定义 Configurator 添加 Header
+    public static class AuthConfigurator extends ClientEndpointConfig.Configurator {
+        @Override
+        public void beforeRequest(Map<String, List<String>> headers) {
+            headers.put("Authorization", List.of("Bearer " + connectingToken.get()));
+        }
+    }
+
+    @Override
+    public void connect(URI endpoint, String token, Listener listener) throws Exception {
+        this.listener = listener;
+        connectingToken.set(token);
+        try {
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            container.connectToServer(this, endpoint);
+        } finally {
+            connectingToken.remove();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        Session current = session;
+        return current != null && current.isOpen();
+    }
+
+    @Override
+    public void send(String frame) {
+        session.getAsyncRemote().sendText(frame);
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(session);
+    }
+
+    // 每个回调都带着触发它的会话，只处理当前会话的，重连后旧会话迟到的关闭和错误直接忽略
+    @OnOpen
+    public void onOpen(Session session) {
+        Session previous = this.session;
+        this.session = session;
+        if (previous != null && previous != session) {
+            closeQuietly(previous);
+        }
+        listener.onOpen();
+    }
+
+    @OnMessage
+    public void onMessage(String message, Session session) {
+        if (session == this.session) {
+            listener.onFrame(message);
+        }
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        if (session != this.session) {
+            log.debug("ignore close of stale napcat session {}", session.getId());
+            return;
+        }
+        listener.onClose();
+    }
+
+    @OnError
+    public void onError(Session session, Throwable t) {
+        if (session != null && session != this.session) {
+            log.debug("ignore error of stale napcat session {}: {}", session.getId(), t.getMessage());
+            return;
+        }
+        listener.onError(t);
+    }
+
+    private static void closeQuietly(Session session) {
+        try {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        } catch (IOException e) {
+            log.error("close napcat session error: {}", e.getMessage());
+        }
+    }
+}
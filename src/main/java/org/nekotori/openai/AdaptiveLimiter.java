@@ -0,0 +1,322 @@
+package org.nekotori.openai;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个模型提供方 + API Key 一个的自适应限流器。
+ * 令牌桶限制每分钟的请求数和 token 数；并发上限按 AIMD 调整：响应及时就慢慢加一，
+ * 遇到 429、5xx、超时或首包延迟超过目标就按比例收缩，收缩之间有冷却，避免一批失败把上限一次压到底。
+ */
+@Slf4j
+public class AdaptiveLimiter {
+
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    private static volatile Map<String, FileBasedBotConfiguration.Limit> config = Map.of();
+
+    private final String name;
+
+    private final FileBasedBotConfiguration.Limit settings;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Bucket requests;
+
+    private final Bucket tokens;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long lastDecreaseNanos;
+
+    // 首包延迟的指数滑动平均
+    private double latencyEwmaMillis;
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder overloads = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private AdaptiveLimiter(String name, FileBasedBotConfiguration.Limit settings) {
+        this.name = name;
+        this.settings = settings;
+        this.requests = new Bucket(settings.getRequestsPerMinute());
+        this.tokens = new Bucket(settings.getTokensPerMinute());
+        this.limit = clamp(settings.getInitialLimit());
+    }
+
+    public static void configure(FileBasedBotConfiguration.Llm llm) {
+        config = Optional.ofNullable(llm).map(FileBasedBotConfiguration.Llm::getLimits).orElse(Map.of());
+    }
+
+    /**
+     * 某个提供方某个 Key 的限流器，按整个 Key 的摘要区分，名称里不出现 Key 本身
+     */
+    public static AdaptiveLimiter of(String provider, String apiKey) {
+        String key = apiKey == null || apiKey.isEmpty() ? "-" : DigestUtil.sha256Hex(apiKey).substring(0, 16);
+        return limiters.computeIfAbsent(provider + "/" + key, name -> new AdaptiveLimiter(name,
+                Optional.ofNullable(config.get(provider)).orElseGet(FileBasedBotConfiguration.Limit::new)));
+    }
+
+    public static List<Stats> allStats() {
+        List<Stats> stats = new ArrayList<>();
+        limiters.values().forEach(limiter -> stats.add(limiter.stats()));
+        return stats;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * 有容量时在同一把锁里检查并占用一个并发和一次请求配额，否则返回 null；
+     * 预估的 token 数由 {@link Lease#charge(int)} 另行扣除
+     */
+    public Lease tryAcquire() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (inFlight >= (int) limit || !requests.has(now, 1) || !tokens.has(now, 1)) {
+                return null;
+            }
+            requests.take(now, 1);
+            inFlight++;
+            return new Lease(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 距离令牌桶允许下一个请求还要多久；受并发限制或已可放行时为 0
+     */
+    public long nanosUntilAdmit() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            return Math.max(requests.nanosUntil(now, 1), tokens.nanosUntil(now, 1));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 排队方放弃等待时计一次拒绝
+     */
+    public void reject() {
+        rejected.increment();
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            return new Stats(name, limit, inFlight, requests.level(now), tokens.level(now), successes.sum(),
+                    overloads.sum(), rejected.sum(), latencyEwmaMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSample(long latencyNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            double latencyMillis = latencyNanos / 1_000_000.0;
+            latencyEwmaMillis = latencyEwmaMillis == 0 ? latencyMillis : latencyEwmaMillis * 0.9 + latencyMillis * 0.1;
+            long now = System.nanoTime();
+            if (overloaded || latencyMillis > settings.getLatencyTargetMillis()) {
+                overloads.increment();
+                if (now - lastDecreaseNanos > DECREASE_COOLDOWN_NANOS) {
+                    lastDecreaseNanos = now;
+                    double previous = limit;
+                    limit = clamp(limit * settings.getBackoffRatio());
+                    log.info("llm limiter {} backs off {} -> {}", name, (int) previous, (int) limit);
+                }
+            } else {
+                successes.increment();
+                // 并发用到一半以上才加，空闲时上限不会无限增长
+                if (inFlight * 2 >= (int) limit) {
+                    limit = clamp(limit + 1 / limit);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // token 桶允许透支，透支部分由之后的请求等待补齐
+    private void charge(int estimatedTokens) {
+        lock.lock();
+        try {
+            tokens.take(System.nanoTime(), estimatedTokens);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 占用后没有发出请求，并发和请求配额都退回
+    private void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            requests.refund(System.nanoTime(), 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.max(settings.getMinLimit(), Math.min(settings.getMaxLimit(), value));
+    }
+
+    /**
+     * 一次放行的请求。响应头到达时报告状态码，流结束时归还，两者都只生效一次
+     */
+    public final class Lease {
+
+        private final long startNanos;
+
+        private final AtomicBoolean sampled = new AtomicBoolean(false);
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        public void charge(int estimatedTokens) {
+            AdaptiveLimiter.this.charge(estimatedTokens);
+        }
+
+        /**
+         * 占用后没有发出请求时撤销，不计入延迟样本
+         */
+        public void cancel() {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveLimiter.this.cancel();
+            }
+        }
+
+        public void onResponse(int code) {
+            if (sampled.compareAndSet(false, true)) {
+                onSample(System.nanoTime() - startNanos, code == 429 || code >= 500);
+            }
+        }
+
+        /**
+         * 超时、连接失败等没有拿到响应的情况
+         */
+        public void onFailure() {
+            if (sampled.compareAndSet(false, true)) {
+                onSample(System.nanoTime() - startNanos, true);
+            }
+        }
+
+        /**
+         * @return 本次调用是否真正归还了并发
+         */
+        public boolean release() {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            AdaptiveLimiter.this.release();
+            return true;
+        }
+    }
+
+    // 按分钟配额连续补充的令牌桶，容量为一分钟的配额，配额为 0 表示不限
+    private static final class Bucket {
+
+        private final double capacity;
+
+        private final double perNano;
+
+        private double level;
+
+        private long refilledAt = System.nanoTime();
+
+        private Bucket(int perMinute) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.level = perMinute;
+        }
+
+        private void refill(long now) {
+            level = Math.min(capacity, level + (now - refilledAt) * perNano);
+            refilledAt = now;
+        }
+
+        private boolean has(long now, double amount) {
+            if (capacity <= 0) {
+                return true;
+            }
+            refill(now);
+            return level >= amount;
+        }
+
+        private void take(long now, double amount) {
+            if (capacity > 0) {
+                refill(now);
+                level -= amount;
+            }
+        }
+
+        private void refund(long now, double amount) {
+            if (capacity > 0) {
+                refill(now);
+                level = Math.min(capacity, level + amount);
+            }
+        }
+
+        private long nanosUntil(long now, double amount) {
+            if (capacity <= 0) {
+                return 0;
+            }
+            refill(now);
+            return level >= amount ? 0 : (long) Math.ceil((amount - level) / perNano);
+        }
+
+        private double level(long now) {
+            if (capacity <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            refill(now);
+            return level;
+        }
+    }
+
+    public record Stats(String limiter, double limit, int inFlight, double requestBucket, double tokenBucket,
+                        long successes, long overloads, long rejected, double latencyMillis) {
+
+        @Override
+        public String toString() {
+            return String.format("%s limit=%.1f inFlight=%d rpmLeft=%.0f tpmLeft=%.0f ok=%d overload=%d rejected=%d latency=%.0fms",
+                    limiter, limit, inFlight, requestBucket, tokenBucket, successes, overloads, rejected, latencyMillis);
+        }
+    }
+}
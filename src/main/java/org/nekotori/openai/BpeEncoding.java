@@ -0,0 +1,168 @@
+package org.nekotori.openai;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 读取 tiktoken 格式（每行 "base64 字节 rank"）词表的字节级 BPE，切分规则和合并顺序与 tiktoken 一致。
+ * 预切分后的片段大多重复出现，片段的 token 数做了有界缓存，常见文本每条只需几微秒。
+ */
+public final class BpeEncoding {
+
+    private static final Pattern CL100K = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*"
+                    + "|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    private static final Pattern O200K = Pattern.compile(
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                    + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                    + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    private static final int MAX_CACHED_PIECES = 50_000;
+
+    private final String name;
+
+    // 字节序列按 ISO-8859-1 转成等长字符串作键
+    private final Map<String, Integer> ranks;
+
+    private final Pattern pattern;
+
+    private final Map<String, Integer> pieceCounts = new ConcurrentHashMap<>();
+
+    private BpeEncoding(String name, Map<String, Integer> ranks, Pattern pattern) {
+        this.name = name;
+        this.ranks = ranks;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param name 词表名，o200k 开头的使用 o200k 的切分规则，其余按 cl100k
+     */
+    public static BpeEncoding load(String name, Path file) throws IOException {
+        Map<String, Integer> ranks = new HashMap<>(1 << 18);
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] token = decoder.decode(line.substring(0, space));
+                ranks.put(new String(token, StandardCharsets.ISO_8859_1), Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        return new BpeEncoding(name, ranks, name.startsWith("o200k") ? O200K : CL100K);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int vocabularySize() {
+        return ranks.size();
+    }
+
+    public int count(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Matcher matcher = pattern.matcher(text);
+        int count = 0;
+        while (matcher.find()) {
+            String piece = matcher.group();
+            Integer cached = pieceCounts.get(piece);
+            if (cached == null) {
+                int[] pieceCount = new int[1];
+                encodePiece(piece, token -> pieceCount[0]++);
+                cached = pieceCount[0];
+                if (pieceCounts.size() >= MAX_CACHED_PIECES) {
+                    pieceCounts.clear();
+                }
+                pieceCounts.put(piece, cached);
+            }
+            count += cached;
+        }
+        return count;
+    }
+
+    public List<Integer> encode(CharSequence text) {
+        List<Integer> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            encodePiece(matcher.group(), tokens::add);
+        }
+        return tokens;
+    }
+
+    // 每次合并 rank 最小、同 rank 时最靠左的相邻两段，和 tiktoken 的 byte_pair_merge 结果相同；
+    // 中文一整句会被切成一个片段，用堆而不是逐轮扫描，长片段也是 O(n log n)
+    private void encodePiece(String piece, IntConsumer out) {
+        String bytes = new String(piece.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        Integer whole = ranks.get(bytes);
+        if (whole != null) {
+            out.accept(whole);
+            return;
+        }
+        int n = bytes.length();
+        // end[i]、prev[i] 只对段首 i 有意义
+        int[] end = new int[n];
+        int[] prev = new int[n];
+        boolean[] merged = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            end[i] = i + 1;
+            prev[i] = i - 1;
+        }
+        // rank << 40 | 段首 << 20 | 两段合并后的结尾，出堆时结尾对不上说明已经过期
+        PriorityQueue<Long> heap = new PriorityQueue<>();
+        for (int i = 0; i + 1 < n; i++) {
+            offer(heap, bytes, i, i + 2);
+        }
+        while (!heap.isEmpty()) {
+            long top = heap.poll();
+            int start = (int) ((top >>> 20) & 0xFFFFF);
+            int pairEnd = (int) (top & 0xFFFFF);
+            int middle = end[start];
+            if (merged[start] || middle >= n || end[middle] != pairEnd) {
+                continue;
+            }
+            merged[middle] = true;
+            end[start] = pairEnd;
+            if (pairEnd < n) {
+                prev[pairEnd] = start;
+                offer(heap, bytes, start, end[pairEnd]);
+            }
+            if (prev[start] >= 0) {
+                offer(heap, bytes, prev[start], pairEnd);
+            }
+        }
+        for (int i = 0; i < n; i = end[i]) {
+            Integer rank = ranks.get(bytes.substring(i, end[i]));
+            // 标准词表包含全部单字节，缺失时仍按一个 token 计
+            out.accept(rank == null ? -1 : rank);
+        }
+    }
+
+    private void offer(PriorityQueue<Long> heap, String bytes, int start, int pairEnd) {
+        Integer rank = ranks.get(bytes.substring(start, pairEnd));
+        if (rank != null) {
+            heap.add(((long) rank << 40) | ((long) start << 20) | pairEnd);
+        }
+    }
+}
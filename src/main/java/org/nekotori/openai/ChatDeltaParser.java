@@ -0,0 +1,101 @@
+package org.nekotori.openai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * 流式响应增量的解析器。
+ * 共享一个 JsonFactory，用 JsonParser 顺序读取，只取 choices[0].delta 的 content / reasoning_content
+ * 或 Ollama 的 message.content 与 done，其余字段直接跳过，不构建树也不绑定对象。
+ */
+public final class ChatDeltaParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private ChatDeltaParser() {
+    }
+
+    public record Delta(String content, String reasoningContent, boolean done) {
+
+        static final Delta EMPTY = new Delta(null, null, false);
+    }
+
+    /**
+     * OpenAI 兼容的 SSE data 块
+     */
+    public static Delta parseChatChunk(String data) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Delta.EMPTY;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(name) && value == JsonToken.START_ARRAY) {
+                    // 只需要第一个 choice，读完即返回
+                    return parser.nextToken() == JsonToken.START_OBJECT ? readChoice(parser) : Delta.EMPTY;
+                }
+                parser.skipChildren();
+            }
+            return Delta.EMPTY;
+        }
+    }
+
+    /**
+     * Ollama /api/chat 的 NDJSON 行
+     */
+    public static Delta parseOllamaLine(String line) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Delta.EMPTY;
+            }
+            String content = null;
+            boolean done = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("message".equals(name) && value == JsonToken.START_OBJECT) {
+                    content = readStringFields(parser)[0];
+                } else if ("done".equals(name)) {
+                    done = value == JsonToken.VALUE_TRUE;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new Delta(content, null, done);
+        }
+    }
+
+    private static Delta readChoice(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("delta".equals(name) && value == JsonToken.START_OBJECT) {
+                String[] fields = readStringFields(parser);
+                return new Delta(fields[0], fields[1], false);
+            }
+            parser.skipChildren();
+        }
+        return Delta.EMPTY;
+    }
+
+    // 读完当前对象，返回其中的 content 和 reasoning_content，null 值保持为 null
+    private static String[] readStringFields(JsonParser parser) throws IOException {
+        String[] fields = new String[2];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_STRING && "content".equals(name)) {
+                fields[0] = parser.getText();
+            } else if (value == JsonToken.VALUE_STRING && "reasoning_content".equals(name)) {
+                fields[1] = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return fields;
+    }
+}
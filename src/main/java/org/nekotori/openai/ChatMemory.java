@@ -0,0 +1,193 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.persistence.vector.HnswIndex;
+import org.nekotori.util.BlockingExecution;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 群聊记录的语义检索记忆。
+ * 收到的群消息先进有界队列，满了直接丢弃；单独的写入线程批量向 Ollama 取向量后写进各群的 {@link HnswIndex}，
+ * 并定期刷盘。@ 对话时用当前消息的向量取回最相关的几条历史发言。
+ */
+@Slf4j
+public class ChatMemory {
+
+    // 取向量失败后暂停检索，Ollama 不可用时 @ 回复不用每次都等满超时
+    private static final long RECALL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final FileBasedBotConfiguration.Memory settings;
+
+    private final BlockingQueue<Pending> queue;
+
+    private final Map<Long, HnswIndex> indexes = new ConcurrentHashMap<>();
+
+    private final LongAdder indexed = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder recalls = new LongAdder();
+
+    private volatile long recallResumeAt = System.nanoTime();
+
+    public ChatMemory(FileBasedBotConfiguration.Memory settings) {
+        this.settings = settings == null ? new FileBasedBotConfiguration.Memory() : settings;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, this.settings.getQueueCapacity()));
+        if (this.settings.isEnabled()) {
+            BlockingExecution.newThread("chat-memory", this::drain).start();
+            log.info("chat memory started, model {} ({} dimensions), dir {}", this.settings.getModel(),
+                    this.settings.getDimensions(), this.settings.getDir());
+        }
+    }
+
+    /**
+     * 记下一条群消息，只入队不等待
+     */
+    public void add(long groupId, long userId, long time, String text) {
+        if (!settings.isEnabled() || text == null || text.trim().length() < settings.getMinChars()) {
+            return;
+        }
+        if (!queue.offer(new Pending(groupId, userId, time, text.trim()))) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 取回和 text 最相关的历史发言，按相似度从高到低；取向量有单独的短超时，未开启、超时或出错时返回空列表，出错后 30 秒内不再检索
+     */
+    public List<HnswIndex.Hit> recall(long groupId, String text) {
+        if (!settings.isEnabled() || text == null || text.isBlank() || System.nanoTime() - recallResumeAt < 0) {
+            return List.of();
+        }
+        try {
+            HnswIndex index = index(groupId);
+            if (index.size() == 0) {
+                return List.of();
+            }
+            float[] vector = OllamaClient.embed(settings.getEmbedUrl(), settings.getModel(), List.of(text),
+                    Duration.ofMillis(settings.getRecallTimeoutMillis()))[0];
+            List<HnswIndex.Hit> hits = new ArrayList<>();
+            for (HnswIndex.Hit hit : index.search(vector, settings.getTopK(), settings.getEfSearch())) {
+                if (hit.score() >= settings.getMinScore()) {
+                    hits.add(hit);
+                }
+            }
+            recalls.increment();
+            return hits;
+        } catch (IOException | RuntimeException e) {
+            recallResumeAt = System.nanoTime() + RECALL_BACKOFF_NANOS;
+            log.warn("recall for group {} failed, skip recall for 30s: {}", groupId, e.getMessage());
+            return List.of();
+        }
+    }
+
+    public Stats stats() {
+        long size = 0;
+        for (HnswIndex index : indexes.values()) {
+            size += index.size();
+        }
+        return new Stats(indexes.size(), size, queue.size(), indexed.sum(), dropped.sum(), failed.sum(), recalls.sum());
+    }
+
+    private void drain() {
+        long flushInterval = TimeUnit.SECONDS.toNanos(Math.max(1, settings.getFlushIntervalSeconds()));
+        long nextFlush = System.nanoTime() + flushInterval;
+        List<Pending> batch = new ArrayList<>(settings.getBatchSize());
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Pending first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, Math.max(0, settings.getBatchSize() - 1));
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (System.nanoTime() - nextFlush >= 0) {
+                flush(indexes.values());
+                nextFlush = System.nanoTime() + flushInterval;
+            }
+        }
+        flush(indexes.values());
+    }
+
+    private void write(List<Pending> batch) {
+        float[][] vectors;
+        try {
+            vectors = OllamaClient.embed(settings.getEmbedUrl(), settings.getModel(),
+                    batch.stream().map(Pending::text).toList());
+        } catch (IOException | RuntimeException e) {
+            failed.add(batch.size());
+            log.warn("embed {} messages failed: {}", batch.size(), e.getMessage());
+            return;
+        }
+        for (int i = 0; i < batch.size() && i < vectors.length; i++) {
+            Pending pending = batch.get(i);
+            try {
+                index(pending.groupId()).add(pending.userId(), pending.time(), pending.text(), vectors[i]);
+                indexed.increment();
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                log.warn("index message of group {} failed: {}", pending.groupId(), e.getMessage());
+            }
+        }
+    }
+
+    private void flush(Collection<HnswIndex> targets) {
+        for (HnswIndex index : targets) {
+            try {
+                index.flush();
+            } catch (IOException e) {
+                log.warn("flush chat memory failed: {}", e.getMessage());
+            }
+        }
+        if (!targets.isEmpty()) {
+            log.info("chat memory {}", stats());
+        }
+    }
+
+    private HnswIndex index(long groupId) throws IOException {
+        HnswIndex index = indexes.get(groupId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (indexes) {
+            index = indexes.get(groupId);
+            if (index == null) {
+                index = HnswIndex.open(Paths.get(settings.getDir(), String.valueOf(groupId)),
+                        settings.getDimensions(), settings.getM(), settings.getEfConstruction());
+                indexes.put(groupId, index);
+            }
+            return index;
+        }
+    }
+
+    private record Pending(long groupId, long userId, long time, String text) {
+    }
+
+    public record Stats(int groups, long size, int queued, long indexed, long dropped, long failed, long recalls) {
+
+        @Override
+        public String toString() {
+            return String.format("groups=%d size=%d queued=%d indexed=%d dropped=%d failed=%d recalls=%d",
+                    groups, size, queued, indexed, dropped, failed, recalls);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.nekotori.openai;
+
+/**
+ * 一个能做流式 chat completions 的模型提供方，DeepSeek、本地 Ollama、OpenAI 兼容接口都实现它，
+ * 由 {@link LlmRouter} 按健康度选择。
+ */
+@FunctionalInterface
+public interface ChatProvider {
+
+    /**
+     * 发起一次流式调用，排队、限流由各提供方自己负责；返回的 {@link Call} 可以随时取消，取消后不再回调
+     */
+    Call stream(LlmCallContext context, ChatRequest request, ChatStream stream);
+
+    interface Call {
+
+        void cancel();
+    }
+
+    /**
+     * 流式回调，四个结束方法中只会调用一个
+     */
+    interface ChatStream {
+
+        /**
+         * 上游的一段增量内容，第一次调用即首包
+         */
+        void onContent(String delta);
+
+        void onComplete();
+
+        void onError(Throwable error);
+
+        /**
+         * 还没发出就被排队或限流拒绝
+         */
+        void onRejected(LlmScheduler.RejectReason reason);
+
+        /**
+         * 把增量切成行交给缓存的 flight，失败时发出统一的提示且不缓存
+         */
+        static ChatStream lines(LlmResponseCache.Flight flight) {
+            StreamSegmenter segmenter = StreamSegmenter.lines(line -> {
+                if (!line.contains("我无法给到")) {
+                    flight.emit(line);
+                }
+            });
+            return new ChatStream() {
+                @Override
+                public void onContent(String delta) {
+                    segmenter.append(delta);
+                }
+
+                @Override
+                public void onComplete() {
+                    segmenter.close();
+                    flight.finish(true);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    flight.emit("抱歉似乎我的核心模块出现了异常，请稍后再试试和我聊天");
+                    flight.finish(false);
+                }
+
+                @Override
+                public void onRejected(LlmScheduler.RejectReason reason) {
+                    flight.reject(reason);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.nekotori.openai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * 组装提示词时按 token 预算挑选历史消息。
+ * 先扣掉系统提示词等固定部分，再从最新的一条往前取，放不下就停，
+ * 保证带上的是连续的最近若干条，而不是固定的行数。
+ */
+public class ContextBudgeter {
+
+    private final String model;
+
+    private int remaining;
+
+    private ContextBudgeter(String model, int remaining) {
+        this.model = model;
+        this.remaining = remaining;
+    }
+
+    /**
+     * 预算为模型上下文窗口减去给回复预留的 token，见 {@link TokenCounter#promptBudget(String)}
+     */
+    public static ContextBudgeter forModel(String model) {
+        return new ContextBudgeter(model, TokenCounter.promptBudget(model));
+    }
+
+    /**
+     * 同 {@link #forModel(String)}，发起方的额度接近用完时预算再收紧到 {@link TokenGovernor#shortContextTokens()}
+     */
+    public static ContextBudgeter forModel(String model, LlmCallContext context) {
+        int budget = TokenCounter.promptBudget(model);
+        if (TokenGovernor.level(context).compareTo(TokenGovernor.Level.SHORT_CONTEXT) >= 0) {
+            budget = Math.min(budget, TokenGovernor.shortContextTokens());
+        }
+        return new ContextBudgeter(model, budget);
+    }
+
+    public static ContextBudgeter of(String model, int budgetTokens) {
+        return new ContextBudgeter(model, budgetTokens);
+    }
+
+    /**
+     * 扣掉一定会发送的消息
+     */
+    public ContextBudgeter reserve(ChatMessage message) {
+        remaining -= TokenCounter.count(model, message);
+        return this;
+    }
+
+    public ContextBudgeter reserve(int tokens) {
+        remaining -= tokens;
+        return this;
+    }
+
+    /**
+     * 从按时间正序的 history 末尾往前取，返回放得下的最长后缀，仍按时间正序；取到的部分从预算中扣除
+     *
+     * @param cost 每条消息的 token 数
+     */
+    public <T> List<T> fitRecent(List<T> history, ToIntFunction<T> cost) {
+        int from = history.size();
+        while (from > 0) {
+            int tokens = cost.applyAsInt(history.get(from - 1));
+            if (tokens > remaining) {
+                break;
+            }
+            remaining -= tokens;
+            from--;
+        }
+        return new ArrayList<>(history.subList(from, history.size()));
+    }
+
+    /**
+     * 按模型分词表计算文本的 token 数
+     */
+    public int count(CharSequence text) {
+        return TokenCounter.count(model, text);
+    }
+
+    public int remaining() {
+        return remaining;
+    }
+}
@@ -0,0 +1,159 @@
+package org.nekotori.openai;
+
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.bot.StaticPrompts;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.persistence.sqlite.ConversationSummaryEntity;
+import org.nekotori.persistence.sqlite.ConversationSummaryPersistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 (群, 用户) 维护滚动对话摘要，控制 @ 对话的提示词长度。
+ * 提示词带摘要和全部还没折叠的原始对话，由调用方按 token 预算从最近的往前挑；
+ * 预算放不下的较早对话攒到 foldThreshold 条时，在后台和旧摘要一起交给大模型合成新摘要并落库，
+ * 同一个会话同时只折叠一次。
+ */
+@Slf4j
+public class ConversationSummarizer {
+
+    private static final ConversationSummaryEntity EMPTY = new ConversationSummaryEntity();
+
+    private final ConversationSummaryPersistence persistence = new ConversationSummaryPersistence();
+
+    private final FileBasedBotConfiguration.Summary settings;
+
+    // 已读过库的会话，value 为 EMPTY 表示还没有摘要
+    private final Map<String, ConversationSummaryEntity> summaries = new ConcurrentHashMap<>();
+
+    private final Set<String> folding = ConcurrentHashMap.newKeySet();
+
+    public ConversationSummarizer(FileBasedBotConfiguration.Summary settings) {
+        this.settings = settings == null ? new FileBasedBotConfiguration.Summary() : settings;
+    }
+
+    /**
+     * 一条对话，time 用来判断是否已经折叠进摘要
+     */
+    public record Turn(long time, String user, long userId, String content) {
+    }
+
+    /**
+     * 发给大模型的上下文：摘要（可能为 null）加还没折叠进摘要的原始对话
+     */
+    public record Window(String summary, List<Turn> recent) {
+    }
+
+    /**
+     * 每个会话从库里取的最近对话条数
+     */
+    public int historyLimit() {
+        return settings.getHistoryLimit();
+    }
+
+    /**
+     * @param history 按时间正序的对话
+     */
+    public Window window(Long groupId, long userId, List<Turn> history) {
+        ConversationSummaryEntity current = current(groupId, userId);
+        long coveredUntil = current == EMPTY ? Long.MIN_VALUE : current.getCoveredUntil();
+        List<Turn> unfolded = new ArrayList<>();
+        for (Turn turn : history) {
+            if (turn.time() > coveredUntil) {
+                unfolded.add(turn);
+            }
+        }
+        return new Window(current == EMPTY ? null : current.getSummary(), List.copyOf(unfolded));
+    }
+
+    /**
+     * 报告 window 返回的对话里因为预算没有带上的部分，够 foldThreshold 条就折叠进摘要
+     *
+     * @param dropped 按时间正序，是 window 返回对话的一段前缀
+     */
+    public void spill(Long groupId, long userId, List<Turn> dropped) {
+        if (dropped.isEmpty() || dropped.size() < settings.getFoldThreshold()) {
+            return;
+        }
+        long group = groupId == null ? 0 : groupId;
+        fold(group + ":" + userId, group, userId, current(groupId, userId), List.copyOf(dropped));
+    }
+
+    private ConversationSummaryEntity current(Long groupId, long userId) {
+        long group = groupId == null ? 0 : groupId;
+        return summaries.computeIfAbsent(group + ":" + userId, k -> {
+            ConversationSummaryEntity stored = persistence.get(group, userId);
+            return stored == null ? EMPTY : stored;
+        });
+    }
+
+    private void fold(String key, long group, long userId, ConversationSummaryEntity current, List<Turn> turns) {
+        if (!folding.add(key)) {
+            return;
+        }
+        List<Map<String, Object>> records = new ArrayList<>(turns.size());
+        for (Turn turn : turns) {
+            records.add(Map.of("user", String.valueOf(turn.user()), "userId", turn.userId(),
+                    "content", String.valueOf(turn.content())));
+        }
+        var list = new ArrayList<ChatMessage>();
+        list.add(new ChatMessage("system", StaticPrompts.prompt.get(13)));
+        list.add(new ChatMessage("user", "已有摘要：" + (current == EMPTY ? "" : current.getSummary())
+                + "\n新的聊天记录：" + JSONUtil.toJsonStr(records)));
+        ChatRequest chatRequest = new ChatRequest();
+        chatRequest.setModel("deepseek-v3");
+        chatRequest.setMessages(list);
+        StringBuilder summary = new StringBuilder();
+        // 群里的摘要只计入群额度，不算在触发这次折叠的人头上；私聊的摘要仍算本人的
+        LlmCallContext context = group == 0
+                ? new LlmCallContext(null, userId, LlmCallContext.Priority.AMBIENT, "summary")
+                : new LlmCallContext(group, 0, LlmCallContext.Priority.AMBIENT, "summary");
+        LlmRouter.stream(context, "chat", chatRequest,
+                new ChatProvider.ChatStream() {
+                    @Override
+                    public void onContent(String delta) {
+                        summary.append(delta);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        try {
+                            String text = summary.toString().replaceAll("\\s+", " ").trim();
+                            if (text.isEmpty()) {
+                                return;
+                            }
+                            if (text.length() > settings.getMaxChars()) {
+                                text = text.substring(0, settings.getMaxChars());
+                            }
+                            ConversationSummaryEntity next = new ConversationSummaryEntity();
+                            next.setGroupId(group);
+                            next.setUserId(userId);
+                            next.setSummary(text);
+                            next.setCoveredUntil(turns.get(turns.size() - 1).time());
+                            next.setFoldedTurns((current == EMPTY ? 0 : current.getFoldedTurns()) + turns.size());
+                            persistence.save(next);
+                            summaries.put(key, next);
+                            log.info("folded {} turns of {} into summary ({} chars)", turns.size(), key, text.length());
+                        } finally {
+                            folding.remove(key);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        folding.remove(key);
+                        log.warn("summarize {} failed: {}", key, error == null ? null : error.getMessage());
+                    }
+
+                    @Override
+                    public void onRejected(LlmScheduler.RejectReason reason) {
+                        folding.remove(key);
+                    }
+                });
+    }
+}
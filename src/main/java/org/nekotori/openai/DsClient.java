@@ -1,33 +1,65 @@
 package org.nekotori.openai;
 
 import cn.hutool.json.JSONUtil;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.util.internal.StringUtil;
+import lombok.extern.slf4j.Slf4j;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import okhttp3.internal.sse.RealEventSource;
 import okhttp3.sse.EventSource;
 import okhttp3.sse.EventSourceListener;
+import okhttp3.sse.EventSources;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.nekotori.resource.HttpTransport;
 
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+@Slf4j
 public class DsClient {
 
-    private static final ExecutorService dsExecutor = new ThreadPoolExecutor(4,20,1000, TimeUnit.SECONDS,new ArrayBlockingQueue<>(5));
+    private static final String RESOURCE = "deepseek";
 
     private static final String dpUrl = "https://api.lkeap.cloud.tencent.com/v1";
     public static void invoke(String dpApiKey,ChatRequest chatRequest, Consumer<String> bigmodelResponseListener){
-        dsExecutor.execute(()->{
+        invoke(LlmCallContext.unknown(), dpApiKey, chatRequest, bigmodelResponseListener, null);
+    }
+
+    /**
+     * 先查回复缓存，未命中再经调度器排队发起请求，名额一直占用到流结束；排队被拒绝时调用 onRejected
+     */
+    public static void invoke(LlmCallContext context, String dpApiKey, ChatRequest chatRequest,
+                              Consumer<String> bigmodelResponseListener,
+                              Consumer<LlmScheduler.RejectReason> onRejected){
+        chatRequest.setStream(true);
+        LlmResponseCache.begin(RESOURCE, context, chatRequest, bigmodelResponseListener, onRejected,
+                flight -> stream(context, dpApiKey, chatRequest, ChatProvider.ChatStream.lines(flight)));
+    }
+
+    /**
+     * 经调度器排队后发起一次流式请求，增量原样交给 stream 并计入 {@link TokenGovernor}；
+     * 取消时排队中的请求出队后直接归还名额
+     */
+    public static ChatProvider.Call stream(LlmCallContext context, String dpApiKey, ChatRequest chatRequest,
+                                           ChatProvider.ChatStream stream) {
+        TokenGovernor.Metered metered = TokenGovernor.meter(RESOURCE, context, chatRequest, stream);
+        return metered.wrap(send(context, dpApiKey, chatRequest, metered));
+    }
+
+    private static ChatProvider.Call send(LlmCallContext context, String dpApiKey, ChatRequest chatRequest,
+                                          TokenGovernor.Metered stream) {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicReference<Runnable> cancelAction = new AtomicReference<>();
+        LlmScheduler.of(AdaptiveLimiter.of(RESOURCE, dpApiKey)).submit(context,
+                TokenCounter.count(chatRequest), slot -> {
+            if (cancelled.get()) {
+                slot.release();
+                return;
+            }
             chatRequest.setStream(true);
             RequestBody body = RequestBody.create(okhttp3.MediaType.parse("application/json; charset=utf-8"),
                     JSONUtil.toJsonStr(chatRequest));
@@ -38,17 +70,15 @@ public class DsClient {
                     .url(dpUrl)
                     .post(body)
                     .build();
-            OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                    .connectTimeout(2, TimeUnit.MINUTES)
-                    .readTimeout(2, TimeUnit.MINUTES)
-                    .build();
-            RealEventSource realEventSource = new RealEventSource(request, new EventSourceListener() {
-
-                private String message2Send = "";
+            OkHttpClient okHttpClient = HttpTransport.client(dpUrl);
+            EventSourceListener listener = new EventSourceListener() {
 
                 @Override
                 public void onClosed(@NotNull EventSource eventSource) {
-                    bigmodelResponseListener.accept(message2Send);
+                    slot.release(stream.completionTokens());
+                    if (!cancelled.get()) {
+                        stream.onComplete();
+                    }
                     super.onClosed(eventSource);
                 }
 
@@ -59,52 +89,69 @@ public class DsClient {
                         if ("[DONE]".equals(data)) {
                             return;
                         }
-                        ObjectMapper objectMapper = new ObjectMapper();
-                        JsonNode rootNode = objectMapper.readTree(data);
-                        // 提取choices数组的第一个元素
-                        JsonNode firstChoice = rootNode.get("choices").get(0);
-                        JsonNode deltaNode = firstChoice.get("delta");
-                        // 安全获取content和reasoning_content的值
-                        String content = deltaNode.has("content") && !deltaNode.get("content").isNull()
-                                ? deltaNode.get("content").asText()
-                                : null;
-                        String reasoningContent = deltaNode.has("reasoning_content") && !deltaNode.get("reasoning_content").isNull()
-                                ? deltaNode.get("reasoning_content").asText()
-                                : null;
-                        System.out.println("content: " + content);
-                        System.out.println("reasoning_content: " + reasoningContent);
-                        if(!StringUtil.isNullOrEmpty(content)){
-                            System.out.println("content: " + content);
-                            message2Send = message2Send + content;
-                            if(message2Send.contains("\n")){
-                                String[] split = message2Send.trim().split("\\n");
-                                message2Send = message2Send.trim().substring(split[0].length());
-                                if(split[0].contains("我无法给到")){
-                                    return;
-                                }
-                                dsExecutor.execute(()->bigmodelResponseListener.accept(split[0]));
-                            }
+                        // 只取 choices[0].delta.content，不构建树
+                        String content = ChatDeltaParser.parseChatChunk(data).content();
+                        if(!StringUtil.isNullOrEmpty(content) && !cancelled.get()){
+                            stream.onContent(content);
                         }
                     } catch (IOException e) {
-                        System.out.println("Error parsing JSON: " + e.getMessage());
+                        log.error("deepseek parse chunk error: {}", e.getMessage());
                     }
                     super.onEvent(eventSource, id, type, data);
                 }
 
                 @Override
                 public void onFailure(@NotNull EventSource eventSource, @Nullable Throwable t, @Nullable Response response) {
-                    System.out.println("DsClient ERROR:"+response.message()+"/"+JSONUtil.toJsonStr(response.body()));
-                    bigmodelResponseListener.accept("抱歉似乎我的核心模块出现了异常，请稍后再试试和我聊天");
+                    slot.release(stream.completionTokens());
+                    // 主动取消不算上游故障
+                    if (cancelled.get()) {
+                        return;
+                    }
+                    // 429、5xx 和超时让限流器收缩并发
+                    if (response != null) {
+                        slot.lease().onResponse(response.code());
+                    } else {
+                        slot.lease().onFailure();
+                    }
+                    if (response != null) {
+                        log.error("deepseek stream failed: {} {}", response.code(), response.message());
+                    } else {
+                        log.error("deepseek stream failed", t);
+                    }
+                    stream.onError(t != null ? t : new IOException("deepseek responded " + response.code()));
                     super.onFailure(eventSource, t, response);
                 }
 
                 @Override
                 public void onOpen(@NotNull EventSource eventSource, @NotNull Response response) {
+                    slot.lease().onResponse(response.code());
                     super.onOpen(eventSource, response);
                 }
+            };
+            // 异步建立流，事件在 OkHttp 的调度线程上回调，流持续期间不占阻塞执行器的线程
+            EventSource eventSource = EventSources.createFactory(okHttpClient).newEventSource(request, listener);
+            cancelAction.set(() -> {
+                eventSource.cancel();
+                slot.release(stream.completionTokens());
             });
-            realEventSource.connect(okHttpClient);
+            // 发起前已经取消
+            if (cancelled.get()) {
+                eventSource.cancel();
+                slot.release();
+            }
+        }, reason -> {
+            if (!cancelled.get()) {
+                stream.onRejected(reason);
+            }
         });
+        return () -> {
+            if (cancelled.compareAndSet(false, true)) {
+                Runnable action = cancelAction.get();
+                if (action != null) {
+                    action.run();
+                }
+            }
+        };
     }
 
 }
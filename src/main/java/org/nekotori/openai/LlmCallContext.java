@@ -0,0 +1,61 @@
+package org.nekotori.openai;
+
+/**
+ * 一次 LLM 调用的来源，用于排队调度和统计
+ *
+ * @param groupId  群号，私聊为 null
+ * @param userId   发起人
+ * @param priority 优先级
+ * @param callSite 调用位置，如 at、private、chime-in、sd
+ */
+public record LlmCallContext(Long groupId, long userId, Priority priority, String callSite) {
+
+    public enum Priority {
+        // 直接 @ 或私聊，有人在等回复
+        DIRECT,
+        // 指令内部的调用，如 -sd 生成提示词
+        COMMAND,
+        // 随机插话等可有可无的调用
+        AMBIENT
+    }
+
+    private static final StackWalker WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    /**
+     * 没有上下文的旧接口调用，调用位置取自调用栈，不同位置各自排队
+     */
+    public static LlmCallContext unknown() {
+        return new LlmCallContext(null, 0, Priority.COMMAND, "unknown:" + externalCaller());
+    }
+
+    /**
+     * 公平排队的分组键：群消息按群，私聊按人，都没有的旧接口调用按调用位置
+     */
+    public long fairnessKey() {
+        if (groupId != null) {
+            return groupId;
+        }
+        if (userId != 0) {
+            return -userId;
+        }
+        // 放在最小值附近，和群号、-QQ 号的取值范围不重叠
+        return Long.MIN_VALUE | (callSite.hashCode() & 0xffffffffL);
+    }
+
+    // 跳过本类和调用 unknown() 的客户端自身的帧，取第一个外部调用位置
+    private static String externalCaller() {
+        return WALKER.walk(frames -> {
+            Class<?>[] client = new Class<?>[1];
+            return frames.filter(frame -> frame.getDeclaringClass() != LlmCallContext.class)
+                    .filter(frame -> {
+                        if (client[0] == null) {
+                            client[0] = frame.getDeclaringClass();
+                        }
+                        return frame.getDeclaringClass() != client[0];
+                    })
+                    .findFirst()
+                    .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                    .orElse("unknown");
+        });
+    }
+}
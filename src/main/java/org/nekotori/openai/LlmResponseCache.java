@@ -0,0 +1,322 @@
+package org.nekotori.openai;
+
+import cn.hutool.json.JSONUtil;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.util.BlockingExecution;
+import org.nekotori.util.SerialExecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 大模型回复的精确匹配缓存。
+ * 以提供方和序列化后的请求做 SHA-256 为键，按调用位置配置 TTL，总条数和总字符数超限时按 LRU 淘汰；
+ * 同一个请求正在进行时后来者直接挂到这次调用上，先补发已收到的分段再接收后续分段，上游只调用一次。
+ * 命中时把缓存的分段按原顺序交给回调，调用方看到的和一次真实的流式回复相同。
+ */
+public class LlmResponseCache {
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    private static final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+
+    private static final LongAdder misses = new LongAdder();
+
+    private static final LongAdder coalesced = new LongAdder();
+
+    private static final LongAdder evictions = new LongAdder();
+
+    private static long totalChars;
+
+    private static volatile FileBasedBotConfiguration.Llm config = new FileBasedBotConfiguration.Llm();
+
+    private LlmResponseCache() {
+    }
+
+    public static void configure(FileBasedBotConfiguration.Llm llm) {
+        config = Optional.ofNullable(llm).orElseGet(FileBasedBotConfiguration.Llm::new);
+    }
+
+    /**
+     * 开始一次调用。命中缓存或挂到进行中的同一请求上时不调用 call，回调由缓存负责；
+     * 否则把由调用方驱动的 {@link Flight} 交给 call 发起真实请求，调用方把分段、结束和拒绝都交给它。
+     * 挂上去的请求在领头的调用被拒绝时改用自己的 call 重新发起，拒绝原因只属于领头的那次调用。
+     */
+    public static void begin(String provider, LlmCallContext context, ChatRequest request,
+                             Consumer<String> listener, Consumer<LlmScheduler.RejectReason> onRejected,
+                             Consumer<Flight> call) {
+        Waiter waiter = new Waiter(listener, onRejected, call);
+        long ttlSeconds = config.getCacheTtlSeconds().getOrDefault(context.callSite(), 0L);
+        if (ttlSeconds <= 0) {
+            call.accept(new Flight(null, 0, waiter));
+            return;
+        }
+        String key = key(provider, request);
+        Entry cached = get(key);
+        if (cached != null) {
+            hits.increment();
+            cached.segments.forEach(waiter::deliver);
+            return;
+        }
+        Flight created = new Flight(key, TimeUnit.SECONDS.toNanos(ttlSeconds), waiter);
+        while (true) {
+            Flight existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                misses.increment();
+                call.accept(created);
+                return;
+            }
+            if (existing.join(waiter)) {
+                coalesced.increment();
+                return;
+            }
+            // 进行中的调用刚好结束，再查一次缓存
+            inFlight.remove(key, existing);
+            cached = get(key);
+            if (cached != null) {
+                hits.increment();
+                cached.segments.forEach(waiter::deliver);
+                return;
+            }
+        }
+    }
+
+    public static String key(String provider, ChatRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(provider.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(JSONUtil.toJsonStr(request).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 测试之间清空缓存和计数
+    static void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            totalChars = 0;
+        } finally {
+            lock.unlock();
+        }
+        inFlight.clear();
+        hits.reset();
+        misses.reset();
+        coalesced.reset();
+        evictions.reset();
+    }
+
+    public static Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(entries.size(), totalChars, inFlight.size(), hits.sum(), misses.sum(), coalesced.sum(),
+                    evictions.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Entry get(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                totalChars -= entry.chars;
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void put(String key, Entry entry) {
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalChars -= previous.chars;
+            }
+            totalChars += entry.chars;
+            // 访问顺序的 LinkedHashMap，从头开始就是最久未用的
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (eldest.hasNext() && (entries.size() > config.getCacheMaxEntries()
+                    || totalChars > config.getCacheMaxChars())) {
+                totalChars -= eldest.next().chars;
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry(List<String> segments, long chars, long expiresAt) {
+    }
+
+    // 每个等待方各自按顺序收到分段
+    private static final class Waiter {
+
+        private final SerialExecutor ordered = new SerialExecutor(BlockingExecution::execute);
+
+        private final Consumer<String> listener;
+
+        private final Consumer<LlmScheduler.RejectReason> onRejected;
+
+        // 自己发起一次不经缓存的调用
+        private final Consumer<Flight> call;
+
+        private Waiter(Consumer<String> listener, Consumer<LlmScheduler.RejectReason> onRejected,
+                       Consumer<Flight> call) {
+            this.listener = listener;
+            this.onRejected = onRejected;
+            this.call = call;
+        }
+
+        private void deliver(String segment) {
+            ordered.execute(() -> listener.accept(segment));
+        }
+
+        private void reject(LlmScheduler.RejectReason reason) {
+            if (onRejected != null) {
+                ordered.execute(() -> onRejected.accept(reason));
+            }
+        }
+    }
+
+    /**
+     * 一次真实的上游调用，收集分段并转发给所有等待方；成功结束时写入缓存，失败或被拒绝时不缓存
+     */
+    public static final class Flight {
+
+        private final String key;
+
+        private final long ttlNanos;
+
+        private final List<String> segments = new ArrayList<>();
+
+        private final List<Waiter> waiters = new ArrayList<>();
+
+        private final ReentrantLock flightLock = new ReentrantLock();
+
+        private long chars;
+
+        private boolean finished;
+
+        private Flight(String key, long ttlNanos, Waiter leader) {
+            this.key = key;
+            this.ttlNanos = ttlNanos;
+            this.waiters.add(leader);
+        }
+
+        public void emit(String segment) {
+            flightLock.lock();
+            try {
+                if (key != null) {
+                    segments.add(segment);
+                    chars += segment.length();
+                }
+                waiters.forEach(waiter -> waiter.deliver(segment));
+            } finally {
+                flightLock.unlock();
+            }
+        }
+
+        /**
+         * @param success 上游是否正常结束；失败时已经发出的错误提示不会进入缓存
+         */
+        public void finish(boolean success) {
+            flightLock.lock();
+            try {
+                finished = true;
+                if (key != null && success && !segments.isEmpty()) {
+                    put(key, new Entry(List.copyOf(segments), chars, System.nanoTime() + ttlNanos));
+                }
+            } finally {
+                flightLock.unlock();
+            }
+            if (key != null) {
+                inFlight.remove(key, this);
+            }
+        }
+
+        /**
+         * 拒绝可能只针对领头方，比如它所在群的预算用完了；挂上来的等待方各自重新发起，
+         * 已经收到过分段的等待方不能再重来，只能一起收到拒绝
+         */
+        public void reject(LlmScheduler.RejectReason reason) {
+            Waiter leader;
+            List<Waiter> joined;
+            boolean started;
+            flightLock.lock();
+            try {
+                finished = true;
+                leader = waiters.get(0);
+                joined = List.copyOf(waiters.subList(1, waiters.size()));
+                started = !segments.isEmpty();
+            } finally {
+                flightLock.unlock();
+            }
+            if (key != null) {
+                inFlight.remove(key, this);
+            }
+            leader.reject(reason);
+            for (Waiter waiter : joined) {
+                if (started) {
+                    waiter.reject(reason);
+                } else {
+                    waiter.call.accept(new Flight(null, 0, waiter));
+                }
+            }
+        }
+
+        private boolean join(Waiter waiter) {
+            flightLock.lock();
+            try {
+                if (finished) {
+                    return false;
+                }
+                segments.forEach(waiter::deliver);
+                waiters.add(waiter);
+                return true;
+            } finally {
+                flightLock.unlock();
+            }
+        }
+    }
+
+    public record Stats(int size, long chars, int inFlight, long hits, long misses, long coalesced, long evictions) {
+
+        public double hitRate() {
+            long total = hits + misses + coalesced;
+            return total == 0 ? 0 : (double) (hits + coalesced) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d chars=%d inFlight=%d hits=%d misses=%d coalesced=%d evictions=%d hitRate=%.2f%%",
+                    size, chars, inFlight, hits, misses, coalesced, evictions, hitRate() * 100);
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 按模型类别在多个提供方之间路由。
+ * 每个提供方记录首包延迟和错误率的 EWMA，选当前最健康的发起请求；超过它首包延迟的 p95 还没有首包时，
+ * 再向次优的提供方对冲一个请求，谁先有首包用谁，另一个立即取消。短时间内连续失败的提供方会熔断一段时间，
+ * 之后只放一个试探请求，成功才恢复。发起前按 {@link TokenGovernor} 的额度降级：接近额度时只用本地模型，用完直接拒绝。
+ */
+@Slf4j
+public class LlmRouter {
+
+    private static final int LATENCY_SAMPLES = 128;
+
+    // 错误率为 1 时在延迟上加的分数，一直失败的提供方排在任何能出结果的后面
+    private static final double ERROR_PENALTY_MILLIS = 30_000;
+
+    private static volatile FileBasedBotConfiguration.Routing config = new FileBasedBotConfiguration.Routing();
+
+    private static volatile Map<String, Route> routes = Map.of();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 按配置建立各提供方，deepseek 未单独配置 Key 时使用 deepseek.apiKey
+     */
+    public static void configure(FileBasedBotConfiguration bot) {
+        configure(Optional.ofNullable(bot.getLlm())
+                        .map(FileBasedBotConfiguration.Llm::getRouting)
+                        .orElseGet(FileBasedBotConfiguration.Routing::new),
+                Optional.ofNullable(bot.getDeepseek()).map(FileBasedBotConfiguration.Deepseek::getApiKey).orElse(null));
+    }
+
+    static void configure(FileBasedBotConfiguration.Routing routing, String deepseekApiKey) {
+        Map<String, Route> created = new LinkedHashMap<>();
+        routing.getProviders().forEach((name, provider) -> {
+            String apiKey = provider.getApiKey();
+            ChatProvider chat = switch (provider.getType()) {
+                case "deepseek" -> {
+                    String key = apiKey != null ? apiKey : deepseekApiKey;
+                    yield (context, request, stream) -> DsClient.stream(context, key, request, stream);
+                }
+                case "ollama" -> (context, request, stream) -> OllamaClient.stream(context, apiKey, request, stream);
+                case "openai" -> {
+                    OpenAIClient client = new OpenAIClient(apiKey, provider.getBaseUrl());
+                    yield client::stream;
+                }
+                default -> null;
+            };
+            if (chat == null) {
+                log.warn("unknown llm provider type {} for {}", provider.getType(), name);
+                return;
+            }
+            created.put(name, new Route(name, chat, provider.getModels(), "ollama".equals(provider.getType())));
+        });
+        config = routing;
+        routes = created;
+    }
+
+    /**
+     * 按模型类别路由一次调用，先查回复缓存；所有提供方都熔断或排队被拒时调用 onRejected
+     */
+    public static void invoke(LlmCallContext context, String modelClass, ChatRequest request,
+                              Consumer<String> listener, Consumer<LlmScheduler.RejectReason> onRejected) {
+        request.setStream(true);
+        LlmResponseCache.begin("router:" + modelClass, context, request, listener, onRejected,
+                flight -> stream(context, modelClass, request, ChatProvider.ChatStream.lines(flight)));
+    }
+
+    /**
+     * 不经过缓存，把路由后的增量原样交给 stream，用于需要知道何时结束的内部调用
+     */
+    public static void stream(LlmCallContext context, String modelClass, ChatRequest request,
+                              ChatProvider.ChatStream stream) {
+        request.setStream(true);
+        TokenGovernor.Level level = TokenGovernor.admit(context);
+        if (level == TokenGovernor.Level.REFUSE) {
+            stream.onRejected(LlmScheduler.RejectReason.BUDGET);
+            return;
+        }
+        // 这一类没有本地模型时只用本地就等于直接拒绝，到 refuseAt 之前照常路由
+        boolean localOnly = level == TokenGovernor.Level.LOCAL_ONLY && hasLocalRoute(modelClass);
+        new Race(context, modelClass, request, stream, localOnly).start();
+    }
+
+    public static List<Stats> stats() {
+        return routes.values().stream().map(Route::stats).toList();
+    }
+
+    static boolean hasLocalRoute(String modelClass) {
+        for (String name : config.getClasses().getOrDefault(modelClass, List.of())) {
+            Route route = routes.get(name);
+            if (route != null && route.local) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 可用的提供方按健康度排序，未采样过的优先试一次，分数相同时按配置顺序
+    private static List<Route> candidates(String modelClass, boolean localOnly) {
+        List<String> names = config.getClasses().getOrDefault(modelClass, List.of());
+        List<Route> candidates = new ArrayList<>();
+        for (String name : names) {
+            Route route = routes.get(name);
+            if (route != null && (route.local || !localOnly) && route.available()) {
+                candidates.add(route);
+            }
+        }
+        candidates.sort(Comparator.<Route>comparingDouble(Route::score).thenComparingInt(route -> names.indexOf(route.name)));
+        return candidates;
+    }
+
+    /**
+     * 分数越低越优先。错误惩罚与延迟相加而不是相乘，否则从没成功过、延迟为 0 的提供方总是得 0 分
+     */
+    static double score(double latencyEwmaMillis, double errorRate) {
+        return latencyEwmaMillis + ERROR_PENALTY_MILLIS * errorRate;
+    }
+
+    // 一次路由调用：主请求、可能的对冲请求和失败转移
+    private static final class Race {
+
+        private final LlmCallContext context;
+
+        private final String modelClass;
+
+        private final ChatRequest request;
+
+        private final ChatProvider.ChatStream downstream;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final List<Attempt> running = new ArrayList<>();
+
+        private final ArrayDeque<Route> remaining;
+
+        private Attempt winner;
+
+        private boolean finished;
+
+        private Disposable hedgeTimer;
+
+        private LlmScheduler.RejectReason lastRejection = LlmScheduler.RejectReason.UNAVAILABLE;
+
+        private Race(LlmCallContext context, String modelClass, ChatRequest request, ChatProvider.ChatStream downstream,
+                     boolean localOnly) {
+            this.context = context;
+            this.modelClass = modelClass;
+            this.request = request;
+            this.downstream = downstream;
+            this.remaining = new ArrayDeque<>(candidates(modelClass, localOnly));
+            if (localOnly) {
+                lastRejection = LlmScheduler.RejectReason.BUDGET;
+            }
+        }
+
+        private void start() {
+            Attempt primary = next(false);
+            if (primary == null) {
+                downstream.onRejected(lastRejection);
+                return;
+            }
+            lock.lock();
+            try {
+                if (!remaining.isEmpty()) {
+                    long delay = primary.route.hedgeDelayMillis();
+                    hedgeTimer = Schedulers.parallel().schedule(this::hedge, delay, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+            primary.launch();
+        }
+
+        private void hedge() {
+            Attempt hedged;
+            lock.lock();
+            try {
+                if (winner != null || finished) {
+                    return;
+                }
+                hedged = next(true);
+            } finally {
+                lock.unlock();
+            }
+            if (hedged != null) {
+                hedged.route.hedges.increment();
+                hedged.launch();
+            }
+        }
+
+        // 取下一个熔断器放行的提供方并登记，调用方在锁外启动
+        private Attempt next(boolean hedged) {
+            lock.lock();
+            try {
+                while (!remaining.isEmpty()) {
+                    Route route = remaining.pollFirst();
+                    if (route.tryAcquire()) {
+                        Attempt attempt = new Attempt(this, route, hedged);
+                        running.add(attempt);
+                        return attempt;
+                    }
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ChatRequest requestFor(Route route) {
+            ChatRequest copy = new ChatRequest();
+            copy.setMessages(request.getMessages());
+            copy.setModel(route.models.getOrDefault(modelClass, request.getModel()));
+            copy.setStream(true);
+            copy.setEnable_search(request.getEnable_search());
+            copy.setThink(request.getThink());
+            return copy;
+        }
+
+        private void onContent(Attempt attempt, String delta) {
+            List<Attempt> losers = List.of();
+            lock.lock();
+            try {
+                if (winner == null && !finished) {
+                    winner = attempt;
+                    losers = new ArrayList<>(running);
+                    losers.remove(attempt);
+                    if (hedgeTimer != null) {
+                        hedgeTimer.dispose();
+                    }
+                    attempt.route.success(System.nanoTime() - attempt.startNanos);
+                    if (attempt.hedged) {
+                        attempt.route.hedgeWins.increment();
+                    }
+                }
+                if (winner == attempt) {
+                    downstream.onContent(delta);
+                }
+            } finally {
+                lock.unlock();
+            }
+            // 首包到了，另一个请求不再需要
+            losers.forEach(Attempt::cancel);
+        }
+
+        private void onComplete(Attempt attempt) {
+            List<Attempt> losers = List.of();
+            lock.lock();
+            try {
+                // 没有任何内容就结束的也算赢
+                if (winner == null && !finished) {
+                    winner = attempt;
+                    losers = new ArrayList<>(running);
+                    losers.remove(attempt);
+                    attempt.route.success(System.nanoTime() - attempt.startNanos);
+                }
+                if (winner != attempt || finished) {
+                    return;
+                }
+                finished = true;
+                if (hedgeTimer != null) {
+                    hedgeTimer.dispose();
+                }
+            } finally {
+                lock.unlock();
+            }
+            losers.forEach(Attempt::cancel);
+            downstream.onComplete();
+        }
+
+        private void onFailed(Attempt attempt, Throwable error, LlmScheduler.RejectReason rejection) {
+            Attempt failover = null;
+            boolean streaming;
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                running.remove(attempt);
+                streaming = winner == attempt;
+                if (rejection != null) {
+                    lastRejection = rejection;
+                }
+                if (streaming) {
+                    // 已经开始输出就不能再换提供方
+                    finished = true;
+                } else if (winner != null || !running.isEmpty()) {
+                    return;
+                } else {
+                    failover = next(false);
+                    if (failover == null) {
+                        finished = true;
+                        if (hedgeTimer != null) {
+                            hedgeTimer.dispose();
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (failover != null) {
+                log.info("llm {} failed over from {} to {}", context.callSite(), attempt.route.name, failover.route.name);
+                failover.launch();
+            } else if (error != null || streaming) {
+                downstream.onError(error);
+            } else {
+                downstream.onRejected(lastRejection);
+            }
+        }
+    }
+
+    private static final class Attempt implements ChatProvider.ChatStream {
+
+        private final Race race;
+
+        private final Route route;
+
+        private final boolean hedged;
+
+        private final long startNanos = System.nanoTime();
+
+        private volatile ChatProvider.Call call;
+
+        private volatile boolean cancelled;
+
+        private Attempt(Race race, Route route, boolean hedged) {
+            this.race = race;
+            this.route = route;
+            this.hedged = hedged;
+        }
+
+        private void launch() {
+            route.requests.increment();
+            call = route.provider.stream(race.context, race.requestFor(route), this);
+            if (cancelled) {
+                call.cancel();
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            route.release();
+            route.cancelled.increment();
+            // 被取消时还没有首包，至少这么慢
+            route.censored(System.nanoTime() - startNanos);
+            ChatProvider.Call current = call;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void onContent(String delta) {
+            if (!cancelled) {
+                race.onContent(this, delta);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            route.release();
+            if (!cancelled) {
+                race.onComplete(this);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            route.failure();
+            if (!cancelled) {
+                race.onFailed(this, error, null);
+            }
+        }
+
+        @Override
+        public void onRejected(LlmScheduler.RejectReason reason) {
+            route.release();
+            if (!cancelled) {
+                race.onFailed(this, null, reason);
+            }
+        }
+    }
+
+    // 单个提供方的健康状态和熔断器
+    private static final class Route {
+
+        private final String name;
+
+        private final ChatProvider provider;
+
+        private final Map<String, String> models;
+
+        // 本地模型，额度紧张时仍可使用
+        private final boolean local;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+
+        private int latencyCount;
+
+        private double latencyEwmaMillis;
+
+        private double errorRate;
+
+        private final ArrayDeque<Long> failures = new ArrayDeque<>();
+
+        private State state = State.CLOSED;
+
+        private long openedAt;
+
+        // 半开状态下试探请求是否已经发出
+        private boolean probing;
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder hedges = new LongAdder();
+
+        private final LongAdder hedgeWins = new LongAdder();
+
+        private final LongAdder cancelled = new LongAdder();
+
+        private Route(String name, ChatProvider provider, Map<String, String> models, boolean local) {
+            this.name = name;
+            this.provider = provider;
+            this.models = models == null ? Map.of() : models;
+            this.local = local;
+        }
+
+        private boolean available() {
+            lock.lock();
+            try {
+                return switch (state) {
+                    case CLOSED -> true;
+                    case OPEN -> System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(config.getBreakerOpenMillis());
+                    case HALF_OPEN -> !probing;
+                };
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean tryAcquire() {
+            lock.lock();
+            try {
+                if (state == State.OPEN && System.nanoTime() - openedAt
+                        >= TimeUnit.MILLISECONDS.toNanos(config.getBreakerOpenMillis())) {
+                    state = State.HALF_OPEN;
+                    probing = false;
+                }
+                if (state == State.HALF_OPEN) {
+                    if (probing) {
+                        return false;
+                    }
+                    probing = true;
+                }
+                return state != State.OPEN;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 试探请求没有结果就结束时放开下一次试探
+        private void release() {
+            lock.lock();
+            try {
+                if (state == State.HALF_OPEN) {
+                    probing = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void success(long latencyNanos) {
+            lock.lock();
+            try {
+                long millis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+                latencies[latencyCount++ % LATENCY_SAMPLES] = millis;
+                latencyEwmaMillis = latencyEwmaMillis == 0 ? millis : latencyEwmaMillis * 0.8 + millis * 0.2;
+                errorRate = errorRate * 0.8;
+                if (state != State.CLOSED) {
+                    log.info("llm provider {} recovered", name);
+                }
+                state = State.CLOSED;
+                probing = false;
+                failures.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void failure() {
+            lock.lock();
+            try {
+                errors.increment();
+                errorRate = errorRate * 0.8 + 0.2;
+                long now = System.nanoTime();
+                failures.addLast(now);
+                long window = TimeUnit.MILLISECONDS.toNanos(config.getBreakerWindowMillis());
+                while (!failures.isEmpty() && now - failures.peekFirst() > window) {
+                    failures.pollFirst();
+                }
+                if (state == State.HALF_OPEN || (state == State.CLOSED && failures.size() >= config.getBreakerFailures())) {
+                    log.warn("llm provider {} circuit opened after {} failures", name, failures.size());
+                    state = State.OPEN;
+                    openedAt = now;
+                    probing = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void censored(long elapsedNanos) {
+            lock.lock();
+            try {
+                long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+                if (millis > latencyEwmaMillis) {
+                    latencyEwmaMillis = latencyEwmaMillis == 0 ? millis : latencyEwmaMillis * 0.8 + millis * 0.2;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private double score() {
+            lock.lock();
+            try {
+                return LlmRouter.score(latencyEwmaMillis, errorRate);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long hedgeDelayMillis() {
+            long p95 = percentile(0.95);
+            if (p95 <= 0) {
+                return config.getMaxHedgeDelayMillis();
+            }
+            return Math.max(config.getMinHedgeDelayMillis(), Math.min(config.getMaxHedgeDelayMillis(), p95));
+        }
+
+        private long percentile(double quantile) {
+            long[] sorted;
+            lock.lock();
+            try {
+                sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+            } finally {
+                lock.unlock();
+            }
+            if (sorted.length == 0) {
+                return 0;
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+        }
+
+        private Stats stats() {
+            long p95 = percentile(0.95);
+            lock.lock();
+            try {
+                return new Stats(name, state, latencyEwmaMillis, p95, errorRate, requests.sum(), errors.sum(),
+                        hedges.sum(), hedgeWins.sum(), cancelled.sum());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public record Stats(String provider, State state, double latencyMillis, long p95Millis, double errorRate,
+                        long requests, long errors, long hedges, long hedgeWins, long cancelled) {
+
+        @Override
+        public String toString() {
+            return String.format("%s %s latency=%.0fms p95=%dms errorRate=%.2f requests=%d errors=%d hedges=%d hedgeWins=%d cancelled=%d",
+                    provider, state, latencyMillis, p95Millis, errorRate, requests, errors, hedges, hedgeWins, cancelled);
+        }
+    }
+}
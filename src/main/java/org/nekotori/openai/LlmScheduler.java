@@ -0,0 +1,374 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.util.BlockingExecution;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 单个上游的 LLM 请求准入调度。
+ * 能否放行由上游的 {@link AdaptiveLimiter} 决定，放不了的按优先级排队：高优先级先出队，同一优先级内各群之间按差额轮询（DRR）出队，
+ * 请求按预估 token 数扣减额度，一个群排再多、请求再长也只能按自己的份额占用上游。队列有界，排满或等待超时的请求通过拒绝回调明确告知调用方。
+ */
+@Slf4j
+public class LlmScheduler {
+
+    public enum RejectReason {
+        // 本群在该优先级的队列已满
+        GROUP_FULL,
+        // 该优先级的总队列已满
+        QUEUE_FULL,
+        // 排队超过该优先级允许的最长等待
+        EXPIRED,
+        // 可用的提供方都已熔断
+        UNAVAILABLE,
+        // 本群或发起人的大模型额度已用完
+        BUDGET
+    }
+
+    private static final Map<String, LlmScheduler> schedulers = new ConcurrentHashMap<>();
+
+    private static volatile FileBasedBotConfiguration.Llm config = new FileBasedBotConfiguration.Llm();
+
+    private final String name;
+
+    private final AdaptiveLimiter limiter;
+
+    private final FileBasedBotConfiguration.Llm settings;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final PriorityQueue[] queues = new PriorityQueue[LlmCallContext.Priority.values().length];
+
+    // 令牌桶暂时不够时已经安排了一次延迟重试
+    private boolean retryScheduled;
+
+    private LlmScheduler(AdaptiveLimiter limiter, FileBasedBotConfiguration.Llm settings) {
+        this.name = limiter.name();
+        this.limiter = limiter;
+        this.settings = settings;
+        for (LlmCallContext.Priority priority : LlmCallContext.Priority.values()) {
+            queues[priority.ordinal()] = new PriorityQueue(priority);
+        }
+    }
+
+    public static void configure(FileBasedBotConfiguration.Llm llm) {
+        config = Optional.ofNullable(llm).orElseGet(FileBasedBotConfiguration.Llm::new);
+    }
+
+    /**
+     * 某个限流器对应的调度器，第一次使用时按当前配置创建
+     */
+    public static LlmScheduler of(AdaptiveLimiter limiter) {
+        return schedulers.computeIfAbsent(limiter.name(), key -> new LlmScheduler(limiter, config));
+    }
+
+    public static List<Stats> allStats() {
+        List<Stats> stats = new ArrayList<>();
+        schedulers.values().forEach(scheduler -> stats.addAll(scheduler.stats()));
+        return stats;
+    }
+
+    /**
+     * 提交一次调用，tokens 为请求的预估 token 数。取得名额后 task 在阻塞执行器上运行，调用结束时必须归还 {@link Slot}；
+     * 被拒绝时调用 onRejected，不会抛异常。
+     */
+    public void submit(LlmCallContext context, int tokens, Consumer<Slot> task, Consumer<RejectReason> onRejected) {
+        Request request = new Request(context, tokens, task, onRejected, System.nanoTime());
+        RejectReason rejected;
+        lock.lock();
+        try {
+            rejected = queues[context.priority().ordinal()].offer(request);
+        } finally {
+            lock.unlock();
+        }
+        if (rejected != null) {
+            reject(request, rejected);
+            return;
+        }
+        pump();
+    }
+
+    public List<Stats> stats() {
+        lock.lock();
+        try {
+            List<Stats> stats = new ArrayList<>(queues.length);
+            for (PriorityQueue queue : queues) {
+                stats.add(queue.stats());
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 限流器放行就按优先级和 DRR 出队，过期的请求在出队时拒绝
+    private void pump() {
+        List<Slot> admitted = new ArrayList<>();
+        List<Request> expired = new ArrayList<>();
+        long retryNanos = 0;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            while (hasQueued()) {
+                // 检查和占用在限流器的同一把锁里完成
+                AdaptiveLimiter.Lease lease = limiter.tryAcquire();
+                if (lease == null) {
+                    // 受并发限制时等名额归还再出队，受令牌桶限制时按补充时间重试
+                    retryNanos = retryScheduled ? 0 : limiter.nanosUntilAdmit();
+                    retryScheduled |= retryNanos > 0;
+                    break;
+                }
+                Request next = null;
+                for (PriorityQueue queue : queues) {
+                    next = queue.poll(now, expired);
+                    if (next != null) {
+                        break;
+                    }
+                }
+                if (next == null) {
+                    // 剩下的都已过期
+                    lease.cancel();
+                    break;
+                }
+                lease.charge(next.tokens);
+                admitted.add(new Slot(next, lease));
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (retryNanos > 0) {
+            Schedulers.parallel().schedule(() -> {
+                lock.lock();
+                try {
+                    retryScheduled = false;
+                } finally {
+                    lock.unlock();
+                }
+                pump();
+            }, retryNanos, TimeUnit.NANOSECONDS);
+        }
+        expired.forEach(request -> reject(request, RejectReason.EXPIRED));
+        for (Slot slot : admitted) {
+            BlockingExecution.execute(() -> {
+                try {
+                    slot.request.task.accept(slot);
+                } catch (Exception e) {
+                    log.error("llm call {} failed", slot.request.context.callSite(), e);
+                    slot.lease.onFailure();
+                    slot.release();
+                }
+            });
+        }
+    }
+
+    private boolean hasQueued() {
+        for (PriorityQueue queue : queues) {
+            if (queue.size > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reject(Request request, RejectReason reason) {
+        limiter.reject();
+        log.warn("llm {} rejected {} call from {}: {}", name, request.context.priority(), request.context.callSite(), reason);
+        if (request.onRejected != null) {
+            BlockingExecution.execute(() -> request.onRejected.accept(reason));
+        }
+    }
+
+    /**
+     * 调用占用的名额，响应头到达时通过 {@link #lease()} 报告状态码，流结束时归还；重复归还只生效一次
+     */
+    public final class Slot {
+
+        private final Request request;
+
+        private final AdaptiveLimiter.Lease lease;
+
+        private Slot(Request request, AdaptiveLimiter.Lease lease) {
+            this.request = request;
+            this.lease = lease;
+        }
+
+        public AdaptiveLimiter.Lease lease() {
+            return lease;
+        }
+
+        public void release() {
+            release(0);
+        }
+
+        /**
+         * 流结束时归还，并把实际输出的 token 数补扣到令牌桶；出队时只按提示词扣过
+         */
+        public void release(int completionTokens) {
+            if (lease.release()) {
+                if (completionTokens > 0) {
+                    lease.charge(completionTokens);
+                }
+                pump();
+            }
+        }
+    }
+
+    private record Request(LlmCallContext context, int tokens, Consumer<Slot> task,
+                           Consumer<RejectReason> onRejected, long enqueuedAt) {
+
+        // DRR 里的出队成本，长请求要攒更多轮额度
+        private int cost() {
+            return Math.max(1, tokens);
+        }
+    }
+
+    private static final class GroupQueue {
+
+        private final long key;
+
+        private final ArrayDeque<Request> requests = new ArrayDeque<>();
+
+        private long deficit;
+
+        private GroupQueue(long key) {
+            this.key = key;
+        }
+    }
+
+    // 单个优先级：按群分队列，活跃的群轮流出队
+    private final class PriorityQueue {
+
+        private final LlmCallContext.Priority priority;
+
+        private final Map<Long, GroupQueue> groups = new HashMap<>();
+
+        private final ArrayDeque<GroupQueue> active = new ArrayDeque<>();
+
+        private int size;
+
+        private final LongAdder submitted = new LongAdder();
+
+        private final LongAdder admitted = new LongAdder();
+
+        private final LongAdder[] rejected = new LongAdder[RejectReason.values().length];
+
+        private final LongAdder waitNanos = new LongAdder();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private PriorityQueue(LlmCallContext.Priority priority) {
+            this.priority = priority;
+            for (int i = 0; i < rejected.length; i++) {
+                rejected[i] = new LongAdder();
+            }
+        }
+
+        private RejectReason offer(Request request) {
+            submitted.increment();
+            RejectReason reason = null;
+            GroupQueue group = groups.get(request.context.fairnessKey());
+            if (size >= settings.getQueueCapacity()) {
+                reason = RejectReason.QUEUE_FULL;
+            } else if (group != null && group.requests.size() >= settings.getGroupQueueCapacity()) {
+                reason = RejectReason.GROUP_FULL;
+            }
+            if (reason != null) {
+                rejected[reason.ordinal()].increment();
+                return reason;
+            }
+            if (group == null) {
+                group = new GroupQueue(request.context.fairnessKey());
+                group.deficit = quantum();
+                groups.put(group.key, group);
+                active.addLast(group);
+            }
+            group.requests.addLast(request);
+            size++;
+            return null;
+        }
+
+        private Request poll(long now, List<Request> expired) {
+            long maxWait = TimeUnit.MILLISECONDS.toNanos(settings.getMaxQueueWaitMillis().getOrDefault(priority.name(),
+                    Long.MAX_VALUE / 1_000_000));
+            while (!active.isEmpty()) {
+                GroupQueue group = active.peekFirst();
+                Request head = group.requests.peekFirst();
+                if (now - head.enqueuedAt > maxWait) {
+                    group.requests.pollFirst();
+                    size--;
+                    rejected[RejectReason.EXPIRED.ordinal()].increment();
+                    expired.add(head);
+                    retireIfEmpty(group);
+                    continue;
+                }
+                // 按预估 token 数扣减，额度不够的群移到队尾并补充额度
+                if (group.deficit >= head.cost()) {
+                    group.requests.pollFirst();
+                    group.deficit -= head.cost();
+                    size--;
+                    retireIfEmpty(group);
+                    admitted.increment();
+                    long wait = now - head.enqueuedAt;
+                    waitNanos.add(wait);
+                    maxWaitNanos.accumulateAndGet(wait, Math::max);
+                    return head;
+                }
+                active.pollFirst();
+                group.deficit += quantum();
+                active.addLast(group);
+            }
+            return null;
+        }
+
+        private void retireIfEmpty(GroupQueue group) {
+            if (group.requests.isEmpty()) {
+                active.remove(group);
+                groups.remove(group.key);
+            }
+        }
+
+        private int quantum() {
+            return Math.max(1, settings.getQuantum());
+        }
+
+        private Stats stats() {
+            long count = admitted.sum();
+            long[] rejections = new long[rejected.length];
+            for (int i = 0; i < rejected.length; i++) {
+                rejections[i] = rejected[i].sum();
+            }
+            return new Stats(name, priority, size, groups.size(), submitted.sum(), count, rejections,
+                    count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.sum() / count),
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        }
+    }
+
+    public record Stats(String upstream, LlmCallContext.Priority priority, int depth, int groups, long submitted,
+                        long admitted, long[] rejected, long avgWaitMillis, long maxWaitMillis) {
+
+        @Override
+        public String toString() {
+            StringBuilder rejections = new StringBuilder();
+            for (RejectReason reason : RejectReason.values()) {
+                rejections.append(' ').append(reason.name().toLowerCase()).append('=').append(rejected[reason.ordinal()]);
+            }
+            return String.format("%s %s depth=%d groups=%d submitted=%d admitted=%d%s wait avg=%dms max=%dms",
+                    upstream, priority, depth, groups, submitted, admitted, rejections, avgWaitMillis,
+                    maxWaitMillis);
+        }
+    }
+}
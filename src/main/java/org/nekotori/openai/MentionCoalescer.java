@@ -0,0 +1,145 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.util.BlockingExecution;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 把同一个群里短时间内接连的 @ 攒成一批，交给一次大模型调用统一回复。
+ * 群里空闲时第一条立即发出，不等待；之后 windowMillis 内接连的 @ 攒成一批，每来一条重新等 windowMillis，
+ * 从第一条起最多等 maxWaitMillis，攒够 maxBatch 条立即发出。windowMillis 为 0 时每条单独发出。
+ */
+@Slf4j
+public class MentionCoalescer<T> {
+
+    private final FileBasedBotConfiguration.Coalesce settings;
+
+    private final BiConsumer<Long, List<T>> handler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<Long, Batch<T>> pending = new HashMap<>();
+
+    private final LongAdder mentions = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder full = new LongAdder();
+
+    /**
+     * @param handler 群号和按到达顺序排列的一批消息，在阻塞线程上调用
+     */
+    public MentionCoalescer(FileBasedBotConfiguration.Coalesce settings, BiConsumer<Long, List<T>> handler) {
+        this.settings = settings == null ? new FileBasedBotConfiguration.Coalesce() : settings;
+        this.handler = handler;
+    }
+
+    public void submit(long groupId, T mention) {
+        mentions.increment();
+        if (settings.getWindowMillis() <= 0 || settings.getMaxBatch() <= 1) {
+            dispatch(groupId, List.of(mention));
+            return;
+        }
+        List<T> ready = null;
+        lock.lock();
+        try {
+            Batch<T> batch = pending.get(groupId);
+            if (batch == null) {
+                // 领头的一条立即发出，只开一个窗口收集紧跟着的 @
+                Batch<T> window = new Batch<>(System.nanoTime());
+                window.timer = Schedulers.parallel().schedule(() -> expire(groupId, window),
+                        settings.getWindowMillis(), TimeUnit.MILLISECONDS);
+                pending.put(groupId, window);
+                ready = List.of(mention);
+            } else {
+                batch.timer.dispose();
+                batch.items.add(mention);
+                if (batch.items.size() >= settings.getMaxBatch()) {
+                    pending.remove(groupId);
+                    full.increment();
+                    ready = batch.items;
+                } else {
+                    long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.startNanos);
+                    long delay = Math.max(0, Math.min(settings.getWindowMillis(), settings.getMaxWaitMillis() - waited));
+                    batch.timer = Schedulers.parallel().schedule(() -> expire(groupId, batch), delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (ready != null) {
+            dispatch(groupId, ready);
+        }
+    }
+
+    public Stats stats() {
+        int waiting;
+        lock.lock();
+        try {
+            waiting = pending.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(mentions.sum(), batches.sum(), full.sum(), waiting);
+    }
+
+    private void expire(long groupId, Batch<T> batch) {
+        lock.lock();
+        try {
+            // 已经因为攒满被发出，或者被新的批次替换
+            if (!pending.remove(groupId, batch)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 窗口内没有人接着 @
+        if (!batch.items.isEmpty()) {
+            dispatch(groupId, batch.items);
+        }
+    }
+
+    private void dispatch(long groupId, List<T> items) {
+        batches.increment();
+        BlockingExecution.execute(() -> {
+            try {
+                handler.accept(groupId, items);
+            } catch (RuntimeException e) {
+                log.error("handle {} mentions in group {} failed", items.size(), groupId, e);
+            }
+        });
+    }
+
+    private static final class Batch<T> {
+
+        private final long startNanos;
+
+        private final List<T> items = new ArrayList<>();
+
+        private Disposable timer;
+
+        private Batch(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    public record Stats(long mentions, long batches, long full, int pending) {
+
+        @Override
+        public String toString() {
+            return String.format("mentions=%d calls=%d saved=%d full=%d pending=%d",
+                    mentions, batches, mentions - batches, full, pending);
+        }
+    }
+}
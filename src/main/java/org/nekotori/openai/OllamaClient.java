@@ -1,35 +1,109 @@
 package org.nekotori.openai;
 
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.util.internal.StringUtil;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.nekotori.resource.HttpTransport;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 @Slf4j
 public class OllamaClient {
 
-    private static final ExecutorService dsExecutor = new ThreadPoolExecutor(4,20,1000, TimeUnit.SECONDS,new ArrayBlockingQueue<>(5));
+    private static final String RESOURCE = "ollama";
 
     private static final String dpUrl = "http://localhost:11434/api/chat";
-    
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     public static void invoke(String apiKey, ChatRequest chatRequest, Consumer<String> bigmodelResponseListener) {
-        dsExecutor.execute(() -> {
+        LlmCallContext context = LlmCallContext.unknown();
+        LlmResponseCache.begin(RESOURCE, context, chatRequest, bigmodelResponseListener,
+                reason -> bigmodelResponseListener.accept("抱歉现在找我聊天的人太多了，请稍后再试"),
+                flight -> stream(context, apiKey, chatRequest, ChatProvider.ChatStream.lines(flight)));
+    }
+
+    /**
+     * 调用 Ollama 的 /api/embed 批量取向量，不占对话的并发名额
+     */
+    public static float[][] embed(String url, String model, List<String> texts) throws IOException {
+        return embed(HttpTransport.client(url).newCall(embedRequest(url, model, texts)));
+    }
+
+    /**
+     * 整个调用限时 timeout，用于回复路径上不能久等的取向量
+     */
+    public static float[][] embed(String url, String model, List<String> texts, Duration timeout) throws IOException {
+        Call call = HttpTransport.client(url, timeout).newCall(embedRequest(url, model, texts));
+        call.timeout().timeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        return embed(call);
+    }
+
+    private static Request embedRequest(String url, String model, List<String> texts) {
+        RequestBody body = RequestBody.create(JSONUtil.toJsonStr(Map.of("model", model, "input", texts)),
+                MediaType.parse("application/json; charset=utf-8"));
+        return new Request.Builder().url(url).post(body).build();
+    }
+
+    private static float[][] embed(Call call) throws IOException {
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("ollama embed responded " + response.code());
+            }
+            JsonNode embeddings = MAPPER.readTree(response.body().byteStream()).path("embeddings");
+            float[][] vectors = new float[embeddings.size()][];
+            for (int i = 0; i < vectors.length; i++) {
+                JsonNode embedding = embeddings.get(i);
+                vectors[i] = new float[embedding.size()];
+                for (int j = 0; j < vectors[i].length; j++) {
+                    vectors[i][j] = (float) embedding.get(j).asDouble();
+                }
+            }
+            return vectors;
+        }
+    }
+
+    /**
+     * 经调度器排队等到本地模型的并发后发起一次流式请求，增量原样交给 stream 并计入 {@link TokenGovernor}；
+     * 取消时中断正在读取的响应，排队中的请求出队后直接归还名额
+     */
+    public static ChatProvider.Call stream(LlmCallContext context, String apiKey, ChatRequest chatRequest,
+                                           ChatProvider.ChatStream stream) {
+        TokenGovernor.Metered metered = TokenGovernor.meter(RESOURCE, context, chatRequest, stream);
+        return metered.wrap(send(context, apiKey, chatRequest, metered));
+    }
+
+    private static ChatProvider.Call send(LlmCallContext context, String apiKey, ChatRequest chatRequest,
+                                          TokenGovernor.Metered stream) {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicReference<Call> inFlight = new AtomicReference<>();
+        LlmScheduler.of(AdaptiveLimiter.of(RESOURCE, apiKey)).submit(context,
+                TokenCounter.count(chatRequest), slot -> {
+            AdaptiveLimiter.Lease lease = slot.lease();
+            if (cancelled.get()) {
+                slot.release();
+                return;
+            }
             chatRequest.setStream(true);
             chatRequest.setThink(false);
             log.info("chatRequest: " + JSONUtil.toJsonStr(chatRequest));
-            RequestBody body = RequestBody.create(MediaType.parse("application/json; charset=utf-8"),
-                    JSONUtil.toJsonStr(chatRequest));
+            RequestBody body = RequestBody.create(JSONUtil.toJsonStr(chatRequest),
+                    MediaType.parse("application/json; charset=utf-8"));
             Request request = new Request
                     .Builder()
                     .header("Authorization", "Bearer " + apiKey)
@@ -38,63 +112,84 @@ public class OllamaClient {
                     .url(dpUrl)
                     .post(body)
                     .build();
-            OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                    .connectTimeout(2, TimeUnit.MINUTES)
-                    .readTimeout(2, TimeUnit.MINUTES)
-                    .build();
-            
-            try (Response response = okHttpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    bigmodelResponseListener.accept("抱歉似乎我的核心模块出现了异常，请稍后再试试和我聊天");
-                    return;
+            OkHttpClient okHttpClient = HttpTransport.client(dpUrl);
+            Call call = okHttpClient.newCall(request);
+            inFlight.set(call);
+            if (cancelled.get()) {
+                slot.release();
+                return;
+            }
+            // 异步发起，读响应的是 OkHttp 的调度线程，不占阻塞执行器的线程
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    slot.release(stream.completionTokens());
+                    // 主动取消不算上游故障
+                    if (cancelled.get()) {
+                        return;
+                    }
+                    lease.onFailure();
+                    log.error("ollama request failed", e);
+                    stream.onError(e);
                 }
 
-                String message2Send = "";
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8))) {
-                    
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (line.trim().isEmpty()) {
-                            continue;
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    try (response) {
+                        lease.onResponse(response.code());
+                        if (!response.isSuccessful()) {
+                            stream.onError(new IOException("ollama responded " + response.code()));
+                            return;
                         }
-                        
-                        log.info("NDJSON line: " + line);
-                        OllamaResponse ollamaResponse = JSONUtil.toBean(line, OllamaResponse.class);
-                        
-                        // 结束返回，不用解析
-                        if (ollamaResponse.isDone()) {
-                            break;
-                        }
-                        
-                        String content = ollamaResponse.getMessage().getContent();
-                        System.out.println("content: " + content);
-                        
-                        if (!StringUtil.isNullOrEmpty(content)) {
-                            message2Send = message2Send + content;
-                            if (message2Send.contains("\n")) {
-                                String[] split = message2Send.trim().split("\\n");
-                                message2Send = message2Send.trim().substring(split[0].length());
-                                if (split[0].contains("我无法给到")) {
-                                    return;
-                                }
-                                dsExecutor.execute(() -> bigmodelResponseListener.accept(split[0]));
-                            }
+                        readStream(response, stream);
+                        stream.onComplete();
+                    } catch (IOException e) {
+                        if (cancelled.get()) {
+                            return;
                         }
+                        lease.onFailure();
+                        log.error("Error processing NDJSON stream", e);
+                        stream.onError(e);
+                    } finally {
+                        slot.release(stream.completionTokens());
                     }
                 }
-                
-                // 发送剩余的消息
-                if (!message2Send.trim().isEmpty()) {
-                    bigmodelResponseListener.accept(message2Send.trim());
+            });
+        }, reason -> {
+            if (!cancelled.get()) {
+                stream.onRejected(reason);
+            }
+        });
+        return () -> {
+            if (cancelled.compareAndSet(false, true)) {
+                Call call = inFlight.get();
+                if (call != null) {
+                    call.cancel();
                 }
+            }
+        };
+    }
 
-                
-            } catch (IOException e) {
-                log.error("Error processing NDJSON stream", e);
-                bigmodelResponseListener.accept("抱歉似乎我的核心模块出现了异常，请稍后再试试和我聊天");
+    private static void readStream(Response response, ChatProvider.ChatStream stream) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                log.debug("NDJSON line: {}", line);
+                ChatDeltaParser.Delta delta = ChatDeltaParser.parseOllamaLine(line);
+                // 结束返回，不用解析
+                if (delta.done()) {
+                    break;
+                }
+                String content = delta.content();
+                if (!StringUtil.isNullOrEmpty(content)) {
+                    stream.onContent(content);
+                }
             }
-        });
+        }
     }
 
 }
\ No newline at end of file
@@ -1,20 +1,24 @@
 package org.nekotori.openai;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.*;
 import okio.BufferedSource;
+import org.nekotori.resource.HttpTransport;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class OpenAIClient {
+
+    private static final String RESOURCE = "openai";
     
     private final OkHttpClient client;
     private final String apiKey;
@@ -27,11 +31,7 @@ public class OpenAIClient {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this.client = HttpTransport.client(baseUrl, Duration.ofSeconds(60));
     }
     
     // 图片转base64函数
@@ -47,8 +47,9 @@ public class OpenAIClient {
         void onError(Throwable error);
     }
     
-    // 提交信息至GPT-4o（流式响应）
-    public void streamChatCompletion(String model, 
+    // 提交信息至GPT-4o（流式响应），用量和额度按 context 的群和用户计
+    public void streamChatCompletion(LlmCallContext context,
+                                    String model, 
                                     String systemMessage, 
                                     String userText, 
                                     String imagePath, 
@@ -86,56 +87,179 @@ public class OpenAIClient {
                     .post(RequestBody.create(requestBody, MediaType.parse("application/json")))
                     .build();
             
-            // 执行请求并处理流式响应
-            client.newCall(httpRequest).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    handler.onError(e);
+            if (TokenGovernor.admit(context) == TokenGovernor.Level.REFUSE) {
+                handler.onError(new IOException("openai call rejected: " + LlmScheduler.RejectReason.BUDGET));
+                return;
+            }
+            // 经调度器排队，不在调用线程上等待；排不上时报错
+            int promptTokens = TokenCounter.count(model, systemMessage) + TokenCounter.count(model, userText);
+            LlmScheduler.of(AdaptiveLimiter.of(RESOURCE, apiKey)).submit(context, promptTokens,
+                    slot -> execute(context, httpRequest, model, promptTokens, slot, handler),
+                    reason -> handler.onError(new IOException("openai call rejected: " + reason)));
+            
+        } catch (Exception e) {
+            handler.onError(e);
+        }
+    }
+    
+    private void execute(LlmCallContext context, Request httpRequest, String model, int promptTokens,
+                         LlmScheduler.Slot slot, StreamResponseHandler handler) {
+        AdaptiveLimiter.Lease lease = slot.lease();
+        // 执行请求并处理流式响应
+        client.newCall(httpRequest).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                lease.onFailure();
+                slot.release();
+                handler.onError(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                lease.onResponse(response.code());
+                if (!response.isSuccessful()) {
+                    slot.release();
+                    handler.onError(new IOException("Unexpected code: " + response));
+                    return;
                 }
-                
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    if (!response.isSuccessful()) {
-                        handler.onError(new IOException("Unexpected code: " + response));
-                        return;
-                    }
-                    
-                    StringBuilder fullReply = new StringBuilder();
-                    try (ResponseBody responseBody = response.body()) {
-                        if (responseBody != null) {
-                            BufferedSource source = responseBody.source();
-                            while (!source.exhausted()) {
-                                String line = source.readUtf8Line();
-                                if (line != null && line.startsWith("data: ")) {
-                                    String data = line.substring(6);
-                                    if (data.equals("[DONE]")) {
-                                        break;
-                                    }
-                                    
-                                    try {
-                                        ChatResponse chunk = objectMapper.readValue(data, ChatResponse.class);
-                                        if (chunk != null && chunk.choices != null && !chunk.choices.isEmpty()) {
-                                            ChatResponse.Choice choice = chunk.choices.get(0);
-                                            if (choice.delta != null && choice.delta.content != null) {
-                                                handler.onContent(choice.delta.content);
-                                                fullReply.append(choice.delta.content);
-                                            }
-                                        }
-                                    } catch (JsonProcessingException e) {
-                                        // 忽略解析错误，继续处理下一个数据块
+
+                StringBuilder fullReply = new StringBuilder();
+                int completionTokens;
+                try (ResponseBody responseBody = response.body()) {
+                    if (responseBody != null) {
+                        BufferedSource source = responseBody.source();
+                        while (!source.exhausted()) {
+                            String line = source.readUtf8Line();
+                            if (line != null && line.startsWith("data: ")) {
+                                String data = line.substring(6);
+                                if (data.equals("[DONE]")) {
+                                    break;
+                                }
+
+                                try {
+                                    String content = ChatDeltaParser.parseChatChunk(data).content();
+                                    if (content != null) {
+                                        handler.onContent(content);
+                                        fullReply.append(content);
                                     }
+                                } catch (IOException e) {
+                                    // 忽略解析错误，继续处理下一个数据块
                                 }
                             }
                         }
                     }
-                    
-                    handler.onComplete(fullReply.toString());
+                } finally {
+                    completionTokens = TokenCounter.count(model, fullReply);
+                    slot.release(completionTokens);
                 }
-            });
-            
-        } catch (Exception e) {
-            handler.onError(e);
+
+                // 图片不计入提示词 token
+                TokenGovernor.record(RESOURCE, context, promptTokens, completionTokens);
+                handler.onComplete(fullReply.toString());
+            }
+        });
+    }
+    
+    /**
+     * 以纯文本消息发起流式请求，供 {@link LlmRouter} 作为提供方使用，用量计入 {@link TokenGovernor}
+     */
+    public ChatProvider.Call stream(LlmCallContext context, org.nekotori.openai.ChatRequest chatRequest,
+                                    ChatProvider.ChatStream stream) {
+        TokenGovernor.Metered metered = TokenGovernor.meter(RESOURCE, context, chatRequest, stream);
+        return metered.wrap(send(context, chatRequest, metered));
+    }
+
+    private ChatProvider.Call send(LlmCallContext context, org.nekotori.openai.ChatRequest chatRequest,
+                                   TokenGovernor.Metered stream) {
+        String requestBody;
+        try {
+            requestBody = objectMapper.writeValueAsString(
+                    new ChatRequest(chatRequest.getModel(), new ArrayList<>(chatRequest.getMessages()), true));
+        } catch (IOException e) {
+            stream.onError(e);
+            return () -> {};
         }
+        Request httpRequest = new Request.Builder()
+                .url(baseUrl + "/chat/completions")
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .post(RequestBody.create(requestBody, MediaType.parse("application/json")))
+                .build();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicReference<Call> inFlight = new AtomicReference<>();
+        LlmScheduler.of(AdaptiveLimiter.of(RESOURCE, apiKey)).submit(context, TokenCounter.count(chatRequest), slot -> {
+            Call call = client.newCall(httpRequest);
+            inFlight.set(call);
+            // 排队期间已经取消
+            if (cancelled.get()) {
+                slot.release();
+                return;
+            }
+            enqueue(call, slot, stream);
+        }, reason -> {
+            if (!cancelled.get()) {
+                stream.onRejected(reason);
+            }
+        });
+        return () -> {
+            if (cancelled.compareAndSet(false, true)) {
+                Call call = inFlight.get();
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        };
+    }
+    
+    private void enqueue(Call call, LlmScheduler.Slot slot, TokenGovernor.Metered stream) {
+        AdaptiveLimiter.Lease lease = slot.lease();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // 主动取消不算上游故障
+                if (!call.isCanceled()) {
+                    lease.onFailure();
+                }
+                slot.release(stream.completionTokens());
+                if (!call.isCanceled()) {
+                    stream.onError(e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                lease.onResponse(response.code());
+                try (ResponseBody responseBody = response.body()) {
+                    if (!response.isSuccessful() || responseBody == null) {
+                        stream.onError(new IOException("Unexpected code: " + response));
+                        return;
+                    }
+                    BufferedSource source = responseBody.source();
+                    while (!source.exhausted()) {
+                        String line = source.readUtf8Line();
+                        if (line == null || !line.startsWith("data: ")) {
+                            continue;
+                        }
+                        String data = line.substring(6);
+                        if (data.equals("[DONE]")) {
+                            break;
+                        }
+                        String content = ChatDeltaParser.parseChatChunk(data).content();
+                        if (content != null && !content.isEmpty()) {
+                            stream.onContent(content);
+                        }
+                    }
+                    stream.onComplete();
+                } catch (IOException e) {
+                    if (!call.isCanceled()) {
+                        stream.onError(e);
+                    }
+                } finally {
+                    slot.release(stream.completionTokens());
+                }
+            }
+        });
     }
     
     // 数据模型类
@@ -14,6 +14,7 @@ public class OpenAIClientExample {
         
         // 发起流式请求
         client.streamChatCompletion(
+            new LlmCallContext(null, 0, LlmCallContext.Priority.COMMAND, "example"),  // 用量归属
             "gemini-2.5-pro",  // 选择模型
             "You are a helpful assistant.",  // 系统消息
             userText,  // 用户文本
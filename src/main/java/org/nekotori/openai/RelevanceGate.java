@@ -0,0 +1,340 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 群聊插话前的本地相关性打分，代替盲目的随机触发。
+ * 特征是去掉 CQ 码后文本的字符 1~3 元组（哈希到定长权重表），再加上长度、问句、关键词、CQ 类型、群活跃度等稠密特征，
+ * 逻辑回归给出 0~1 的分数，一条消息只需几微秒。
+ * 分数不低于 minScore、排进本群最近 window 条消息的前 topFraction，并且本群的每小时额度还有剩余时才放行调用大模型。
+ * 权重由 {@link RelevanceTrainer} 从 chat_history 离线训练后写入 modelPath，文件不存在时只用内置的稠密特征权重。
+ */
+@Slf4j
+public class RelevanceGate {
+
+    private static final int MAGIC = 0x52454C31;
+
+    static final int BUCKETS = 1 << 16;
+
+    private static final int DENSE = 16;
+
+    private static final int QUESTION = 0;
+
+    private static final int KEYWORD = 1;
+
+    private static final int TINY = 2;
+
+    private static final int SHORT = 3;
+
+    private static final int MEDIUM = 4;
+
+    private static final int LONG = 5;
+
+    private static final int ONLY_CQ = 6;
+
+    private static final int IMAGE = 7;
+
+    private static final int AT = 8;
+
+    private static final int QUIET = 9;
+
+    private static final int BUSY = 10;
+
+    private static final int URL = 11;
+
+    private static final int COMMAND = 12;
+
+    private static final Pattern CQ = Pattern.compile("\\[CQ:([a-z]+)[^\\]]*]");
+
+    static final Pattern AT_TARGET = Pattern.compile("\\[CQ:at,qq=(\\d+)");
+
+    static final long ACTIVITY_WINDOW_MILLIS = 60_000;
+
+    // 本群打过分的消息太少时只看 minScore
+    private static final int MIN_HISTORY = 20;
+
+    private static final Map<Long, GroupState> groups = new ConcurrentHashMap<>();
+
+    private static final LongAdder scored = new LongAdder();
+
+    private static final LongAdder admitted = new LongAdder();
+
+    private static final LongAdder belowThreshold = new LongAdder();
+
+    private static final LongAdder budgetExhausted = new LongAdder();
+
+    private static final LongAdder scoreNanos = new LongAdder();
+
+    private static volatile FileBasedBotConfiguration.Relevance config = new FileBasedBotConfiguration.Relevance();
+
+    private static volatile Model model = Model.heuristic();
+
+    private RelevanceGate() {
+    }
+
+    public static void configure(FileBasedBotConfiguration.Llm llm) {
+        config = Optional.ofNullable(llm).map(FileBasedBotConfiguration.Llm::getRelevance)
+                .orElseGet(FileBasedBotConfiguration.Relevance::new);
+        model = Model.load(Paths.get(config.getModelPath()));
+        groups.clear();
+    }
+
+    /**
+     * 每条群消息都调用一次，记录活跃度并打分，返回这条消息是否值得让大模型回应
+     */
+    public static boolean admit(long groupId, String rawMessage) {
+        long start = System.nanoTime();
+        FileBasedBotConfiguration.Relevance settings = config;
+        long now = System.currentTimeMillis();
+        GroupState state = groups.computeIfAbsent(groupId, k -> new GroupState(Math.max(1, settings.getWindow())));
+        boolean pass = false;
+        double score;
+        state.lock.lock();
+        try {
+            int activity = state.observe(now);
+            score = score(model, rawMessage, activity, settings.getKeywords());
+            boolean top = state.isTop(score, settings.getTopFraction());
+            state.record(score);
+            if (score < settings.getMinScore() || !top) {
+                belowThreshold.increment();
+            } else if (!state.take(now, settings.getCallsPerHour(), settings.getBurst())) {
+                budgetExhausted.increment();
+            } else {
+                admitted.increment();
+                pass = true;
+            }
+        } finally {
+            state.lock.unlock();
+            scored.increment();
+            scoreNanos.add(System.nanoTime() - start);
+        }
+        log.debug("relevance group {} score {} -> {}", groupId, String.format("%.3f", score), pass);
+        return pass;
+    }
+
+    public static Stats stats() {
+        return new Stats(scored.sum(), admitted.sum(), belowThreshold.sum(), budgetExhausted.sum(), scoreNanos.sum());
+    }
+
+    static double score(Model model, String rawMessage, int activity, List<String> keywords) {
+        float[] z = {model.bias};
+        features(rawMessage, activity, keywords, index -> z[0] += model.weights[index]);
+        return 1 / (1 + Math.exp(-z[0]));
+    }
+
+    static void features(String rawMessage, int activity, List<String> keywords, IntConsumer out) {
+        String raw = rawMessage == null ? "" : rawMessage;
+        StringBuilder plain = new StringBuilder(raw.length());
+        Matcher matcher = CQ.matcher(raw);
+        int last = 0;
+        while (matcher.find()) {
+            plain.append(raw, last, matcher.start()).append(' ');
+            last = matcher.end();
+            String type = matcher.group(1);
+            out.accept(hashed("cq:" + type));
+            if ("image".equals(type)) {
+                out.accept(IMAGE);
+            } else if ("at".equals(type)) {
+                out.accept(AT);
+            }
+        }
+        plain.append(raw, last, raw.length());
+        String text = plain.toString().trim().toLowerCase(Locale.ROOT);
+        int length = text.length();
+        if (length == 0) {
+            out.accept(ONLY_CQ);
+        } else {
+            out.accept(length <= 2 ? TINY : length <= 10 ? SHORT : length <= 40 ? MEDIUM : LONG);
+        }
+        if (text.indexOf('?') >= 0 || text.indexOf('？') >= 0 || text.endsWith("吗") || text.endsWith("呢")
+                || text.endsWith("么") || text.endsWith("嘛")) {
+            out.accept(QUESTION);
+        }
+        for (String keyword : keywords) {
+            if (text.contains(keyword.toLowerCase(Locale.ROOT))) {
+                out.accept(KEYWORD);
+                break;
+            }
+        }
+        if (text.contains("http")) {
+            out.accept(URL);
+        }
+        if (text.startsWith("-")) {
+            out.accept(COMMAND);
+        }
+        if (activity <= 2) {
+            out.accept(QUIET);
+        } else if (activity > 10) {
+            out.accept(BUSY);
+        }
+        // 字符 1~3 元组，FNV-1a 哈希，每种长度用不同的初值
+        for (int i = 0; i < length; i++) {
+            for (int n = 1; n <= 3 && i + n <= length; n++) {
+                int hash = 0x811C9DC5 ^ n;
+                for (int j = i; j < i + n; j++) {
+                    hash = (hash ^ text.charAt(j)) * 16777619;
+                }
+                out.accept(DENSE + Math.floorMod(hash, BUCKETS - DENSE));
+            }
+        }
+    }
+
+    private static int hashed(String token) {
+        return DENSE + Math.floorMod(token.hashCode() * 0x9E3779B9, BUCKETS - DENSE);
+    }
+
+    private static final class GroupState {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Deque<Long> recent = new ArrayDeque<>();
+
+        private final double[] scores;
+
+        private int filled;
+
+        private int next;
+
+        private double tokens = -1;
+
+        private long refilledAt;
+
+        private GroupState(int window) {
+            this.scores = new double[window];
+        }
+
+        // 返回这条消息之前一分钟内的消息数
+        private int observe(long now) {
+            while (!recent.isEmpty() && now - recent.peekFirst() > ACTIVITY_WINDOW_MILLIS) {
+                recent.pollFirst();
+            }
+            int activity = recent.size();
+            recent.addLast(now);
+            return activity;
+        }
+
+        private boolean isTop(double score, double fraction) {
+            if (filled < MIN_HISTORY) {
+                return true;
+            }
+            int higher = 0;
+            for (int i = 0; i < filled; i++) {
+                if (scores[i] > score) {
+                    higher++;
+                }
+            }
+            return higher < fraction * filled;
+        }
+
+        private void record(double score) {
+            scores[next] = score;
+            next = (next + 1) % scores.length;
+            filled = Math.min(filled + 1, scores.length);
+        }
+
+        private boolean take(long now, double perHour, int burst) {
+            int capacity = Math.max(1, burst);
+            if (tokens < 0) {
+                tokens = capacity;
+            } else {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * perHour / 3_600_000d);
+            }
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+
+    record Model(float bias, float[] weights) {
+
+        // 没有训练权重时的经验值：提到关键词、问句、中等长度、群里不太热闹时更值得回应
+        private static Model heuristic() {
+            float[] weights = new float[BUCKETS];
+            weights[QUESTION] = 1.5f;
+            weights[KEYWORD] = 4f;
+            weights[TINY] = -1.5f;
+            weights[MEDIUM] = 0.5f;
+            weights[ONLY_CQ] = -2f;
+            weights[IMAGE] = -0.5f;
+            weights[AT] = -1f;
+            weights[QUIET] = 0.5f;
+            weights[BUSY] = -0.5f;
+            weights[URL] = -0.5f;
+            weights[COMMAND] = -4f;
+            return new Model(-2.5f, weights);
+        }
+
+        private static Model load(Path file) {
+            if (!Files.isRegularFile(file)) {
+                log.info("relevance model {} not found, using built-in weights", file);
+                return heuristic();
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != BUCKETS) {
+                    log.warn("relevance model {} has an unknown format, using built-in weights", file);
+                    return heuristic();
+                }
+                float bias = in.readFloat();
+                float[] weights = new float[BUCKETS];
+                for (int i = 0; i < BUCKETS; i++) {
+                    weights[i] = in.readFloat();
+                }
+                log.info("relevance model loaded from {}", file);
+                return new Model(bias, weights);
+            } catch (IOException e) {
+                log.error("relevance model {} load failed, using built-in weights", file, e);
+                return heuristic();
+            }
+        }
+
+        void save(Path file) throws IOException {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(BUCKETS);
+                out.writeFloat(bias);
+                for (float weight : weights) {
+                    out.writeFloat(weight);
+                }
+            }
+        }
+    }
+
+    public record Stats(long scored, long admitted, long belowThreshold, long budgetExhausted, long scoreNanos) {
+
+        @Override
+        public String toString() {
+            // randomBaseline 是原来按 5% 随机插话时会发起的调用数，用来看省下了多少
+            return String.format("scored=%d admitted=%d belowThreshold=%d budgetExhausted=%d randomBaseline=%d avg=%.1fus",
+                    scored, admitted, belowThreshold, budgetExhausted, Math.round(scored * 0.05),
+                    scored == 0 ? 0 : scoreNanos / 1000.0 / scored);
+        }
+    }
+}
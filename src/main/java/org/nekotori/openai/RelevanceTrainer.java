@@ -0,0 +1,159 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.persistence.sqlite.GroupChatHistoryPersistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+/**
+ * 从 chat_history 离线训练 {@link RelevanceGate} 的权重。
+ * 弱标注：一条消息发出后两分钟内被其他群友 @ 了作者（QQ 的回复也会带上 @），就算值得回应。
+ * 参数依次是配置文件（默认 bot/config.yaml）和输出路径（默认配置里的 modelPath），关键词等特征和线上用同一份配置。
+ */
+@Slf4j
+public class RelevanceTrainer {
+
+    private static final long RESPONSE_WINDOW_MILLIS = 120_000;
+
+    private RelevanceTrainer() {
+    }
+
+    private static final class Example {
+
+        private final String text;
+
+        private final long userId;
+
+        private final long time;
+
+        private final int activity;
+
+        private boolean positive;
+
+        private Example(String text, long userId, long time, int activity) {
+            this.text = text;
+            this.userId = userId;
+            this.time = time;
+            this.activity = activity;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File configFile = new File(args.length > 0 ? args[0] : FileBasedBotConfiguration.DEFAULT_CONFIG_LOCATION);
+        FileBasedBotConfiguration.Relevance settings = Optional
+                .ofNullable(FileBasedBotConfiguration.resolveFile(configFile).getLlm())
+                .map(FileBasedBotConfiguration.Llm::getRelevance)
+                .orElseGet(FileBasedBotConfiguration.Relevance::new);
+        train(settings, Paths.get(args.length > 1 ? args[1] : settings.getModelPath()));
+    }
+
+    static void train(FileBasedBotConfiguration.Relevance settings, Path out) throws IOException {
+        List<Example> examples = new ArrayList<>();
+        Deque<Example> pending = new ArrayDeque<>();
+        Deque<Long> activityWindow = new ArrayDeque<>();
+        long[] currentGroup = {Long.MIN_VALUE};
+        new GroupChatHistoryPersistence().scanAll(entity -> {
+            if (entity.getGroupId() != currentGroup[0]) {
+                currentGroup[0] = entity.getGroupId();
+                pending.clear();
+                activityWindow.clear();
+            }
+            long time = entity.getTime();
+            while (!pending.isEmpty() && time - pending.peekFirst().time > RESPONSE_WINDOW_MILLIS) {
+                pending.pollFirst();
+            }
+            while (!activityWindow.isEmpty()
+                    && time - activityWindow.peekFirst() > RelevanceGate.ACTIVITY_WINDOW_MILLIS) {
+                activityWindow.pollFirst();
+            }
+            String message = entity.getMessage() == null ? "" : entity.getMessage();
+            Matcher at = RelevanceGate.AT_TARGET.matcher(message);
+            while (at.find()) {
+                long target = Long.parseLong(at.group(1));
+                if (target == entity.getUserId()) {
+                    continue;
+                }
+                Iterator<Example> latest = pending.descendingIterator();
+                while (latest.hasNext()) {
+                    Example candidate = latest.next();
+                    if (candidate.userId == target) {
+                        candidate.positive = true;
+                        break;
+                    }
+                }
+            }
+            Example example = new Example(message, entity.getUserId(), time, activityWindow.size());
+            activityWindow.addLast(time);
+            pending.addLast(example);
+            examples.add(example);
+        });
+        long positives = examples.stream().filter(example -> example.positive).count();
+        log.info("{} messages, {} positive", examples.size(), positives);
+        if (positives == 0 || positives == examples.size()) {
+            log.warn("not enough labelled data, model not written");
+            return;
+        }
+        Collections.shuffle(examples, new Random(7));
+        int holdout = examples.size() / 10;
+        List<Example> test = examples.subList(0, holdout);
+        List<Example> train = examples.subList(holdout, examples.size());
+        // 正例很少，按比例加权，分数 0.5 附近对应两类均衡
+        float positiveWeight = (float) (examples.size() - positives) / positives;
+        float[] bias = {0};
+        float[] weights = new float[RelevanceGate.BUCKETS];
+        float learningRate = 0.05f;
+        float l2 = 1e-6f;
+        for (int epoch = 0; epoch < 5; epoch++) {
+            Collections.shuffle(train, new Random(epoch));
+            for (Example example : train) {
+                double p = RelevanceGate.score(new RelevanceGate.Model(bias[0], weights), example.text,
+                        example.activity, settings.getKeywords());
+                float gradient = (float) (p - (example.positive ? 1 : 0)) * (example.positive ? positiveWeight : 1);
+                bias[0] -= learningRate * gradient;
+                RelevanceGate.features(example.text, example.activity, settings.getKeywords(),
+                        index -> weights[index] -= learningRate * (gradient + l2 * weights[index]));
+            }
+            log.info("epoch {} holdout auc {}", epoch,
+                    String.format("%.4f", auc(new RelevanceGate.Model(bias[0], weights), test, settings)));
+        }
+        new RelevanceGate.Model(bias[0], weights).save(out);
+        log.info("model written to {}", out);
+    }
+
+    private static double auc(RelevanceGate.Model model, List<Example> examples,
+                              FileBasedBotConfiguration.Relevance settings) {
+        List<double[]> scoredExamples = new ArrayList<>(examples.size());
+        for (Example example : examples) {
+            scoredExamples.add(new double[]{
+                    RelevanceGate.score(model, example.text, example.activity, settings.getKeywords()),
+                    example.positive ? 1 : 0});
+        }
+        scoredExamples.sort((a, b) -> Double.compare(a[0], b[0]));
+        double rankSum = 0;
+        long positives = 0;
+        for (int i = 0; i < scoredExamples.size(); i++) {
+            if (scoredExamples.get(i)[1] == 1) {
+                rankSum += i + 1;
+                positives++;
+            }
+        }
+        long negatives = scoredExamples.size() - positives;
+        if (positives == 0 || negatives == 0) {
+            return Double.NaN;
+        }
+        return (rankSum - positives * (positives + 1) / 2.0) / positives / negatives;
+    }
+}
@@ -0,0 +1,86 @@
+package org.nekotori.openai;
+
+import java.util.function.Consumer;
+
+/**
+ * 流式输出的分段器。
+ * 增量追加到同一个 StringBuilder，只扫描新追加的字符，遇到边界立即把完整的一行或一句交给下游，
+ * 每次追加最多整理一次缓冲区；close 时补发末尾不完整的部分。按调用顺序发射，单个流内使用，非线程安全。
+ */
+public class StreamSegmenter {
+
+    public enum Boundary {
+        // 按换行分段
+        LINE,
+        // 按换行和中英文句末标点分段
+        SENTENCE
+    }
+
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    private final Boundary boundary;
+
+    private final Consumer<String> sink;
+
+    private boolean closed;
+
+    public StreamSegmenter(Boundary boundary, Consumer<String> sink) {
+        this.boundary = boundary;
+        this.sink = sink;
+    }
+
+    public static StreamSegmenter lines(Consumer<String> sink) {
+        return new StreamSegmenter(Boundary.LINE, sink);
+    }
+
+    public void append(CharSequence delta) {
+        if (closed || delta == null || delta.length() == 0) {
+            return;
+        }
+        int scanFrom = buffer.length();
+        buffer.append(delta);
+        int start = 0;
+        for (int i = scanFrom; i < buffer.length(); i++) {
+            if (isBoundary(buffer.charAt(i))) {
+                emit(start, i + 1);
+                start = i + 1;
+            }
+        }
+        if (start > 0) {
+            buffer.delete(0, start);
+        }
+    }
+
+    /**
+     * 发出末尾剩余的内容，之后的追加被忽略
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        emit(0, buffer.length());
+        buffer.setLength(0);
+    }
+
+    private boolean isBoundary(char c) {
+        if (c == '\n') {
+            return true;
+        }
+        return boundary == Boundary.SENTENCE
+                && (c == '。' || c == '！' || c == '？' || c == '!' || c == '?' || c == '；');
+    }
+
+    // 去掉首尾空白，空段不发
+    private void emit(int from, int to) {
+        while (from < to && Character.isWhitespace(buffer.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(buffer.charAt(to - 1))) {
+            to--;
+        }
+        if (from < to) {
+            sink.accept(buffer.substring(from, to));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地计算 ChatRequest 的 token 数，不走网络。
+ * 按模型找到 tokenizerDir 下的 &lt;encoding&gt;.tiktoken 词表，首次使用时加载一次；
+ * 词表缺失时退回按字符粗估（ASCII 约四个字符一个 token，其余字符各算一个）。
+ */
+@Slf4j
+public class TokenCounter {
+
+    // chat 格式每条消息的角色和分隔符开销，以及回复开头的固定开销
+    public static final int MESSAGE_OVERHEAD = 3;
+
+    public static final int REPLY_OVERHEAD = 3;
+
+    private static final Map<String, Optional<BpeEncoding>> encodings = new ConcurrentHashMap<>();
+
+    private static volatile FileBasedBotConfiguration.Tokens config = new FileBasedBotConfiguration.Tokens();
+
+    private TokenCounter() {
+    }
+
+    public static void configure(FileBasedBotConfiguration.Llm llm) {
+        config = Optional.ofNullable(llm).map(FileBasedBotConfiguration.Llm::getTokens)
+                .orElseGet(FileBasedBotConfiguration.Tokens::new);
+        encodings.clear();
+        // 默认词表启动时就加载，避免第一条消息付加载的时间
+        encoding(config.getDefaultEncoding());
+    }
+
+    public static int count(ChatRequest request) {
+        int count = REPLY_OVERHEAD;
+        for (ChatMessage message : request.getMessages()) {
+            count += count(request.getModel(), message);
+        }
+        return count;
+    }
+
+    public static int count(String model, ChatMessage message) {
+        return MESSAGE_OVERHEAD + count(model, message.getContent());
+    }
+
+    public static int count(String model, CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        Optional<BpeEncoding> encoding = encoding(encodingOf(model));
+        return encoding.isPresent() ? encoding.get().count(text) : estimate(text);
+    }
+
+    /**
+     * 没有词表时的粗估
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        double count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            count += text.charAt(i) < 128 ? 0.25 : 1;
+        }
+        return (int) Math.ceil(count);
+    }
+
+    /**
+     * 模型一次请求可用于提示词的 token：上下文窗口减去给回复预留的部分，再受 maxPromptTokens 限制
+     */
+    public static int promptBudget(String model) {
+        FileBasedBotConfiguration.Tokens tokens = config;
+        int budget = tokens.getContextTokens().getOrDefault(model, tokens.getDefaultContextTokens())
+                - tokens.getReservedOutputTokens() - REPLY_OVERHEAD;
+        if (tokens.getMaxPromptTokens() > 0) {
+            budget = Math.min(budget, tokens.getMaxPromptTokens());
+        }
+        return Math.max(budget, 0);
+    }
+
+    private static String encodingOf(String model) {
+        FileBasedBotConfiguration.Tokens tokens = config;
+        return model == null ? tokens.getDefaultEncoding()
+                : tokens.getEncodings().getOrDefault(model, tokens.getDefaultEncoding());
+    }
+
+    private static Optional<BpeEncoding> encoding(String name) {
+        return encodings.computeIfAbsent(name, TokenCounter::load);
+    }
+
+    private static Optional<BpeEncoding> load(String name) {
+        Path file = Paths.get(config.getTokenizerDir(), name + ".tiktoken");
+        if (!Files.isRegularFile(file)) {
+            log.warn("tokenizer {} not found at {}, falling back to character estimate", name, file);
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        try {
+            BpeEncoding encoding = BpeEncoding.load(name, file);
+            log.info("tokenizer {} loaded, {} tokens in {} ms", name, encoding.vocabularySize(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return Optional.of(encoding);
+        } catch (IOException | RuntimeException e) {
+            log.error("tokenizer {} load failed, falling back to character estimate", name, e);
+            return Optional.empty();
+        }
+    }
+}
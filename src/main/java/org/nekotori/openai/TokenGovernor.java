@@ -0,0 +1,577 @@
+package org.nekotori.openai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.nekotori.persistence.sqlite.TokenUsageEntity;
+import org.nekotori.persistence.sqlite.TokenUsagePersistence;
+import org.nekotori.util.BlockingExecution;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按群和用户统计大模型 token 用量，并在接近额度时逐级降级。
+ * 经过各提供方的每次调用结束后本地计算提示词和回复的 token 数，按提供方权重折算成计费量，
+ * 记进分段加锁的内存计数：最近 24 小时按小时、最近 30 天按天滚动。增量定期累加进 SQLite，启动时读回。
+ * 用量占额度的比例越高，依次缩短上下文、只用本地模型、直接拒绝。
+ */
+@Slf4j
+public class TokenGovernor {
+
+    private static final int STRIPES = 16;
+
+    private static final int HOURS = 24;
+
+    private static final int DAYS = 30;
+
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    private static final String GROUP = "group";
+
+    private static final String USER = "user";
+
+    private static final String ALL = "all";
+
+    public enum Level {
+        NORMAL("正常"),
+        // 提示词限制在 shortContextTokens 以内
+        SHORT_CONTEXT("缩短上下文"),
+        // 只路由到本地模型
+        LOCAL_ONLY("只用本地模型"),
+        // 不再发起调用
+        REFUSE("额度已用完");
+
+        private final String label;
+
+        Level(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stripe[] stripes = new Stripe[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static volatile FileBasedBotConfiguration.Budget config = new FileBasedBotConfiguration.Budget();
+
+    private static volatile TokenUsagePersistence persistence;
+
+    private static volatile Disposable flusher;
+
+    private static final AtomicBoolean shutdownHooked = new AtomicBoolean(false);
+
+    private static final ReentrantLock flushLock = new ReentrantLock();
+
+    private static final LongAdder calls = new LongAdder();
+
+    private static final LongAdder promptTokens = new LongAdder();
+
+    private static final LongAdder completionTokens = new LongAdder();
+
+    private static final LongAdder shortened = new LongAdder();
+
+    private static final LongAdder localOnly = new LongAdder();
+
+    private static final LongAdder refused = new LongAdder();
+
+    private static final LongAdder flushFailures = new LongAdder();
+
+    private TokenGovernor() {
+    }
+
+    /**
+     * 读回最近 30 天的用量并开始定期刷盘
+     */
+    public static void configure(FileBasedBotConfiguration.Llm llm) {
+        config = Optional.ofNullable(llm).map(FileBasedBotConfiguration.Llm::getBudget)
+                .orElseGet(FileBasedBotConfiguration.Budget::new);
+        TokenUsagePersistence target = new TokenUsagePersistence();
+        List<TokenUsageEntity> rows = target.loadSince(currentHour() - (long) DAYS * HOURS);
+        for (TokenUsageEntity row : rows) {
+            Key key = new Key(row.getScope(), row.getId());
+            Stripe stripe = stripe(key);
+            stripe.lock.lock();
+            try {
+                stripe.counters.computeIfAbsent(key, k -> new Counter())
+                        .add(row.getHour(), row.getPromptTokens(), row.getCompletionTokens(), row.getCost());
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        persistence = target;
+        if (flusher != null) {
+            flusher.dispose();
+        }
+        flusher = Flux.interval(Duration.ofSeconds(Math.max(1, config.getFlushIntervalSeconds())))
+                .subscribe(tick -> BlockingExecution.execute(TokenGovernor::flush));
+        // 重新加载配置时不再重复注册
+        if (shutdownHooked.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(TokenGovernor::flush, "token-usage-flush"));
+        }
+        log.info("token governor loaded {} usage rows", rows.size());
+    }
+
+    /**
+     * 只替换额度配置，不读回也不刷写用量，供测试和基准使用
+     */
+    static void configure(FileBasedBotConfiguration.Budget budget) {
+        config = budget;
+    }
+
+    /**
+     * 包装一次提供方调用的回调，结束时记下用量；还没有输出就失败或被取消的调用不计
+     *
+     * @param provider 提供方类型，对应 providerWeights 的键
+     */
+    public static Metered meter(String provider, LlmCallContext context, ChatRequest request,
+                                ChatProvider.ChatStream downstream) {
+        return new Metered(provider, context, request, downstream);
+    }
+
+    public static void record(String provider, LlmCallContext context, long prompt, long completion) {
+        FileBasedBotConfiguration.Budget budget = config;
+        double weight = budget.getProviderWeights().getOrDefault(provider, 1.0);
+        long cost = Math.round((prompt + budget.getCompletionWeight() * completion) * weight);
+        long hour = currentHour();
+        add(new Key(ALL, 0), hour, prompt, completion, cost);
+        if (context.groupId() != null) {
+            add(new Key(GROUP, context.groupId()), hour, prompt, completion, cost);
+        }
+        if (context.userId() != 0) {
+            add(new Key(USER, context.userId()), hour, prompt, completion, cost);
+        }
+        calls.increment();
+        promptTokens.add(prompt);
+        completionTokens.add(completion);
+    }
+
+    /**
+     * 按群的日、月额度和用户的日额度中占比最高的一项决定降级程度
+     */
+    public static Level level(LlmCallContext context) {
+        FileBasedBotConfiguration.Budget budget = config;
+        long hour = currentHour();
+        double ratio = 0;
+        if (context.groupId() != null) {
+            Usage group = usage(new Key(GROUP, context.groupId()), hour);
+            ratio = Math.max(ratio(group.dayCost(), budget.getGroupDailyLimit()),
+                    ratio(group.monthCost(), budget.getGroupMonthlyLimit()));
+        }
+        if (context.userId() != 0) {
+            ratio = Math.max(ratio, ratio(usage(new Key(USER, context.userId()), hour).dayCost(),
+                    budget.getUserDailyLimit()));
+        }
+        if (ratio >= budget.getRefuseAt()) {
+            return Level.REFUSE;
+        }
+        if (ratio >= budget.getLocalOnlyAt()) {
+            return Level.LOCAL_ONLY;
+        }
+        return ratio >= budget.getShortContextAt() ? Level.SHORT_CONTEXT : Level.NORMAL;
+    }
+
+    /**
+     * 同 {@link #level(LlmCallContext)}，并计入降级统计，由路由在真正发起调用前使用
+     */
+    public static Level admit(LlmCallContext context) {
+        Level level = level(context);
+        switch (level) {
+            case SHORT_CONTEXT -> shortened.increment();
+            case LOCAL_ONLY -> localOnly.increment();
+            case REFUSE -> refused.increment();
+            default -> {
+            }
+        }
+        return level;
+    }
+
+    /**
+     * 缩短上下文时提示词的 token 上限
+     */
+    public static int shortContextTokens() {
+        return config.getShortContextTokens();
+    }
+
+    /**
+     * 给管理员看的用量报告：总量、本群（groupId 非空时）以及 24 小时用量最多的群和用户
+     */
+    public static String report(Long groupId, int top) {
+        FileBasedBotConfiguration.Budget budget = config;
+        long hour = currentHour();
+        StringBuilder builder = new StringBuilder();
+        Usage all = usage(new Key(ALL, 0), hour);
+        builder.append(String.format("24 小时：提示 %d token，回复 %d token，计费 %d；30 天计费 %d",
+                all.dayPrompt(), all.dayCompletion(), all.dayCost(), all.monthCost()));
+        if (groupId != null) {
+            Usage group = usage(new Key(GROUP, groupId), hour);
+            builder.append(String.format("\n本群：24 小时 %d/%s，30 天 %d/%s，%s", group.dayCost(),
+                    limit(budget.getGroupDailyLimit()), group.monthCost(), limit(budget.getGroupMonthlyLimit()),
+                    level(new LlmCallContext(groupId, 0, LlmCallContext.Priority.COMMAND, "usage")).label));
+        }
+        builder.append("\n24 小时用量最多的群：");
+        for (Usage usage : top(GROUP, top, hour)) {
+            builder.append(String.format("\n%d：%d/%s", usage.id(), usage.dayCost(), limit(budget.getGroupDailyLimit())));
+        }
+        builder.append("\n24 小时用量最多的用户：");
+        for (Usage usage : top(USER, top, hour)) {
+            builder.append(String.format("\n%d：%d/%s", usage.id(), usage.dayCost(), limit(budget.getUserDailyLimit())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 把未落盘的增量累加进 SQLite，写失败时留到下次
+     */
+    public static void flush() {
+        TokenUsagePersistence target = persistence;
+        if (target == null) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            long oldest = currentHour() - (long) DAYS * HOURS;
+            List<TokenUsageEntity> deltas = new ArrayList<>();
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    Iterator<Map.Entry<Key, Counter>> iterator = stripe.counters.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<Key, Counter> entry = iterator.next();
+                        entry.getValue().drain(entry.getKey(), deltas);
+                        // 30 天没有用量的不再占内存
+                        if (entry.getValue().idleSince(oldest)) {
+                            iterator.remove();
+                        }
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            if (!target.add(deltas)) {
+                flushFailures.increment();
+                for (TokenUsageEntity delta : deltas) {
+                    Key key = new Key(delta.getScope(), delta.getId());
+                    Stripe stripe = stripe(key);
+                    stripe.lock.lock();
+                    try {
+                        stripe.counters.computeIfAbsent(key, k -> new Counter()).markDirty(delta.getHour(),
+                                delta.getPromptTokens(), delta.getCompletionTokens(), delta.getCost());
+                    } finally {
+                        stripe.lock.unlock();
+                    }
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public static Stats stats() {
+        int keys = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                keys += stripe.counters.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return new Stats(keys, calls.sum(), promptTokens.sum(), completionTokens.sum(), shortened.sum(),
+                localOnly.sum(), refused.sum(), flushFailures.sum());
+    }
+
+    private static void add(Key key, long hour, long prompt, long completion, long cost) {
+        Stripe stripe = stripe(key);
+        stripe.lock.lock();
+        try {
+            Counter counter = stripe.counters.computeIfAbsent(key, k -> new Counter());
+            counter.add(hour, prompt, completion, cost);
+            counter.markDirty(hour, prompt, completion, cost);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private static Usage usage(Key key, long hour) {
+        Stripe stripe = stripe(key);
+        stripe.lock.lock();
+        try {
+            Counter counter = stripe.counters.get(key);
+            return counter == null ? new Usage(key.scope(), key.id(), 0, 0, 0, 0) : counter.usage(key, hour);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private static List<Usage> top(String scope, int n, long hour) {
+        List<Usage> usages = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.counters.forEach((key, counter) -> {
+                    if (key.scope().equals(scope)) {
+                        usages.add(counter.usage(key, hour));
+                    }
+                });
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return usages.stream()
+                .filter(usage -> usage.dayCost() > 0)
+                .sorted(Comparator.comparingLong(Usage::dayCost).reversed())
+                .limit(n)
+                .toList();
+    }
+
+    private static Stripe stripe(Key key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static double ratio(long used, long limit) {
+        return limit <= 0 ? 0 : (double) used / limit;
+    }
+
+    private static String limit(long limit) {
+        return limit <= 0 ? "不限" : String.valueOf(limit);
+    }
+
+    private static long currentHour() {
+        return System.currentTimeMillis() / HOUR_MILLIS;
+    }
+
+    /**
+     * 提供方回调的包装，累积回复内容，结束、出错或取消时记一次用量
+     */
+    public static final class Metered implements ChatProvider.ChatStream {
+
+        private final String provider;
+
+        private final LlmCallContext context;
+
+        private final ChatRequest request;
+
+        private final ChatProvider.ChatStream downstream;
+
+        private final StringBuilder completion = new StringBuilder();
+
+        private final AtomicBoolean recorded = new AtomicBoolean(false);
+
+        private Metered(String provider, LlmCallContext context, ChatRequest request,
+                        ChatProvider.ChatStream downstream) {
+            this.provider = provider;
+            this.context = context;
+            this.request = request;
+            this.downstream = downstream;
+        }
+
+        /**
+         * 取消时按已经收到的内容计费
+         */
+        public ChatProvider.Call wrap(ChatProvider.Call call) {
+            return () -> {
+                call.cancel();
+                record(false);
+            };
+        }
+
+        @Override
+        public void onContent(String delta) {
+            synchronized (completion) {
+                completion.append(delta);
+            }
+            downstream.onContent(delta);
+        }
+
+        @Override
+        public void onComplete() {
+            record(true);
+            downstream.onComplete();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            record(false);
+            downstream.onError(error);
+        }
+
+        @Override
+        public void onRejected(LlmScheduler.RejectReason reason) {
+            recorded.set(true);
+            downstream.onRejected(reason);
+        }
+
+        /**
+         * 目前已经收到的输出 token 数，流结束时补扣到上游的令牌桶
+         */
+        public int completionTokens() {
+            String text;
+            synchronized (completion) {
+                text = completion.toString();
+            }
+            return TokenCounter.count(request.getModel(), text);
+        }
+
+        private void record(boolean completed) {
+            if (!recorded.compareAndSet(false, true)) {
+                return;
+            }
+            String text;
+            synchronized (completion) {
+                text = completion.toString();
+            }
+            // 没有任何输出就失败或取消的，按没有发出处理
+            if (!completed && text.isEmpty()) {
+                return;
+            }
+            TokenGovernor.record(provider, context, TokenCounter.count(request),
+                    TokenCounter.count(request.getModel(), text));
+        }
+    }
+
+    /**
+     * 某个群或用户的用量快照，day 为最近 24 小时，month 为最近 30 天
+     */
+    public record Usage(String scope, long id, long dayPrompt, long dayCompletion, long dayCost, long monthCost) {
+    }
+
+    public record Stats(int keys, long calls, long promptTokens, long completionTokens, long shortened,
+                        long localOnly, long refused, long flushFailures) {
+
+        @Override
+        public String toString() {
+            return String.format("keys=%d calls=%d prompt=%d completion=%d shortened=%d localOnly=%d refused=%d flushFailures=%d",
+                    keys, calls, promptTokens, completionTokens, shortened, localOnly, refused, flushFailures);
+        }
+    }
+
+    private record Key(String scope, long id) {
+    }
+
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Map<Key, Counter> counters = new HashMap<>();
+    }
+
+    // 单个群或用户的滚动计数，由所在分段的锁保护
+    private static final class Counter {
+
+        private final long[] hours = new long[HOURS];
+
+        private final long[] hourPrompt = new long[HOURS];
+
+        private final long[] hourCompletion = new long[HOURS];
+
+        private final long[] hourCost = new long[HOURS];
+
+        private final long[] days = new long[DAYS];
+
+        private final long[] dayCost = new long[DAYS];
+
+        // 小时 -> 未落盘的 {提示, 回复, 计费}
+        private final Map<Long, long[]> dirty = new HashMap<>();
+
+        private Counter() {
+            Arrays.fill(hours, -1);
+            Arrays.fill(days, -1);
+        }
+
+        private void add(long hour, long prompt, long completion, long cost) {
+            int h = (int) (hour % HOURS);
+            // 读回时行的顺序不定，槽位里已经是更新的小时就只计入按天的部分
+            if (hours[h] < hour) {
+                hours[h] = hour;
+                hourPrompt[h] = 0;
+                hourCompletion[h] = 0;
+                hourCost[h] = 0;
+            }
+            if (hours[h] == hour) {
+                hourPrompt[h] += prompt;
+                hourCompletion[h] += completion;
+                hourCost[h] += cost;
+            }
+            long day = hour / HOURS;
+            int d = (int) (day % DAYS);
+            if (days[d] < day) {
+                days[d] = day;
+                dayCost[d] = 0;
+            }
+            if (days[d] == day) {
+                dayCost[d] += cost;
+            }
+        }
+
+        private void markDirty(long hour, long prompt, long completion, long cost) {
+            long[] delta = dirty.computeIfAbsent(hour, k -> new long[3]);
+            delta[0] += prompt;
+            delta[1] += completion;
+            delta[2] += cost;
+        }
+
+        private void drain(Key key, List<TokenUsageEntity> deltas) {
+            dirty.forEach((hour, delta) -> {
+                TokenUsageEntity entity = new TokenUsageEntity();
+                entity.setScope(key.scope());
+                entity.setId(key.id());
+                entity.setHour(hour);
+                entity.setPromptTokens(delta[0]);
+                entity.setCompletionTokens(delta[1]);
+                entity.setCost(delta[2]);
+                deltas.add(entity);
+            });
+            dirty.clear();
+        }
+
+        private boolean idleSince(long oldestHour) {
+            if (!dirty.isEmpty()) {
+                return false;
+            }
+            for (long day : days) {
+                if (day >= oldestHour / HOURS) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Usage usage(Key key, long hour) {
+            long prompt = 0;
+            long completion = 0;
+            long cost = 0;
+            for (int i = 0; i < HOURS; i++) {
+                if (hours[i] > hour - HOURS && hours[i] <= hour) {
+                    prompt += hourPrompt[i];
+                    completion += hourCompletion[i];
+                    cost += hourCost[i];
+                }
+            }
+            long day = hour / HOURS;
+            long month = 0;
+            for (int i = 0; i < DAYS; i++) {
+                if (days[i] > day - DAYS && days[i] <= day) {
+                    month += dayCost[i];
+                }
+            }
+            return new Usage(key.scope(), key.id(), prompt, completion, cost, month);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.nekotori.persistence.sqlite;
+
+import lombok.Data;
+
+@Data
+public class AiConversationEntity {
+    private Integer id;
+    private Long groupId;
+    private Long targetUserId;
+    // user 或 assistant
+    private String role;
+    private String message;
+    private Long time;
+}
@@ -0,0 +1,150 @@
+package org.nekotori.persistence.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @ 机器人的对话记录，每条带上对话对象，用户发言和机器人回复各一行
+ */
+@Slf4j
+public class AiConversationPersistence {
+
+    private static final String DB_URL = "jdbc:sqlite:bot/bot.db";
+    private static final int DEFAULT_LIMIT = 10;
+    private static final ConcurrentHashMap<Long, ReentrantLock> groupLocks = new ConcurrentHashMap<>();
+    private static volatile Connection connection;
+    private static final ReentrantLock connectionLock = new ReentrantLock();
+
+    public AiConversationPersistence(){
+        initConnection();
+        createTable();
+    }
+
+    private void initConnection() {
+        connectionLock.lock();
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = DriverManager.getConnection(DB_URL);
+                connection.setAutoCommit(true);
+                try (var stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA journal_mode=WAL");
+                    stmt.execute("PRAGMA synchronous=NORMAL");
+                    stmt.execute("PRAGMA busy_timeout=30000");
+                }
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException se) {
+            log.error("init sqlite error: {}", se.getMessage());
+            try {
+                if (connection != null && !connection.isClosed()) {
+                    connection.close();
+                }
+                connection = null;
+            } catch (SQLException e) {
+                log.error("close connection error: {}", e.getMessage());
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            initConnection();
+        }
+        return connection;
+    }
+
+    private ReentrantLock getGroupLock(Long groupId) {
+        return groupLocks.computeIfAbsent(groupId, k -> new ReentrantLock());
+    }
+
+    public void createTable(){
+        connectionLock.lock();
+        try {
+            var sql = "CREATE TABLE IF NOT EXISTS ai_conversation(id INTEGER PRIMARY KEY AUTOINCREMENT, group_id BIGINT, "
+                    + "target_user_id BIGINT, role TEXT, message TEXT, time TIMESTAMP)";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.executeUpdate();
+                connection.commit();
+            }
+        }catch (SQLException se){
+            log.error("create conversation table error: {}",se.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException e) {
+                log.error("rollback error: {}", e.getMessage());
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    //某人和机器人最近的对话，按时间倒序
+    public List<AiConversationEntity> getAllMessagesByUser(Long groupId, Long userId){
+        return getAllMessagesByUser(groupId, userId, DEFAULT_LIMIT);
+    }
+
+    public List<AiConversationEntity> getAllMessagesByUser(Long groupId, Long userId, int limit){
+        ReentrantLock lock = getGroupLock(groupId);
+        lock.lock();
+        try {
+            var sql = "SELECT * FROM ai_conversation WHERE group_id = ? AND target_user_id = ? ORDER BY time DESC LIMIT ?";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.setLong(1, groupId);
+                preparedStatement.setLong(2, userId);
+                preparedStatement.setInt(3, limit);
+                try (var resultSet = preparedStatement.executeQuery()) {
+                    var res = new ArrayList<AiConversationEntity>();
+                    while (resultSet.next()){
+                        var entity = new AiConversationEntity();
+                        entity.setId(resultSet.getInt("id"));
+                        entity.setGroupId(resultSet.getLong("group_id"));
+                        entity.setTargetUserId(resultSet.getLong("target_user_id"));
+                        entity.setRole(resultSet.getString("role"));
+                        entity.setMessage(resultSet.getString("message"));
+                        entity.setTime(resultSet.getLong("time"));
+                        res.add(entity);
+                    }
+                    return res;
+                }
+            }
+        }catch (SQLException se){
+            log.error("get conversation error: {}",se.getMessage());
+            return new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void save(AiConversationEntity entity){
+        ReentrantLock lock = getGroupLock(entity.getGroupId());
+        lock.lock();
+        try {
+            var sql = "INSERT INTO ai_conversation(group_id,target_user_id,role,message,time) VALUES (?,?,?,?,?)";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.setLong(1, entity.getGroupId());
+                preparedStatement.setLong(2, entity.getTargetUserId());
+                preparedStatement.setString(3, entity.getRole());
+                preparedStatement.setString(4, entity.getMessage());
+                preparedStatement.setLong(5, entity.getTime() != null ? entity.getTime() : System.currentTimeMillis());
+                preparedStatement.executeUpdate();
+                connection.commit();
+            }
+        }catch (SQLException se){
+            log.error("save conversation error: {}", se.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException e) {
+                log.error("rollback error: {}", e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.nekotori.persistence.sqlite;
+
+import lombok.Data;
+
+@Data
+public class ConversationSummaryEntity {
+    // 私聊为 0
+    private Long groupId;
+    private Long userId;
+    private String summary;
+    // 已折叠进摘要的最后一条对话的时间
+    private Long coveredUntil;
+    private Integer foldedTurns;
+    private Long time;
+}
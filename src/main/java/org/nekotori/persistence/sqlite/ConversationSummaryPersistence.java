@@ -0,0 +1,155 @@
+package org.nekotori.persistence.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个 (群, 用户) 一行的滚动对话摘要，重启后继续在原摘要上折叠
+ */
+@Slf4j
+public class ConversationSummaryPersistence {
+
+    private static final String DB_URL = "jdbc:sqlite:bot/bot.db";
+    private static final ConcurrentHashMap<Long, ReentrantLock> groupLocks = new ConcurrentHashMap<>();
+    private static volatile Connection connection;
+    private static final ReentrantLock connectionLock = new ReentrantLock();
+
+    public static void main(String[] args) {
+        ConversationSummaryPersistence persistence = new ConversationSummaryPersistence();
+        ConversationSummaryEntity entity = new ConversationSummaryEntity();
+        entity.setGroupId(123456789L);
+        entity.setUserId(123456789L);
+        entity.setSummary("用户喜欢猫");
+        entity.setCoveredUntil(System.currentTimeMillis());
+        entity.setFoldedTurns(6);
+        persistence.save(entity);
+        System.out.println(persistence.get(123456789L, 123456789L));
+    }
+
+    public ConversationSummaryPersistence(){
+        initConnection();
+        createTable();
+    }
+
+    private void initConnection() {
+        connectionLock.lock();
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = DriverManager.getConnection(DB_URL);
+                connection.setAutoCommit(true);
+                try (var stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA journal_mode=WAL");
+                    stmt.execute("PRAGMA synchronous=NORMAL");
+                    stmt.execute("PRAGMA busy_timeout=30000");
+                }
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException se) {
+            log.error("init sqlite error: {}", se.getMessage());
+            try {
+                if (connection != null && !connection.isClosed()) {
+                    connection.close();
+                }
+                connection = null;
+            } catch (SQLException e) {
+                log.error("close connection error: {}", e.getMessage());
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            initConnection();
+        }
+        return connection;
+    }
+
+    private ReentrantLock getGroupLock(Long groupId) {
+        return groupLocks.computeIfAbsent(groupId, k -> new ReentrantLock());
+    }
+
+    public void createTable(){
+        connectionLock.lock();
+        try {
+            var sql = "CREATE TABLE IF NOT EXISTS conversation_summary(group_id BIGINT, user_id BIGINT, summary TEXT, "
+                    + "covered_until BIGINT, folded_turns INTEGER, time TIMESTAMP, PRIMARY KEY(group_id, user_id))";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.executeUpdate();
+                connection.commit();
+            }
+        }catch (SQLException se){
+            log.error("create summary table error: {}",se.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException e) {
+                log.error("rollback error: {}", e.getMessage());
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    public ConversationSummaryEntity get(Long groupId, Long userId){
+        ReentrantLock lock = getGroupLock(groupId);
+        lock.lock();
+        try {
+            var sql = "SELECT * FROM conversation_summary WHERE group_id = ? AND user_id = ?";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.setLong(1, groupId);
+                preparedStatement.setLong(2, userId);
+                try (var resultSet = preparedStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    var entity = new ConversationSummaryEntity();
+                    entity.setGroupId(resultSet.getLong("group_id"));
+                    entity.setUserId(resultSet.getLong("user_id"));
+                    entity.setSummary(resultSet.getString("summary"));
+                    entity.setCoveredUntil(resultSet.getLong("covered_until"));
+                    entity.setFoldedTurns(resultSet.getInt("folded_turns"));
+                    entity.setTime(resultSet.getLong("time"));
+                    return entity;
+                }
+            }
+        }catch (SQLException se){
+            log.error("get summary error: {}",se.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void save(ConversationSummaryEntity entity){
+        ReentrantLock lock = getGroupLock(entity.getGroupId());
+        lock.lock();
+        try {
+            var sql = "INSERT INTO conversation_summary(group_id,user_id,summary,covered_until,folded_turns,time) "
+                    + "VALUES (?,?,?,?,?,?) ON CONFLICT(group_id,user_id) DO UPDATE SET summary=excluded.summary, "
+                    + "covered_until=excluded.covered_until, folded_turns=excluded.folded_turns, time=excluded.time";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.setLong(1, entity.getGroupId());
+                preparedStatement.setLong(2, entity.getUserId());
+                preparedStatement.setString(3, entity.getSummary());
+                preparedStatement.setLong(4, entity.getCoveredUntil());
+                preparedStatement.setInt(5, entity.getFoldedTurns());
+                preparedStatement.setLong(6, System.currentTimeMillis());
+                preparedStatement.executeUpdate();
+                connection.commit();
+            }
+        }catch (SQLException se){
+            log.error("save summary error: {}", se.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException e) {
+                log.error("rollback error: {}", e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
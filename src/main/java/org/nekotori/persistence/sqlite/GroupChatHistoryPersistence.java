@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 @Slf4j
 public class GroupChatHistoryPersistence {
@@ -94,12 +95,18 @@ public class GroupChatHistoryPersistence {
     }
 
     public List<GroupChatHistoryEntity> getAllMessages(Long groupId){
+        return getAllMessages(groupId, 100);
+    }
+
+    // 最多取 limit 条，按时间倒序；调用方再按 token 预算挑选
+    public List<GroupChatHistoryEntity> getAllMessages(Long groupId, int limit){
         ReentrantLock lock = getGroupLock(groupId);
         lock.lock();
         try {
-            var sql = "SELECT * FROM chat_history WHERE group_id = ? ORDER BY time DESC LIMIT 100";
+            var sql = "SELECT * FROM chat_history WHERE group_id = ? ORDER BY time DESC LIMIT ?";
             try (var conn = getConnection(); var preparedStatement = conn.prepareStatement(sql)) {
                 preparedStatement.setLong(1, groupId);
+                preparedStatement.setInt(2, limit);
                 try (var resultSet = preparedStatement.executeQuery()) {
                     var res = new ArrayList<GroupChatHistoryEntity>();
                     while (resultSet.next()){
@@ -124,13 +131,18 @@ public class GroupChatHistoryPersistence {
 
     //获取某人的全部发言
     public List<GroupChatHistoryEntity> getAllMessagesByUser(Long groupId, Long userId){
+        return getAllMessagesByUser(groupId, userId, 10);
+    }
+
+    public List<GroupChatHistoryEntity> getAllMessagesByUser(Long groupId, Long userId, int limit){
         ReentrantLock lock = getGroupLock(groupId);
         lock.lock();
         try {
-            var sql = "SELECT * FROM chat_history WHERE group_id = ? AND user_id = ? ORDER BY time DESC LIMIT 10";
+            var sql = "SELECT * FROM chat_history WHERE group_id = ? AND user_id = ? ORDER BY time DESC LIMIT ?";
             try (var conn = getConnection(); var preparedStatement = conn.prepareStatement(sql)) {
                 preparedStatement.setLong(1, groupId);
                 preparedStatement.setLong(2, userId);
+                preparedStatement.setInt(3, limit);
                 try (var resultSet = preparedStatement.executeQuery()) {
                     var res = new ArrayList<GroupChatHistoryEntity>();
                     while (resultSet.next()){
@@ -153,6 +165,31 @@ public class GroupChatHistoryPersistence {
         }
     }
 
+    // 按群、时间顺序遍历全部记录，给离线训练用
+    public void scanAll(Consumer<GroupChatHistoryEntity> consumer){
+        connectionLock.lock();
+        try {
+            var sql = "SELECT * FROM chat_history ORDER BY group_id, time";
+            try (var conn = getConnection(); var preparedStatement = conn.prepareStatement(sql)) {
+                try (var resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()){
+                        var groupChatHistoryEntity = new GroupChatHistoryEntity();
+                        groupChatHistoryEntity.setId(resultSet.getInt("id"));
+                        groupChatHistoryEntity.setGroupId(resultSet.getLong("group_id"));
+                        groupChatHistoryEntity.setUserId(resultSet.getLong("user_id"));
+                        groupChatHistoryEntity.setMessage(resultSet.getString("message"));
+                        groupChatHistoryEntity.setTime(resultSet.getLong("time"));
+                        consumer.accept(groupChatHistoryEntity);
+                    }
+                }
+            }
+        }catch (SQLException se){
+            log.error("scan messages error: {}",se.getMessage());
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
     public void save(Long id, Long name, String value){
         ReentrantLock lock = getGroupLock(id);
         lock.lock();
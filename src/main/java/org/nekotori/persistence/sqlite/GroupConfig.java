@@ -0,0 +1,20 @@
+package org.nekotori.persistence.sqlite;
+
+/**
+ * 群配置的只读快照，features 已解析为位集，判断功能开关只需要一次位运算
+ */
+public record GroupConfig(long groupId, long features, boolean voiceChat, boolean blackList, int credits,
+                          String nanoApiKey) {
+
+    // 负缓存：数据库里没有这个群
+    static final GroupConfig ABSENT = new GroupConfig(0, 0, false, false, 0, null);
+
+    static GroupConfig of(GroupEntity entity) {
+        return new GroupConfig(entity.getGroupId(), GroupFeature.parse(entity.getFeatures()), entity.isVoiceChat(),
+                entity.isBlackList(), entity.getCredits() == null ? 0 : entity.getCredits(), entity.getNanoApiKey());
+    }
+
+    public boolean has(GroupFeature feature) {
+        return (features & feature.bit()) != 0;
+    }
+}
@@ -0,0 +1,62 @@
+package org.nekotori.persistence.sqlite;
+
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * 群功能开关，对应 groups.features 里逗号分隔的名字，每个功能占一位
+ */
+public enum GroupFeature {
+
+    BTLIST("btlist"),
+    SD("sd"),
+    VOICE("voice"),
+    CHAT("chat");
+
+    private final String key;
+
+    GroupFeature(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long bit() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * 解析 features 字段，未知的名字忽略
+     */
+    public static long parse(String features) {
+        long bits = 0;
+        if (features == null || features.isBlank()) {
+            return bits;
+        }
+        for (String name : features.split(",")) {
+            String key = name.trim().toLowerCase(Locale.ROOT);
+            for (GroupFeature feature : values()) {
+                if (feature.key.equals(key)) {
+                    bits |= feature.bit();
+                    break;
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 位集写回 features 字段，按声明顺序输出，parse 的逆操作
+     */
+    public static String format(long bits) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (GroupFeature feature : values()) {
+            if ((bits & feature.bit()) != 0) {
+                joiner.add(feature.key);
+            }
+        }
+        return joiner.toString();
+    }
+}
@@ -12,9 +12,12 @@ import java.util.concurrent.locks.ReentrantLock;
 public class GroupPersistence {
 
     private static final String DB_URL = "jdbc:sqlite:bot/bot.db";
+    private static volatile String dbUrl = DB_URL;
     private static final ConcurrentHashMap<Long, ReentrantLock> groupLocks = new ConcurrentHashMap<>();
     private static volatile Connection connection;
     private static final ReentrantLock connectionLock = new ReentrantLock();
+    // 群配置快照，读走内存，写操作提交后在群锁内同步更新
+    private static final ConcurrentHashMap<Long, GroupConfig> configs = new ConcurrentHashMap<>();
 
     public static void main(String[] args) {
         GroupPersistence groupPersistence = new GroupPersistence();
@@ -32,7 +35,7 @@ public class GroupPersistence {
         connectionLock.lock();
         try {
             if (connection == null || connection.isClosed()) {
-                connection = DriverManager.getConnection(DB_URL);
+                connection = DriverManager.getConnection(dbUrl);
                 // 先设置自动提交，然后设置PRAGMA
                 connection.setAutoCommit(true);
                 // 优化SQLite性能设置（在事务外设置）
@@ -61,6 +64,23 @@ public class GroupPersistence {
         }
     }
 
+    // 测试时换到临时库，关闭当前连接并清空快照
+    static void useDatabase(String url) {
+        connectionLock.lock();
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            log.error("close connection error: {}", e.getMessage());
+        } finally {
+            connection = null;
+            dbUrl = url;
+            configs.clear();
+            connectionLock.unlock();
+        }
+    }
+
     private Connection getConnection() throws SQLException {
         if (connection == null || connection.isClosed()) {
             initConnection();
@@ -134,11 +154,16 @@ public class GroupPersistence {
                 preparedStatement.setString(5,groupEntity.getNanoApiKey());
                 preparedStatement.setString(6,groupEntity.getFeatures());
                 preparedStatement.setLong(7,groupEntity.getGroupId());
-                preparedStatement.executeUpdate();
+                int updated = preparedStatement.executeUpdate();
                 conn.commit();
+                if (updated > 0) {
+                    configs.put(groupEntity.getGroupId(), GroupConfig.of(groupEntity));
+                }
             }
         }catch (SQLException se){
             log.error("update group error: {}",se.getMessage());
+            // 写入结果不确定，丢掉快照，下次从数据库重新加载
+            configs.remove(groupEntity.getGroupId());
             try {
                 if (connection != null) connection.rollback();
             } catch (SQLException e) {
@@ -153,22 +178,7 @@ public class GroupPersistence {
         ReentrantLock lock = getGroupLock(groupId);
         lock.lock();
         try {
-            var sql = "SELECT * FROM groups WHERE group_id = ?";
-            try (var conn = getConnection(); var preparedStatement = conn.prepareStatement(sql)) {
-                preparedStatement.setLong(1, groupId);
-                var resultSet = preparedStatement.executeQuery();
-                if (resultSet.next()){
-                    var groupEntity = new GroupEntity();
-                    groupEntity.setGroupId(resultSet.getLong("group_id"));
-                    groupEntity.setGroupName(resultSet.getString("group_name"));
-                    groupEntity.setVoiceChat(resultSet.getBoolean("is_voice_chat"));
-                    groupEntity.setBlackList(resultSet.getBoolean("is_black_list"));
-                    groupEntity.setCredits(resultSet.getInt("credits"));
-                    groupEntity.setNanoApiKey(resultSet.getString("nano_api_key"));
-                    groupEntity.setFeatures(resultSet.getString("features"));
-                    return groupEntity;
-                }
-            }
+            return queryGroup(groupId);
         }catch (SQLException se){
             log.error("get group error: {}",se.getMessage());
         } finally {
@@ -177,6 +187,57 @@ public class GroupPersistence {
         return null;
     }
 
+    /**
+     * 从内存快照读取群配置，首次访问时加载，群不存在时返回 null 并缓存这一结果
+     */
+    public GroupConfig getConfig(Long groupId){
+        GroupConfig cached = configs.get(groupId);
+        if (cached == null) {
+            ReentrantLock lock = getGroupLock(groupId);
+            lock.lock();
+            try {
+                cached = configs.get(groupId);
+                if (cached == null) {
+                    GroupEntity entity = queryGroup(groupId);
+                    cached = entity == null ? GroupConfig.ABSENT : GroupConfig.of(entity);
+                    configs.put(groupId, cached);
+                }
+            }catch (SQLException se){
+                // 读失败不缓存，下次重试
+                log.error("load group config error: {}",se.getMessage());
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return cached == GroupConfig.ABSENT ? null : cached;
+    }
+
+    public boolean hasFeature(Long groupId, GroupFeature feature){
+        GroupConfig config = getConfig(groupId);
+        return config != null && config.has(feature);
+    }
+
+    private GroupEntity queryGroup(Long groupId) throws SQLException {
+        var sql = "SELECT * FROM groups WHERE group_id = ?";
+        try (var conn = getConnection(); var preparedStatement = conn.prepareStatement(sql)) {
+            preparedStatement.setLong(1, groupId);
+            var resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()){
+                var groupEntity = new GroupEntity();
+                groupEntity.setGroupId(resultSet.getLong("group_id"));
+                groupEntity.setGroupName(resultSet.getString("group_name"));
+                groupEntity.setVoiceChat(resultSet.getBoolean("is_voice_chat"));
+                groupEntity.setBlackList(resultSet.getBoolean("is_black_list"));
+                groupEntity.setCredits(resultSet.getInt("credits"));
+                groupEntity.setNanoApiKey(resultSet.getString("nano_api_key"));
+                groupEntity.setFeatures(resultSet.getString("features"));
+                return groupEntity;
+            }
+        }
+        return null;
+    }
+
     public void save(Long groupId, String groupName, boolean isVoiceChat, boolean isBlackList, Integer credits, String nanoApiKey, String features){
         ReentrantLock lock = getGroupLock(groupId);
         lock.lock();
@@ -192,9 +253,13 @@ public class GroupPersistence {
                 preparedStatement.setString(7,features);
                 preparedStatement.executeUpdate();
                 conn.commit();
+                configs.put(groupId, new GroupConfig(groupId, GroupFeature.parse(features), isVoiceChat, isBlackList,
+                        credits, nanoApiKey));
             }
         }catch (SQLException se){
             log.error("save group error: {}",se.getMessage());
+            // 写入结果不确定，丢掉快照，下次从数据库重新加载
+            configs.remove(groupId);
             try {
                 if (connection != null) connection.rollback();
             } catch (SQLException e) {
@@ -214,6 +279,7 @@ public class GroupPersistence {
                 preparedStatement.setLong(1, groupId);
                 preparedStatement.executeUpdate();
                 conn.commit();
+                configs.put(groupId, GroupConfig.ABSENT);
             }
         }catch (SQLException se){
             log.error("delete group error: {}",se.getMessage());
@@ -0,0 +1,17 @@
+package org.nekotori.persistence.sqlite;
+
+import lombok.Data;
+
+@Data
+public class TokenUsageEntity {
+    // group、user 或 all
+    private String scope;
+    // 群号或 QQ 号，all 为 0
+    private Long id;
+    // 自 epoch 起的小时数
+    private Long hour;
+    private Long promptTokens;
+    private Long completionTokens;
+    // 按提供方权重折算后的计费量
+    private Long cost;
+}
@@ -0,0 +1,164 @@
+package org.nekotori.persistence.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 (范围, 编号, 小时) 累计的大模型 token 用量，写入时在原有行上累加
+ */
+@Slf4j
+public class TokenUsagePersistence {
+
+    private static final String DB_URL = "jdbc:sqlite:bot/bot.db";
+    private static volatile Connection connection;
+    private static final ReentrantLock connectionLock = new ReentrantLock();
+
+    public static void main(String[] args) {
+        TokenUsagePersistence persistence = new TokenUsagePersistence();
+        TokenUsageEntity entity = new TokenUsageEntity();
+        entity.setScope("group");
+        entity.setId(123456789L);
+        entity.setHour(System.currentTimeMillis() / 3_600_000);
+        entity.setPromptTokens(1200L);
+        entity.setCompletionTokens(300L);
+        entity.setCost(1800L);
+        persistence.add(List.of(entity));
+        persistence.add(List.of(entity));
+        System.out.println(persistence.loadSince(entity.getHour()));
+    }
+
+    public TokenUsagePersistence(){
+        initConnection();
+        createTable();
+    }
+
+    private void initConnection() {
+        connectionLock.lock();
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = DriverManager.getConnection(DB_URL);
+                connection.setAutoCommit(true);
+                try (var stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA journal_mode=WAL");
+                    stmt.execute("PRAGMA synchronous=NORMAL");
+                    stmt.execute("PRAGMA busy_timeout=30000");
+                }
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException se) {
+            log.error("init sqlite error: {}", se.getMessage());
+            try {
+                if (connection != null && !connection.isClosed()) {
+                    connection.close();
+                }
+                connection = null;
+            } catch (SQLException e) {
+                log.error("close connection error: {}", e.getMessage());
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            initConnection();
+        }
+        return connection;
+    }
+
+    public void createTable(){
+        connectionLock.lock();
+        try {
+            var sql = "CREATE TABLE IF NOT EXISTS token_usage(scope TEXT, id BIGINT, hour BIGINT, prompt_tokens BIGINT, "
+                    + "completion_tokens BIGINT, cost BIGINT, PRIMARY KEY(scope, id, hour))";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.executeUpdate();
+                connection.commit();
+            }
+        }catch (SQLException se){
+            log.error("create token usage table error: {}",se.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException e) {
+                log.error("rollback error: {}", e.getMessage());
+            }
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    /**
+     * 把一批增量累加到对应的小时上，整批在一个事务里，失败时返回 false 由调用方重试
+     */
+    public boolean add(List<TokenUsageEntity> deltas){
+        if (deltas.isEmpty()) {
+            return true;
+        }
+        connectionLock.lock();
+        try {
+            var sql = "INSERT INTO token_usage(scope,id,hour,prompt_tokens,completion_tokens,cost) VALUES (?,?,?,?,?,?) "
+                    + "ON CONFLICT(scope,id,hour) DO UPDATE SET prompt_tokens=prompt_tokens+excluded.prompt_tokens, "
+                    + "completion_tokens=completion_tokens+excluded.completion_tokens, cost=cost+excluded.cost";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                for (TokenUsageEntity delta : deltas) {
+                    preparedStatement.setString(1, delta.getScope());
+                    preparedStatement.setLong(2, delta.getId());
+                    preparedStatement.setLong(3, delta.getHour());
+                    preparedStatement.setLong(4, delta.getPromptTokens());
+                    preparedStatement.setLong(5, delta.getCompletionTokens());
+                    preparedStatement.setLong(6, delta.getCost());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                connection.commit();
+                return true;
+            }
+        }catch (SQLException se){
+            log.error("save token usage error: {}", se.getMessage());
+            try {
+                if (connection != null) connection.rollback();
+            } catch (SQLException e) {
+                log.error("rollback error: {}", e.getMessage());
+            }
+            return false;
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    /**
+     * 读出 fromHour（含）之后的所有小时用量
+     */
+    public List<TokenUsageEntity> loadSince(long fromHour){
+        List<TokenUsageEntity> entities = new ArrayList<>();
+        connectionLock.lock();
+        try {
+            var sql = "SELECT * FROM token_usage WHERE hour >= ?";
+            try (var preparedStatement = getConnection().prepareStatement(sql)) {
+                preparedStatement.setLong(1, fromHour);
+                try (var resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        var entity = new TokenUsageEntity();
+                        entity.setScope(resultSet.getString("scope"));
+                        entity.setId(resultSet.getLong("id"));
+                        entity.setHour(resultSet.getLong("hour"));
+                        entity.setPromptTokens(resultSet.getLong("prompt_tokens"));
+                        entity.setCompletionTokens(resultSet.getLong("completion_tokens"));
+                        entity.setCost(resultSet.getLong("cost"));
+                        entities.add(entity);
+                    }
+                }
+            }
+        }catch (SQLException se){
+            log.error("load token usage error: {}",se.getMessage());
+        } finally {
+            connectionLock.unlock();
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,592 @@
+package org.nekotori.persistence.vector;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 单个群的 HNSW 向量索引，按余弦相似度做近似 k 近邻，数据放在 dir 下：
+ * nodes.bin 为文件头加定长节点记录（层数、发言人、时间、原文偏移、归一化向量、第 0 层邻居），按段内存映射；
+ * upper.bin 为第 1 层以上的邻居，这些节点约占 1/m，常驻内存，flush 时整体重写；
+ * messages.bin 为追加写的原文。
+ * 同一时间只有一个线程写入，查询可以并发。文件头里的节点数在节点完全链接后才更新，
+ * 崩溃时多写的半条记录和指向它的邻居都会被忽略，upper.bin 没覆盖到的节点在打开时重新链接。
+ */
+@Slf4j
+public class HnswIndex implements Closeable {
+
+    private static final int MAGIC = 0x484E5357;
+
+    private static final int HEADER_BYTES = 64;
+
+    // 每段映射的节点数，1024 维时一段约 70MB
+    private static final int SEGMENT_NODES = 1 << 14;
+
+    private static final int VECTOR_OFFSET = 32;
+
+    private static final int MAX_LEVEL = 16;
+
+    private final Path dir;
+
+    private final int dimensions;
+
+    private final int m;
+
+    private final int maxNeighbors0;
+
+    private final int efConstruction;
+
+    private final double levelFactor;
+
+    private final int recordBytes;
+
+    private final int linksOffset;
+
+    private final FileChannel nodesChannel;
+
+    private final FileChannel messagesChannel;
+
+    private final MappedByteBuffer header;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // 与 segments 一一对应的 float 视图，按下标批量读向量
+    private final List<FloatBuffer> floatSegments = new ArrayList<>();
+
+    private final ThreadLocal<float[]> scratch;
+
+    // 节点 -> 第 1..level 层的邻居
+    private final Map<Integer, int[][]> upper = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Random random = new Random();
+
+    private int size;
+
+    private int entryPoint;
+
+    private int maxLevel;
+
+    private boolean dirty;
+
+    private HnswIndex(Path dir, int dimensions, int m, int efConstruction,
+                      FileChannel nodesChannel, FileChannel messagesChannel) throws IOException {
+        this.dir = dir;
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxNeighbors0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1 / Math.log(m);
+        this.linksOffset = VECTOR_OFFSET + 4 * dimensions;
+        this.recordBytes = linksOffset + 4 + 4 * maxNeighbors0;
+        this.nodesChannel = nodesChannel;
+        this.messagesChannel = messagesChannel;
+        this.scratch = ThreadLocal.withInitial(() -> new float[dimensions]);
+        this.header = nodesChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 打开或新建索引；已有索引的维度或 m 与参数不一致时抛出 IOException
+     */
+    public static HnswIndex open(Path dir, int dimensions, int m, int efConstruction) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel nodes = FileChannel.open(dir.resolve("nodes.bin"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel messages = FileChannel.open(dir.resolve("messages.bin"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            HnswIndex index = new HnswIndex(dir, dimensions, m, efConstruction, nodes, messages);
+            index.load();
+            return index;
+        } catch (IOException | RuntimeException e) {
+            nodes.close();
+            messages.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * 写入一条消息和它的向量，向量会先归一化
+     */
+    public void add(long userId, long time, String text, float[] vector) throws IOException {
+        float[] q = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            long textOffset = appendText(text);
+            int node = size;
+            int level = (int) Math.min(MAX_LEVEL, Math.floor(-Math.log(1 - random.nextDouble()) * levelFactor));
+            ByteBuffer buffer = segment(node);
+            int offset = offset(node);
+            buffer.putInt(offset, level);
+            buffer.putLong(offset + 8, userId);
+            buffer.putLong(offset + 16, time);
+            buffer.putLong(offset + 24, textOffset);
+            for (int i = 0; i < dimensions; i++) {
+                buffer.putFloat(offset + VECTOR_OFFSET + 4 * i, q[i]);
+            }
+            buffer.putInt(offset + linksOffset, 0);
+            if (level > 0) {
+                upper.put(node, emptyLinks(level));
+            }
+            if (entryPoint >= 0) {
+                link(node, q, level, 0);
+            }
+            size = node + 1;
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+            writeHeader();
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param ef 查询时的候选集大小，越大召回越高、越慢，小于 k 时按 k
+     * @return 按相似度从高到低
+     */
+    public List<Hit> search(float[] vector, int k, int ef) throws IOException {
+        float[] q = normalize(vector);
+        lock.readLock().lock();
+        try {
+            List<Hit> hits = new ArrayList<>();
+            if (size == 0) {
+                return hits;
+            }
+            int current = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                current = greedy(q, current, level);
+            }
+            List<Scored> found = searchLayer(q, current, Math.max(ef, k), 0);
+            for (int i = 0; i < Math.min(k, found.size()); i++) {
+                Scored scored = found.get(i);
+                ByteBuffer buffer = segment(scored.node);
+                int offset = offset(scored.node);
+                hits.add(new Hit(buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                        readText(buffer.getLong(offset + 24)), scored.score));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把映射的数据刷到磁盘并重写 upper.bin，由写入线程定期调用
+     */
+    public void flush() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (!dirty) {
+                return;
+            }
+            segments.forEach(MappedByteBuffer::force);
+            header.force();
+            messagesChannel.force(false);
+            Path tmp = dir.resolve("upper.bin.tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(size);
+                out.writeInt(upper.size());
+                for (Map.Entry<Integer, int[][]> entry : upper.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    for (int[] links : entry.getValue()) {
+                        out.writeInt(links.length);
+                        for (int link : links) {
+                            out.writeInt(link);
+                        }
+                    }
+                }
+            }
+            Files.move(tmp, dir.resolve("upper.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            nodesChannel.close();
+            messagesChannel.close();
+        }
+    }
+
+    private void load() throws IOException {
+        if (header.getInt(0) == 0) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, dimensions);
+            header.putInt(8, m);
+            size = 0;
+            entryPoint = -1;
+            maxLevel = -1;
+            writeHeader();
+            return;
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != dimensions || header.getInt(8) != m) {
+            throw new IOException("index " + dir + " was built with dimensions=" + header.getInt(4) + " m="
+                    + header.getInt(8) + ", expected dimensions=" + dimensions + " m=" + m);
+        }
+        size = header.getInt(12);
+        entryPoint = header.getInt(16);
+        maxLevel = header.getInt(20);
+        // 查询线程不会再新映射段
+        if (size > 0) {
+            segment(size - 1);
+        }
+        int covered = 0;
+        Path upperFile = dir.resolve("upper.bin");
+        if (Files.exists(upperFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(upperFile)))) {
+                covered = Math.min(in.readInt(), size);
+                int nodes = in.readInt();
+                for (int i = 0; i < nodes; i++) {
+                    int node = in.readInt();
+                    int[][] levels = new int[in.readInt()][];
+                    for (int level = 0; level < levels.length; level++) {
+                        levels[level] = new int[in.readInt()];
+                        for (int j = 0; j < levels[level].length; j++) {
+                            levels[level][j] = in.readInt();
+                        }
+                    }
+                    if (node < covered) {
+                        upper.put(node, levels);
+                    }
+                }
+            }
+        }
+        // 上次 flush 之后写入的节点只有第 0 层邻居，先给它们都分配好上层再补链接
+        List<Integer> unlinked = new ArrayList<>();
+        for (int node = covered; node < size; node++) {
+            int level = segment(node).getInt(offset(node));
+            if (level > 0) {
+                upper.put(node, emptyLinks(level));
+                unlinked.add(node);
+            }
+        }
+        for (int node : unlinked) {
+            link(node, vector(node), upper.get(node).length, 1);
+        }
+        int relinked = unlinked.size();
+        if (relinked > 0) {
+            dirty = true;
+        }
+        log.info("hnsw index {} opened, {} nodes, relinked {}", dir, size, relinked);
+    }
+
+    // 从顶层贪心下降到 level + 1，再在 [lowest, level] 的每一层各取 efConstruction 个候选挑选邻居并双向连接
+    private void link(int node, float[] q, int level, int lowest) {
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedy(q, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= lowest; l--) {
+            List<Scored> candidates = searchLayer(q, current, efConstruction, l);
+            candidates.removeIf(scored -> scored.node == node);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            int capacity = l == 0 ? maxNeighbors0 : m;
+            int[] selected = select(candidates, m);
+            setNeighbors(node, l, selected);
+            for (int neighbor : selected) {
+                connect(neighbor, node, l, capacity);
+            }
+            current = candidates.get(0).node;
+        }
+    }
+
+    private void connect(int neighbor, int node, int level, int capacity) {
+        int[] current = neighbors(neighbor, level);
+        if (current.length < capacity) {
+            int[] next = new int[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = node;
+            setNeighbors(neighbor, level, next);
+            return;
+        }
+        float[] base = vector(neighbor);
+        List<Scored> all = new ArrayList<>(current.length + 1);
+        for (int id : current) {
+            all.add(new Scored(id, similarity(base, id)));
+        }
+        all.add(new Scored(node, similarity(base, node)));
+        all.sort(Scored.BEST_FIRST);
+        setNeighbors(neighbor, level, select(all, capacity));
+    }
+
+    // HNSW 论文里的启发式：候选和已选邻居的相似度高于它和基准点的相似度时跳过，保证邻居分散在各个方向，不足时再用被跳过的补齐
+    private int[] select(List<Scored> candidates, int max) {
+        List<Scored> kept = new ArrayList<>(max);
+        List<float[]> keptVectors = new ArrayList<>(max);
+        List<Scored> skipped = new ArrayList<>();
+        for (Scored candidate : candidates) {
+            if (kept.size() >= max) {
+                break;
+            }
+            float[] vector = vector(candidate.node);
+            boolean diverse = true;
+            for (float[] keptVector : keptVectors) {
+                if (dot(vector, keptVector) > candidate.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                kept.add(candidate);
+                keptVectors.add(vector);
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && kept.size() < max; i++) {
+            kept.add(skipped.get(i));
+        }
+        int[] ids = new int[kept.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = kept.get(i).node;
+        }
+        return ids;
+    }
+
+    private int greedy(float[] q, int entry, int level) {
+        int current = entry;
+        float best = similarity(q, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbor : neighbors(current, level)) {
+                if (neighbor >= size) {
+                    continue;
+                }
+                float score = similarity(q, neighbor);
+                if (score > best) {
+                    best = score;
+                    current = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private List<Scored> searchLayer(float[] q, int entry, int ef, int level) {
+        Set<Integer> visited = new HashSet<>();
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Scored.BEST_FIRST);
+        PriorityQueue<Scored> results = new PriorityQueue<>(Scored.BEST_FIRST.reversed());
+        Scored start = new Scored(entry, similarity(q, entry));
+        visited.add(entry);
+        candidates.add(start);
+        results.add(start);
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score < results.peek().score) {
+                break;
+            }
+            for (int neighbor : neighbors(candidate.node, level)) {
+                // 大于等于 size 的是正在写入或崩溃时没写完的节点
+                if (neighbor >= size || !visited.add(neighbor)) {
+                    continue;
+                }
+                float score = similarity(q, neighbor);
+                if (results.size() < ef || score > results.peek().score) {
+                    Scored scored = new Scored(neighbor, score);
+                    candidates.add(scored);
+                    results.add(scored);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(Scored.BEST_FIRST);
+        return sorted;
+    }
+
+    private int[] neighbors(int node, int level) {
+        if (level > 0) {
+            int[][] links = upper.get(node);
+            return links == null || links.length < level ? new int[0] : links[level - 1];
+        }
+        ByteBuffer buffer = segment(node);
+        int offset = offset(node) + linksOffset;
+        int[] ids = new int[Math.min(buffer.getInt(offset), maxNeighbors0)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = buffer.getInt(offset + 4 + 4 * i);
+        }
+        return ids;
+    }
+
+    private void setNeighbors(int node, int level, int[] ids) {
+        if (level > 0) {
+            upper.get(node)[level - 1] = ids;
+            return;
+        }
+        ByteBuffer buffer = segment(node);
+        int offset = offset(node) + linksOffset;
+        // 先写邻居再写个数，并发的查询最多读到旧的个数
+        for (int i = 0; i < ids.length; i++) {
+            buffer.putInt(offset + 4 + 4 * i, ids[i]);
+        }
+        buffer.putInt(offset, ids.length);
+    }
+
+    // 逐个 getFloat 很慢，先批量拷到线程自己的数组再算
+    private float similarity(float[] q, int node) {
+        float[] vector = scratch.get();
+        readVector(node, vector);
+        return dot(q, vector);
+    }
+
+    private float[] vector(int node) {
+        float[] vector = new float[dimensions];
+        readVector(node, vector);
+        return vector;
+    }
+
+    private void readVector(int node, float[] into) {
+        segment(node);
+        floatSegments.get(node / SEGMENT_NODES).get((offset(node) + VECTOR_OFFSET) / 4, into, 0, dimensions);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            normalized[i] = norm == 0 ? 0 : (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static int[][] emptyLinks(int level) {
+        int[][] links = new int[level][];
+        for (int i = 0; i < level; i++) {
+            links[i] = new int[0];
+        }
+        return links;
+    }
+
+    // 只有写入线程会新映射段，查询访问的节点都小于 size，所在段一定已经映射
+    private ByteBuffer segment(int node) {
+        int index = node / SEGMENT_NODES;
+        while (segments.size() <= index) {
+            long position = HEADER_BYTES + (long) segments.size() * SEGMENT_NODES * recordBytes;
+            try {
+                MappedByteBuffer segment = nodesChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                        (long) SEGMENT_NODES * recordBytes);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                segments.add(segment);
+                floatSegments.add(segment.asFloatBuffer());
+            } catch (IOException e) {
+                throw new IllegalStateException("map segment of " + dir + " failed", e);
+            }
+        }
+        return segments.get(index);
+    }
+
+    private int offset(int node) {
+        return (node % SEGMENT_NODES) * recordBytes;
+    }
+
+    private void writeHeader() {
+        header.putInt(16, entryPoint);
+        header.putInt(20, maxLevel);
+        header.putInt(12, size);
+    }
+
+    private long appendText(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        long position = messagesChannel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+        buffer.putInt(bytes.length).put(bytes).flip();
+        while (buffer.hasRemaining()) {
+            messagesChannel.write(buffer, position + buffer.position());
+        }
+        return position;
+    }
+
+    private String readText(long position) throws IOException {
+        ByteBuffer length = readFully(position, 4);
+        ByteBuffer bytes = readFully(position + 4, length.getInt());
+        return new String(bytes.array(), 0, bytes.limit(), StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (messagesChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("messages of " + dir + " truncated at " + position);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private record Scored(int node, float score) {
+
+        private static final Comparator<Scored> BEST_FIRST = (a, b) -> Float.compare(b.score, a.score);
+    }
+
+    public record Hit(long userId, long time, String text, float score) {
+    }
+}
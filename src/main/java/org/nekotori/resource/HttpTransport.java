@@ -0,0 +1,129 @@
+package org.nekotori.resource;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享的 OkHttp 传输层。
+ * 所有上游共用一份基础配置，每个上游主机各自一个连接池和调度器，互不挤占；
+ * TLS 上优先协商 HTTP/2，同一主机的并发请求复用一条连接。启动时可以预先建好到各提供方的连接。
+ */
+@Slf4j
+public class HttpTransport {
+
+    private static final OkHttpClient BASE = new OkHttpClient.Builder()
+            .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(Duration.ofSeconds(30))
+            .readTimeout(Duration.ofMinutes(2))
+            .writeTimeout(Duration.ofSeconds(30))
+            // 只作用于 HTTP/2 连接，空闲时保活，避免长流式请求前连接已被中间设备断开
+            .pingInterval(Duration.ofSeconds(30))
+            .build();
+
+    private static final Map<String, OkHttpClient> clients = new ConcurrentHashMap<>();
+
+    private static volatile FileBasedBotConfiguration.Http config = new FileBasedBotConfiguration.Http();
+
+    private HttpTransport() {
+    }
+
+    public static void configure(FileBasedBotConfiguration.Http http) {
+        config = Optional.ofNullable(http).orElseGet(FileBasedBotConfiguration.Http::new);
+    }
+
+    /**
+     * 该地址所在主机的共享客户端
+     */
+    public static OkHttpClient client(String url) {
+        return clients.computeIfAbsent(origin(url), HttpTransport::newHostClient);
+    }
+
+    /**
+     * 读超时不同的客户端，仍然共用该主机的连接池和调度器
+     */
+    public static OkHttpClient client(String url, Duration readTimeout) {
+        return client(url).newBuilder().readTimeout(readTimeout).build();
+    }
+
+    /**
+     * 向各主机发一个 HEAD 请求，提前完成 DNS、TCP 和 TLS 握手，连接留在池里
+     */
+    public static void prewarm(Collection<String> urls) {
+        if (urls == null) {
+            return;
+        }
+        for (String url : urls) {
+            String origin;
+            try {
+                origin = origin(url);
+            } catch (IllegalArgumentException e) {
+                log.warn("skip prewarm of invalid url {}", url);
+                continue;
+            }
+            long start = System.nanoTime();
+            client(origin).newCall(new Request.Builder().url(origin).head().build()).enqueue(new Callback() {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    log.warn("prewarm {} failed: {}", origin, e.getMessage());
+                }
+
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    try (response) {
+                        log.info("prewarm {} {} in {} ms", origin, response.protocol(),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 每个主机的连接数和调度器排队情况
+     */
+    public static Map<String, String> stats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        clients.forEach((origin, client) -> stats.put(origin, String.format(
+                "connections=%d idle=%d running=%d queued=%d",
+                client.connectionPool().connectionCount(), client.connectionPool().idleConnectionCount(),
+                client.dispatcher().runningCallsCount(), client.dispatcher().queuedCallsCount())));
+        return stats;
+    }
+
+    private static OkHttpClient newHostClient(String origin) {
+        FileBasedBotConfiguration.Http http = config;
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(http.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(http.getMaxRequests());
+        log.info("http transport for {} created", origin);
+        return BASE.newBuilder()
+                .connectionPool(new ConnectionPool(http.getMaxIdleConnections(), http.getKeepAliveMinutes(), TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    private static String origin(String url) {
+        HttpUrl parsed = HttpUrl.get(url);
+        return parsed.scheme() + "://" + parsed.host() + ":" + parsed.port() + "/";
+    }
+}
@@ -11,8 +11,11 @@ import org.jetbrains.annotations.NotNull;
 import org.nekotori.bot.StaticPrompts;
 import org.nekotori.openai.ChatMessage;
 import org.nekotori.openai.ChatRequest;
-import org.nekotori.openai.DsClient;
+import org.nekotori.openai.LlmCallContext;
+import org.nekotori.openai.LlmRouter;
+import org.nekotori.openai.LlmScheduler;
 import org.nekotori.openai.OllamaClient;
+import org.nekotori.resource.HttpTransport;
 import org.nekotori.util.Lambda;
 import org.w3c.dom.Text;
 import reactor.core.publisher.Mono;
@@ -30,12 +33,9 @@ import java.util.function.Consumer;
 @Slf4j
 public class StableDiffusionClient {
 
-    private static final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(Duration.ofSeconds(30))
-            .readTimeout(Duration.ofSeconds(300))  // 长超时适合AI生成
-            .writeTimeout(Duration.ofSeconds(30))
-            .build();
     private static final String baseUrl = "http://127.0.0.1:7860/sdapi/v1";
+    // 长超时适合AI生成
+    private static final OkHttpClient httpClient = HttpTransport.client(baseUrl, Duration.ofSeconds(300));
     private static final ObjectMapper mapper = new ObjectMapper();
 
     public static Mono<Text2ImgResponse> txt2img(Text2ImgOptions options){
@@ -52,7 +52,12 @@ public class StableDiffusionClient {
         });
     }
 
-    public static void drawWithNatureLang(boolean nsfw,String apiKey, String text, Consumer<String> callback){
+    /**
+     * 先让大模型把自然语言写成 Prompt 再出图，生成 Prompt 的调用按 context 排队并由路由选择提供方
+     */
+    public static void drawWithNatureLang(LlmCallContext context, boolean nsfw, String text,
+                                          Consumer<String> callback,
+                                          Consumer<LlmScheduler.RejectReason> onRejected){
         var list = new ArrayList<ChatMessage>();
         list.add(new ChatMessage("system", StaticPrompts.prompt.get(12)));
         list.add(new ChatMessage("user", text));
@@ -60,7 +65,7 @@ public class StableDiffusionClient {
         chatRequest.setModel("deepseek-v3");
         chatRequest.setStream(true);
         chatRequest.setMessages(list);
-        DsClient.invoke(apiKey, chatRequest, resp->{
+        LlmRouter.invoke(context, "chat", chatRequest, resp->{
             try {
                 JSONObject entries = JSONUtil.parseObj(resp);
                 String prompt = entries.getStr("prompt");
@@ -85,7 +90,7 @@ public class StableDiffusionClient {
             }catch (Exception e){
                 callback.accept("file:生成失败，请稍后再试，"+e.getMessage());
             }
-        } );
+        }, onRejected);
 
     }
 
@@ -1,19 +1,24 @@
 package org.nekotori.tts;
 
-import cn.hutool.http.HttpUtil;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONConfig;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.internal.sse.RealEventSource;
 import okhttp3.sse.EventSource;
 import okhttp3.sse.EventSourceListener;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.nekotori.resource.HttpTransport;
+import org.nekotori.util.BlockingExecution;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.*;
@@ -21,7 +26,7 @@ import java.util.function.Consumer;
 
 public class SovitsClient {
 
-    private static final ExecutorService vitsExecutor = new ThreadPoolExecutor(4,20,1000, TimeUnit.SECONDS,new ArrayBlockingQueue<>(5));
+    private static final String RESOURCE = "sovits";
     private static final String vitsUrl = "http://localhost:9872";
 
     public static void ttsV4(String input,Integer model ,Consumer<String> voicePathConsumer) {
@@ -32,14 +37,17 @@ public class SovitsClient {
 //        setModel(model, hash);
 
         JSONArray dataArray = assembleGenerateRequest(input, model, ra);
-        processJoin(1,64,hash, dataArray);
-        processData(resp->{
-            String voicePath = resp.getJSONObject("output")
-                    .getJSONArray("data")
-                    .getJSONObject(0)
-                    .getStr("path");
-            voicePathConsumer.accept(voicePath);
-        }, hash);
+        // 许可从入队一直持有到合成结果返回，限制同时合成的数量；拿不到许可时排队，不占执行线程
+        BlockingExecution.acquire(RESOURCE, permit -> {
+            processJoin(1,64,hash, dataArray);
+            processData(resp->{
+                String voicePath = resp.getJSONObject("output")
+                        .getJSONArray("data")
+                        .getJSONObject(0)
+                        .getStr("path");
+                voicePathConsumer.accept(voicePath);
+            }, hash, permit);
+        });
 
     }
 
@@ -47,13 +55,13 @@ public class SovitsClient {
         JSONArray setGPT = new JSONArray(JSONConfig.create().setIgnoreNullValue(false));
         setGPT.add(v4Model.get(model).getStr("gpt_name"));
         processJoin(4,5, hash,setGPT);
-        processData(resp->{}, hash);
+        processData(resp->{}, hash, null);
         JSONArray setSovit = new JSONArray(JSONConfig.create().setIgnoreNullValue(false));
         setSovit.add(v4Model.get(model).getStr("sovits_name"));
         setSovit.add("中文");
         setSovit.add("中文");
         processJoin(3,6, hash,setGPT);
-        processData(resp->{}, hash);
+        processData(resp->{}, hash, null);
     }
 
     private static @NotNull JSONArray assembleGenerateRequest(String input, Integer model, int ra) {
@@ -83,20 +91,18 @@ public class SovitsClient {
         return dataArray;
     }
 
-    private static void processData(Consumer<JSONObject> dataConsumer, String hash) {
-        vitsExecutor.execute(()->{
+    private static void processData(Consumer<JSONObject> dataConsumer, String hash, BlockingExecution.Permit permit) {
+        BlockingExecution.execute(()->{
             String requestUrl = vitsUrl+"/queue/data?session_hash="+ hash;
             Request request = new Request
                     .Builder()
                     .url(requestUrl)
                     .build();
-            OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                    .connectTimeout(2, TimeUnit.MINUTES)
-                    .readTimeout(2, TimeUnit.MINUTES)
-                    .build();
+            OkHttpClient okHttpClient = HttpTransport.client(vitsUrl);
             RealEventSource realEventSource = new RealEventSource(request, new EventSourceListener() {
                 @Override
                 public void onClosed(@NotNull EventSource eventSource) {
+                    release(permit);
                     super.onClosed(eventSource);
                 }
 
@@ -109,6 +115,7 @@ public class SovitsClient {
                         dataConsumer.accept(resp);
                     }
                     if(msg!=null && msg.equals("close_stream")){
+                        release(permit);
                         eventSource.cancel();
                     }
                     super.onEvent(eventSource, id, type, data);
@@ -116,6 +123,7 @@ public class SovitsClient {
 
                 @Override
                 public void onFailure(@NotNull EventSource eventSource, @Nullable Throwable t, @Nullable Response response) {
+                    release(permit);
                     super.onFailure(eventSource, t, response);
                 }
 
@@ -128,6 +136,12 @@ public class SovitsClient {
         });
     }
 
+    private static void release(BlockingExecution.Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
     private static void processJoin(Integer fnId,Integer triggerId,String hash, JSONArray dataArray) {
         JSONObject entries = new JSONObject();
         entries.putIfAbsent("event_data",null);
@@ -138,10 +152,18 @@ public class SovitsClient {
             entries.putIfAbsent("trigger_id",triggerId);
         }
         System.out.println(JSONUtil.toJsonStr(entries, JSONConfig.create().setIgnoreNullValue(false)));
-        HttpUtil.createPost(vitsUrl + "/queue/join")
-                .header("Content-Type", "application/json")
-                .body(JSONUtil.toJsonStr(entries, JSONConfig.create().setIgnoreNullValue(false)))
-                .execute();
+        Request request = new Request.Builder()
+                .url(vitsUrl + "/queue/join")
+                .post(RequestBody.create(JSONUtil.toJsonStr(entries, JSONConfig.create().setIgnoreNullValue(false)),
+                        MediaType.parse("application/json")))
+                .build();
+        try (Response response = HttpTransport.client(vitsUrl).newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IllegalStateException("sovits join failed: " + response.code());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static String generateRandomString(int length) {
@@ -0,0 +1,272 @@
+package org.nekotori.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 阻塞任务的统一执行入口。
+ * virtual 模式下每个任务一个虚拟线程（需要 JDK 21，低版本自动退回线程池），
+ * 并发不再由线程池大小决定，而是由每个资源各自的许可数限制；提交永远不会被拒绝。
+ * 拿不到许可的任务在资源自己的队列里排队，有许可归还时才提交到执行线程，执行线程从不等待许可。
+ * 虚拟线程模式下同时用 JFR 监听 jdk.VirtualThreadPinned，按业务栈帧统计并报告钉住载体线程的位置。
+ */
+@Slf4j
+public class BlockingExecution {
+
+    private static final int DEFAULT_PERMITS = 16;
+
+    private static final Map<String, Gate> gates = new ConcurrentHashMap<>();
+
+    private static final Map<String, LongAdder> pinned = new ConcurrentHashMap<>();
+
+    private static final AtomicBoolean pinningWatcherStarted = new AtomicBoolean(false);
+
+    private static volatile FileBasedBotConfiguration.Execution config = new FileBasedBotConfiguration.Execution();
+
+    private static volatile ExecutorService executor = newPool(config.getPoolThreads());
+
+    private static volatile boolean virtual;
+
+    private BlockingExecution() {
+    }
+
+    /**
+     * 按配置切换执行模式，启动时调用一次
+     */
+    public static synchronized void configure(FileBasedBotConfiguration.Execution execution) {
+        config = Optional.ofNullable(execution).orElseGet(FileBasedBotConfiguration.Execution::new);
+        ExecutorService previous = executor;
+        ExecutorService next = null;
+        if ("virtual".equalsIgnoreCase(config.getMode())) {
+            next = newVirtualExecutor();
+            if (next == null) {
+                log.warn("virtual threads need JDK 21+, running on {}, fall back to pooled mode",
+                        System.getProperty("java.version"));
+            }
+        }
+        virtual = next != null;
+        executor = next != null ? next : newPool(config.getPoolThreads());
+        previous.shutdown();
+        gates.clear();
+        if (virtual) {
+            startPinningWatcher();
+        }
+        log.info("blocking execution mode: {}", virtual ? "virtual" : "pooled(" + config.getPoolThreads() + ")");
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    public static void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 取得资源许可后在执行线程上运行，任务结束即归还
+     */
+    public static void execute(String resource, Runnable task) {
+        acquire(resource, permit -> {
+            try {
+                task.run();
+            } finally {
+                permit.release();
+            }
+        });
+    }
+
+    /**
+     * 许可到手后在执行线程上调用 task，许可由 task 负责归还，可以跨异步回调持有；
+     * task 同步抛出异常时自动归还
+     */
+    public static void acquire(String resource, Consumer<Permit> task) {
+        gates.computeIfAbsent(resource, key -> new Gate(config.getPermits() == null ? DEFAULT_PERMITS
+                : config.getPermits().getOrDefault(key, DEFAULT_PERMITS))).submit(task);
+    }
+
+    /**
+     * 创建长期运行的线程，virtual 模式下为虚拟线程
+     */
+    public static Thread newThread(String name, Runnable task) {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                builder = builderType.getMethod("name", String.class).invoke(builder, name);
+                return (Thread) builderType.getMethod("unstarted", Runnable.class).invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                log.warn("create virtual thread {} failed: {}", name, e.getMessage());
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 各业务位置钉住载体线程的次数
+     */
+    public static Map<String, Long> pinnedStats() {
+        Map<String, Long> stats = new ConcurrentHashMap<>();
+        pinned.forEach((site, count) -> stats.put(site, count.sum()));
+        return stats;
+    }
+
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // 无界队列，不再因为队列满抛 RejectedExecutionException，并发由资源信号量控制
+    private static ExecutorService newPool(int threads) {
+        AtomicInteger index = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "blocking-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        var pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static void startPinningWatcher() {
+        if (!pinningWatcherStarted.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            var stream = new jdk.jfr.consumer.RecordingStream();
+            stream.enable("jdk.VirtualThreadPinned")
+                    .withThreshold(Duration.ofMillis(config.getPinnedThresholdMillis()))
+                    .withStackTrace();
+            stream.onEvent("jdk.VirtualThreadPinned", event -> {
+                String site = pinnedSite(event.getStackTrace());
+                pinned.computeIfAbsent(site, key -> new LongAdder()).increment();
+                log.warn("virtual thread pinned for {} ms at {}", event.getDuration().toMillis(), site);
+            });
+            stream.setReuse(true);
+            stream.startAsync();
+            log.info("virtual thread pinning watcher started, threshold {} ms", config.getPinnedThresholdMillis());
+        } catch (Exception | LinkageError e) {
+            log.warn("start virtual thread pinning watcher failed: {}", e.getMessage());
+        }
+    }
+
+    // 取最靠近栈顶的本项目栈帧，持久化层的 synchronized 和 JDBC 本地调用会落在这里
+    private static String pinnedSite(jdk.jfr.consumer.RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        for (var frame : stackTrace.getFrames()) {
+            var type = frame.getMethod().getType().getName();
+            if (type.startsWith("org.nekotori.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        var frames = stackTrace.getFrames();
+        return frames.isEmpty() ? "unknown"
+                : frames.get(0).getMethod().getType().getName() + "." + frames.get(0).getMethod().getName();
+    }
+
+    private static void start(Gate gate, Consumer<Permit> task) {
+        Permit permit = new Permit(gate);
+        executor.execute(() -> {
+            try {
+                task.accept(permit);
+            } catch (RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 单个资源的许可计数和等待队列，按提交顺序发放
+     */
+    private static final class Gate {
+
+        private final int permits;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final ArrayDeque<Consumer<Permit>> waiting = new ArrayDeque<>();
+
+        private int inUse;
+
+        private Gate(int permits) {
+            this.permits = Math.max(1, permits);
+        }
+
+        private void submit(Consumer<Permit> task) {
+            lock.lock();
+            try {
+                if (inUse >= permits) {
+                    waiting.addLast(task);
+                    return;
+                }
+                inUse++;
+            } finally {
+                lock.unlock();
+            }
+            start(this, task);
+        }
+
+        // 有人排队时许可直接转交，不经过空闲状态
+        private void release() {
+            Consumer<Permit> next;
+            lock.lock();
+            try {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    inUse--;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            start(this, next);
+        }
+    }
+
+    /**
+     * 资源许可，重复归还只生效一次
+     */
+    public static final class Permit {
+
+        private final Gate gate;
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(Gate gate) {
+            this.gate = gate;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                gate.release();
+            }
+        }
+    }
+}
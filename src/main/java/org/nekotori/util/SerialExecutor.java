@@ -0,0 +1,54 @@
+package org.nekotori.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 在底层执行器上按提交顺序逐个执行任务，同一时刻最多占用一个线程
+ */
+@Slf4j
+public class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final Executor delegate;
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+            delegate.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("serial task error", e);
+                }
+            }
+        } finally {
+            running.set(false);
+            // 释放标记之后可能又有新任务进来
+            schedule();
+        }
+    }
+}
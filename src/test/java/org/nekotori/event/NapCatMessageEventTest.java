@@ -0,0 +1,41 @@
+package org.nekotori.event;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.napcat.CommandRouter;
+import org.nekotori.napcat.GroupMessageEvent;
+import org.nekotori.napcat.IngestPolicies;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NapCatMessageEventTest {
+
+    private static GroupMessageEvent message(String raw) {
+        GroupMessageEvent event = new GroupMessageEvent();
+        event.setRaw_message(raw);
+        event.setMessage(List.of());
+        return event;
+    }
+
+    @Test
+    void handlerWithoutRouteIsRejected() {
+        var router = new CommandRouter<GroupMessageEvent>("test", new IngestPolicies(null));
+        var event = NapCatMessageEvent.of(router, source -> source);
+        // 没有声明 onCommand / onAt / onAny 时不再默认订阅全部消息
+        assertThrows(IllegalStateException.class, () -> event.handle(e -> { }));
+        assertTrue(router.ingestStats().isEmpty());
+    }
+
+    @Test
+    void onAnyRegistersTheCatchAllRoute() {
+        var router = new CommandRouter<GroupMessageEvent>("test", new IngestPolicies(null));
+        List<String> seen = new CopyOnWriteArrayList<>();
+        NapCatMessageEvent.of(router, source -> source)
+                .onAny()
+                .handle(e -> seen.add(e.getRaw_message()));
+        router.route(message("早上好"));
+        assertEquals(List.of("早上好"), seen);
+    }
+}
@@ -0,0 +1,82 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandRouterTest {
+
+    private final CommandRouter<GroupMessageEvent> router = new CommandRouter<>("test", new IngestPolicies(null));
+
+    private List<String> collect(Flux<GroupMessageEvent> flux) {
+        List<String> seen = new CopyOnWriteArrayList<>();
+        flux.subscribe(event -> seen.add(event.getRaw_message()));
+        return seen;
+    }
+
+    private static GroupMessageEvent message(String raw) {
+        GroupMessageEvent event = new GroupMessageEvent();
+        event.setSelf_id(1001);
+        event.setRaw_message(raw);
+        event.setMessage(List.of());
+        return event;
+    }
+
+    private static GroupMessageEvent atMessage(long qq, String text) {
+        MessageEvent.MessageElement at = new MessageEvent.MessageElement();
+        at.setType("at");
+        at.setData(new MessageEvent.MessageData());
+        at.getData().setQq(String.valueOf(qq));
+        GroupMessageEvent event = message("[CQ:at,qq=" + qq + "] " + text);
+        event.setMessage(List.of(at));
+        return event;
+    }
+
+    @Test
+    void commandNeedsPrefixAtABoundary() {
+        List<String> sd = collect(router.command("sd"));
+        for (String raw : List.of("-sd", "-sd 猫", "画一下 -sd 猫", "[CQ:reply,id=1]-sd 猫", "a-sd 猫", "sd 猫", "--sd")) {
+            router.route(message(raw));
+        }
+        // 裸的 -sd 也算命中；前缀前面必须是开头、空白或 CQ 码
+        assertEquals(List.of("-sd", "-sd 猫", "画一下 -sd 猫", "[CQ:reply,id=1]-sd 猫"), sd);
+    }
+
+    @Test
+    void commandNameMustMatchExactly() {
+        List<String> s = collect(router.command("s"));
+        List<String> sd = collect(router.command("sd"));
+        for (String raw : List.of("-sd 猫", "-s 猫", "-sdx 猫", "-sd -sd 两次", "-s -sd 都有")) {
+            router.route(message(raw));
+        }
+        assertEquals(List.of("-s 猫", "-s -sd 都有"), s);
+        // 同一指令在一条消息里出现多次只投递一次
+        assertEquals(List.of("-sd 猫", "-sd -sd 两次", "-s -sd 都有"), sd);
+    }
+
+    @Test
+    void atRouteOnlyTakesMentionsOfSelf() {
+        List<String> at = collect(router.at());
+        router.route(atMessage(1001, "在吗"));
+        router.route(atMessage(2002, "别理我"));
+        router.route(message("没有 at"));
+        assertEquals(List.of("[CQ:at,qq=1001] 在吗"), at);
+    }
+
+    @Test
+    void anyRouteTakesEverythingOnceRegistered() {
+        List<String> commands = collect(router.command("sd"));
+        router.route(message("早上好"));
+        assertTrue(commands.isEmpty());
+
+        List<String> any = collect(router.any());
+        router.route(message("早上好"));
+        router.route(message("-sd 猫"));
+        assertEquals(List.of("早上好", "-sd 猫"), any);
+        assertEquals(List.of("-sd 猫"), commands);
+    }
+}
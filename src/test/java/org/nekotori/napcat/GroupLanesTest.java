@@ -0,0 +1,125 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupLanesTest {
+
+    private static GroupLanes lanes(int count, int capacity) {
+        FileBasedBotConfiguration.Lanes config = new FileBasedBotConfiguration.Lanes();
+        config.setCount(count);
+        config.setCapacity(capacity);
+        return new GroupLanes(config);
+    }
+
+    private static GroupMessageEvent event(long groupId, long messageId) {
+        GroupMessageEvent event = new GroupMessageEvent();
+        event.setGroup_id(groupId);
+        event.setMessage_id(messageId);
+        return event;
+    }
+
+    @Test
+    void sameGroupRunsInOrder() throws Exception {
+        GroupLanes lanes = lanes(4, 8);
+        List<Long> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(200);
+        lanes.subscribe(Flux.range(0, 200).map(i -> event(42, i)), event -> {
+            seen.add(event.getMessage_id());
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void fullLanePausesDemandInsteadOfBlocking() throws Exception {
+        GroupLanes lanes = lanes(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(10);
+        AtomicReference<FluxSink<GroupMessageEvent>> sink = new AtomicReference<>();
+        lanes.subscribe(Flux.<GroupMessageEvent>create(sink::set), event -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            seen.add(event.getMessage_id());
+            done.countDown();
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            sink.get().next(event(7, i));
+        }
+        // 通道只能放下正在执行的一条和排队的两条，其余留在上游，投递方不等待
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals(0, sink.get().requestedFromDownstream());
+        assertTrue(lanes.stats().get(0).stalled() >= 1);
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void slowGroupDoesNotHoldOtherLanes() throws Exception {
+        GroupLanes lanes = lanes(8, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fast = new CountDownLatch(1);
+        long slowGroup = 1;
+        long fastGroup = 2;
+        while (laneOf(lanes, fastGroup) == laneOf(lanes, slowGroup)) {
+            fastGroup++;
+        }
+        long other = fastGroup;
+        lanes.subscribe(Flux.just(event(slowGroup, 0), event(other, 1)), event -> {
+            if (event.getGroup_id() == slowGroup) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                fast.countDown();
+            }
+        });
+
+        assertTrue(fast.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    // 用单条任务探测群号落在哪条通道：只有该通道的 executed 会增加
+    private static int laneOf(GroupLanes lanes, long groupId) throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        long[] before = lanes.stats().stream().mapToLong(GroupLanes.Stats::executed).toArray();
+        lanes.subscribe(Flux.just(event(groupId, 0)), event -> ran.countDown());
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        for (int attempt = 0; attempt < 100; attempt++) {
+            List<GroupLanes.Stats> stats = lanes.stats();
+            for (int i = 0; i < stats.size(); i++) {
+                if (stats.get(i).executed() > before[i]) {
+                    return i;
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("lane not found for " + groupId);
+    }
+}
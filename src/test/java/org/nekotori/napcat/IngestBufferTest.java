@@ -0,0 +1,133 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestBufferTest {
+
+    private static final class Harness extends BaseSubscriber<Event> {
+
+        final List<Event> received = new CopyOnWriteArrayList<>();
+
+        IngestBuffer<Event> buffer;
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            // 先不请求，模拟下游处理不过来
+        }
+
+        @Override
+        protected void hookOnNext(Event value) {
+            received.add(value);
+        }
+    }
+
+    private static Harness harness(int capacity, long blockTimeoutMillis) {
+        FileBasedBotConfiguration.Ingest config = new FileBasedBotConfiguration.Ingest();
+        config.setCapacity(capacity);
+        config.setBlockTimeoutMillis(blockTimeoutMillis);
+        IngestPolicies policies = new IngestPolicies(config);
+        AtomicReference<IngestBuffer<Event>> created = new AtomicReference<>();
+        Harness harness = new Harness();
+        Flux.<Event>create(sink -> {
+            IngestBuffer<Event> buffer = new IngestBuffer<>("test", policies, sink);
+            sink.onRequest(n -> buffer.drain());
+            created.set(buffer);
+        }).subscribe(harness);
+        harness.buffer = created.get();
+        return harness;
+    }
+
+    private static GroupMessageEvent chat(long messageId, String raw) {
+        GroupMessageEvent event = new GroupMessageEvent();
+        event.setMessage_id(messageId);
+        event.setRaw_message(raw);
+        return event;
+    }
+
+    private static MetaEvent heartbeat(long time) {
+        MetaEvent event = new MetaEvent();
+        event.setTime(time);
+        return event;
+    }
+
+    private static List<Long> ids(List<Event> events) {
+        return events.stream().map(event -> ((MessageEvent) event).getMessage_id()).toList();
+    }
+
+    @Test
+    void dropOldestEvictsTheOldestChat() {
+        Harness harness = harness(3, 5000);
+        for (long i = 1; i <= 5; i++) {
+            harness.buffer.offer(chat(i, "hello"));
+        }
+        assertEquals(3, harness.buffer.depth());
+        assertEquals(2, harness.buffer.stats().dropped(IngestBuffer.Policy.DROP_OLDEST));
+
+        harness.request(10);
+        assertEquals(List.of(3L, 4L, 5L), ids(harness.received));
+    }
+
+    @Test
+    void blockEvictsChatsAndNeverWaits() {
+        Harness harness = harness(2, 5000);
+        harness.buffer.offer(chat(1, "hello"));
+        harness.buffer.offer(chat(2, "hello"));
+        harness.buffer.offer(chat(3, "-sd 猫"));
+        harness.buffer.offer(chat(4, "-help"));
+        // 队列里已全是指令，新指令越过容量排队，入队立即返回
+        long start = System.nanoTime();
+        harness.buffer.offer(chat(5, "-roll"));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        // 普通聊天挤不掉指令，只能丢弃自己
+        harness.buffer.offer(chat(6, "hello"));
+
+        assertEquals(3, harness.buffer.depth());
+        harness.request(10);
+        assertEquals(List.of(3L, 4L, 5L), ids(harness.received));
+        assertEquals(0, harness.buffer.stats().dropped(IngestBuffer.Policy.BLOCK));
+    }
+
+    @Test
+    void blockOverflowIsBoundedAndExpiresOnTheConsumerSide() throws InterruptedException {
+        Harness harness = harness(2, 20);
+        for (long i = 1; i <= 5; i++) {
+            harness.buffer.offer(chat(i, "-sd " + i));
+        }
+        // 最多再占一倍容量，第 5 条直接丢弃
+        assertEquals(4, harness.buffer.depth());
+        assertEquals(1, harness.buffer.stats().dropped(IngestBuffer.Policy.BLOCK));
+
+        Thread.sleep(50);
+        harness.request(10);
+        // 容量内的指令照常投递，越过容量且等待超时的在消费端丢弃
+        assertEquals(List.of(1L, 2L), ids(harness.received));
+        assertEquals(3, harness.buffer.stats().dropped(IngestBuffer.Policy.BLOCK));
+    }
+
+    @Test
+    void latestKeepsOnlyTheNewestHeartbeat() {
+        Harness harness = harness(8, 5000);
+        harness.buffer.offer(heartbeat(1));
+        harness.buffer.offer(chat(1, "hello"));
+        harness.buffer.offer(heartbeat(2));
+        harness.buffer.offer(heartbeat(3));
+
+        assertEquals(2, harness.buffer.depth());
+        assertEquals(2, harness.buffer.stats().dropped(IngestBuffer.Policy.LATEST));
+
+        harness.request(10);
+        assertEquals(2, harness.received.size());
+        assertEquals(3L, harness.received.get(0).getTime());
+        assertEquals(1L, ((MessageEvent) harness.received.get(1)).getMessage_id());
+    }
+}
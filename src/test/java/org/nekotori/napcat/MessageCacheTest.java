@@ -0,0 +1,77 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCacheTest {
+
+    private static MessageEvent event(long id) {
+        MessageEvent event = new MessageEvent();
+        event.setMessage_id(id);
+        return event;
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() {
+        MessageCache cache = new MessageCache(4);
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<MessageEvent> pending = new CompletableFuture<>();
+
+        var first = cache.get(1, id -> {
+            loads.incrementAndGet();
+            return pending;
+        });
+        var second = cache.get(1, id -> {
+            loads.incrementAndGet();
+            return pending;
+        });
+        pending.complete(event(1));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, first.join().getMessage_id());
+        assertSame(first.join(), second.join());
+        assertNotNull(cache.getIfPresent(1));
+        assertEquals(1, cache.stats().coalesced());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        MessageCache cache = new MessageCache(2);
+        cache.put(event(1));
+        cache.put(event(2));
+        cache.getIfPresent(1);
+        cache.put(event(3));
+
+        assertNotNull(cache.getIfPresent(1));
+        assertNull(cache.getIfPresent(2));
+        assertNotNull(cache.getIfPresent(3));
+    }
+
+    @Test
+    void synchronousLoaderFailureDoesNotPoisonId() {
+        MessageCache cache = new MessageCache(4);
+
+        var failed = cache.get(7, id -> {
+            throw new IllegalStateException("link down");
+        });
+        assertThrows(CompletionException.class, failed::join);
+
+        var retried = cache.get(7, id -> CompletableFuture.completedFuture(event(id)));
+        assertEquals(7, retried.join().getMessage_id());
+    }
+
+    @Test
+    void asynchronousLoaderFailureAllowsRetry() {
+        MessageCache cache = new MessageCache(4);
+
+        var failed = cache.get(8, id -> CompletableFuture.failedFuture(new IllegalStateException("timeout")));
+        assertThrows(CompletionException.class, failed::join);
+
+        assertEquals(8, cache.get(8, id -> CompletableFuture.completedFuture(event(id))).join().getMessage_id());
+    }
+}
@@ -0,0 +1,134 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NapCatClientPoolTest {
+
+    private static final class FakeTransport implements NapCatTransport {
+
+        private volatile boolean open;
+
+        private volatile Listener listener;
+
+        @Override
+        public void connect(URI endpoint, String token, Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void send(String frame) {
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        void up() {
+            open = true;
+            listener.onOpen();
+        }
+
+        void down() {
+            open = false;
+            listener.onClose();
+        }
+    }
+
+    private final List<FakeTransport> transports = new ArrayList<>();
+
+    private final List<GroupMessageEvent> delivered = new CopyOnWriteArrayList<>();
+
+    private NapCatClientPool pool;
+
+    @BeforeEach
+    void start() throws Exception {
+        List<FileBasedBotConfiguration.OneBotWs> endpoints = new ArrayList<>();
+        for (String host : List.of("ws://a:3001", "ws://b:3001")) {
+            FileBasedBotConfiguration.OneBotWs endpoint = new FileBasedBotConfiguration.OneBotWs();
+            endpoint.setHost(host);
+            endpoint.setToken("");
+            endpoints.add(endpoint);
+        }
+        pool = new NapCatClientPool(endpoints, null, endpoint -> {
+            FakeTransport transport = new FakeTransport();
+            transports.add(transport);
+            return transport;
+        });
+        transports.forEach(FakeTransport::up);
+        pool.subscribeOn(GroupMessageEvent.class).subscribe(delivered::add);
+        // 两个账号各自先收到一条心跳，连接池由此知道自己的账号
+        transports.get(0).listener.onFrame(heartbeat(1001));
+        transports.get(1).listener.onFrame(heartbeat(1002));
+    }
+
+    @AfterEach
+    void stop() {
+        pool.getClients().forEach(NapCatMessageClient::close);
+    }
+
+    private static String heartbeat(long selfId) {
+        return "{\"post_type\":\"meta_event\",\"meta_event_type\":\"heartbeat\",\"self_id\":" + selfId + ",\"time\":1}";
+    }
+
+    private static String groupMessage(long selfId, long userId, long messageId, String realSeq) {
+        return "{\"post_type\":\"message\",\"message_type\":\"group\",\"sub_type\":\"normal\",\"self_id\":" + selfId
+                + ",\"user_id\":" + userId + ",\"group_id\":42,\"message_id\":" + messageId
+                + ",\"real_seq\":\"" + realSeq + "\",\"time\":1,\"raw_message\":\"hi\",\"message\":[]}";
+    }
+
+    @Test
+    void sameRealSeqFromTwoAccountsIsDispatchedOnce() {
+        // 同一条群消息，两个账号各自的 message_id 不同，real_seq 相同
+        transports.get(0).listener.onFrame(groupMessage(1001, 7, 501, "88"));
+        transports.get(1).listener.onFrame(groupMessage(1002, 7, 9301, "88"));
+        transports.get(1).listener.onFrame(groupMessage(1002, 7, 9302, "89"));
+
+        assertEquals(2, delivered.size());
+        assertEquals(List.of("88", "89"), delivered.stream().map(MessageEvent::getReal_seq).toList());
+        assertEquals(1, pool.duplicates());
+    }
+
+    @Test
+    void messagesFromPoolAccountsAreNotUserMessages() {
+        // 账号 1002 在群里发的消息被账号 1001 收到，不能当作用户消息再触发回复
+        transports.get(0).listener.onFrame(groupMessage(1001, 1002, 502, "90"));
+        transports.get(0).listener.onFrame(groupMessage(1001, 7, 503, "91"));
+
+        assertEquals(1, delivered.size());
+        assertEquals(7, delivered.get(0).getUser_id());
+    }
+
+    @Test
+    void linkIsJudgedByTheGroupOwnerNotTheReceiver() {
+        transports.get(0).listener.onFrame(groupMessage(1001, 7, 504, "92"));
+        transports.get(1).listener.onFrame(groupMessage(1002, 7, 9304, "92"));
+        NapCatMessageClient receiver = delivered.get(0).getClient();
+        NapCatMessageClient other = pool.getClients().get(0) == receiver
+                ? pool.getClients().get(1) : pool.getClients().get(0);
+
+        // 收到事件的连接断了，但群里另一个账号还能发
+        transports.get(pool.getClients().indexOf(receiver)).down();
+        assertFalse(receiver.isConnected());
+        assertTrue(receiver.isConnectedFor(42L));
+        assertSame(other, pool.ownerOf(42L));
+
+        transports.get(pool.getClients().indexOf(other)).down();
+        assertFalse(receiver.isConnectedFor(42L));
+    }
+}
@@ -0,0 +1,66 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NapCatEventDecoderTest {
+
+    private static final String GROUP_FRAME = """
+            {"self_id":3889001,"user_id":1318985307,"time":1732000000,"message_id":1934455,"message_type":"group",\
+            "sender":{"user_id":1318985307,"nickname":"neko","role":"member"},"raw_message":"[CQ:at,qq=3889001] 今天吃什么",\
+            "message":[{"type":"at","data":{"qq":"3889001"}},{"type":"text","data":{"text":" 今天吃什么"}}],\
+            "post_type":"message","group_id":123456789,"extra":{"nested":[1,2,3]}}""";
+
+    @Test
+    void decodesGroupMessageInOnePass() throws IOException {
+        Event event = NapCatEventDecoder.decode(GROUP_FRAME);
+
+        GroupMessageEvent message = assertInstanceOf(GroupMessageEvent.class, event);
+        assertEquals(123456789L, message.getGroup_id());
+        assertEquals(1318985307L, message.getUser_id());
+        assertEquals("neko", message.getSender().getNickname());
+        assertEquals("[CQ:at,qq=3889001] 今天吃什么", message.getRaw_message());
+    }
+
+    @Test
+    void decodesMessageElementsLazily() throws IOException {
+        MessageEvent message = (MessageEvent) NapCatEventDecoder.decode(GROUP_FRAME);
+
+        var elements = message.getMessage();
+        assertEquals(2, elements.size());
+        assertEquals("3889001", elements.get(0).getData().getQq());
+        assertEquals(" 今天吃什么", elements.get(1).getData().getText());
+        assertSame(elements, message.getMessage());
+    }
+
+    @Test
+    void decodesPrivateMessageAndMetaEvent() throws IOException {
+        assertInstanceOf(PrivateMessageEvent.class, NapCatEventDecoder.decode(
+                "{\"post_type\":\"message\",\"message_type\":\"private\",\"user_id\":1,\"message\":[]}"));
+        Event meta = NapCatEventDecoder.decode(
+                "{\"post_type\":\"meta_event\",\"meta_event_type\":\"heartbeat\",\"status\":{\"online\":true}}");
+        assertInstanceOf(MetaEvent.class, meta);
+        assertEquals("heartbeat", meta.getMeta_event_type());
+    }
+
+    @Test
+    void decodesActionResponse() throws IOException {
+        Object frame = NapCatEventDecoder.decodeFrame(
+                "{\"status\":\"failed\",\"retcode\":1400,\"message\":\"not found\",\"echo\":\"42\",\"data\":null}");
+
+        MessageRequestResponse response = assertInstanceOf(MessageRequestResponse.class, frame);
+        assertEquals("42", response.getEcho());
+        assertEquals(1400, response.getRetcode());
+        assertEquals("not found", response.getMessage());
+        assertThrows(IOException.class, () -> NapCatEventDecoder.decode(
+                "{\"status\":\"ok\",\"retcode\":0,\"echo\":\"1\",\"data\":{}}"));
+    }
+
+    @Test
+    void rejectsNonObjectFrame() {
+        assertThrows(IOException.class, () -> NapCatEventDecoder.decode("[1,2]"));
+    }
+}
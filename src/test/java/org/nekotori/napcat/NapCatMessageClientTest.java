@@ -0,0 +1,219 @@
+package org.nekotori.napcat;
+
+import cn.hutool.json.JSONUtil;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NapCatMessageClientTest {
+
+    private static final class FakeTransport implements NapCatTransport {
+
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+
+        private volatile boolean open;
+
+        private volatile Listener listener;
+
+        @Override
+        public void connect(URI endpoint, String token, Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void send(String frame) {
+            sent.add(frame);
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        void up() {
+            open = true;
+            listener.onOpen();
+        }
+
+        void down() {
+            open = false;
+            listener.onClose();
+        }
+    }
+
+    private static String echoOf(String frame) {
+        return JSONUtil.parseObj(frame).getStr("echo");
+    }
+
+    private static String respond(String echo) {
+        return "{\"status\":\"ok\",\"retcode\":0,\"echo\":\"" + echo + "\"}";
+    }
+
+    private static NapCatMessageClient client(FakeTransport transport) {
+        return new NapCatMessageClient(URI.create("ws://localhost:0"), "", null, transport);
+    }
+
+    @Test
+    void queuedCallSurvivesReconnect() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+
+        var future = client.call("get_status", Map.of(), Duration.ofSeconds(5));
+        assertTrue(transport.sent.isEmpty());
+        // 帧还没发出去，断线不应让调用失败
+        transport.listener.onClose();
+        assertFalse(future.isDone());
+
+        transport.up();
+        assertEquals(1, transport.sent.size());
+        String echo = echoOf(transport.sent.get(0));
+        assertNotNull(echo);
+        transport.listener.onFrame(respond(echo));
+        assertTrue(future.join().isOk());
+        assertEquals(0, client.pendingCalls());
+        client.close();
+    }
+
+    @Test
+    void sentCallFailsOnDisconnect() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+        transport.up();
+
+        var future = client.call("get_status", Map.of(), Duration.ofSeconds(5));
+        assertEquals(1, transport.sent.size());
+        transport.down();
+
+        var e = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(0, client.pendingCalls());
+        client.close();
+    }
+
+    @Test
+    void timedOutCallIsNotReplayed() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+
+        var future = client.call("get_status", Map.of(), Duration.ofMillis(20));
+        var e = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+
+        transport.up();
+        assertTrue(transport.sent.isEmpty());
+        client.close();
+    }
+
+    @Test
+    void closeFailsQueuedCalls() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+
+        var future = client.call("get_status", Map.of(), Duration.ofSeconds(5));
+        client.close();
+
+        assertThrows(CompletionException.class, future::join);
+        assertEquals(0, client.pendingCalls());
+        assertFalse(client.sendCommand("{}"));
+    }
+
+    @Test
+    void fullQueueFailsDroppedCall() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+
+        var first = client.call("get_status", Map.of(), Duration.ofSeconds(5));
+        for (int i = 0; i < 512; i++) {
+            client.sendCommand("{}");
+        }
+
+        var e = assertThrows(CompletionException.class, first::join);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        client.close();
+    }
+
+    @Test
+    void responsesAreMatchedByEcho() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+        transport.up();
+
+        var first = client.call("get_status", Map.of(), Duration.ofSeconds(5));
+        var second = client.call("get_status", Map.of(), Duration.ofSeconds(5));
+        String firstEcho = echoOf(transport.sent.get(0));
+        String secondEcho = echoOf(transport.sent.get(1));
+        assertNotEquals(firstEcho, secondEcho);
+
+        // 响应乱序到达，仍按 echo 交给各自的调用
+        transport.listener.onFrame(respond(secondEcho));
+        assertTrue(second.isDone());
+        assertFalse(first.isDone());
+        transport.listener.onFrame(respond(firstEcho));
+        assertEquals(firstEcho, first.join().getEcho());
+        assertEquals(secondEcho, second.join().getEcho());
+        // 没有对应调用的响应直接忽略
+        transport.listener.onFrame(respond("get_status#999"));
+        assertEquals(0, client.pendingCalls());
+        client.close();
+    }
+
+    @Test
+    void callTimesOutAndLateResponseIsIgnored() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+        transport.up();
+
+        var future = client.call("get_status", Map.of(), Duration.ofMillis(20));
+        String echo = echoOf(transport.sent.get(0));
+        var e = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals(0, client.pendingCalls());
+
+        transport.listener.onFrame(respond(echo));
+        assertTrue(future.isCompletedExceptionally());
+        client.close();
+    }
+
+    @Test
+    void parseAsyncSkipsReplyThatFailsToLoad() {
+        FakeTransport transport = new FakeTransport();
+        NapCatMessageClient client = client(transport);
+        transport.up();
+
+        MessageEvent.MessageElement reply = new MessageEvent.MessageElement();
+        reply.setType("reply");
+        reply.setData(new MessageEvent.MessageData());
+        reply.getData().setId("42");
+        MessageEvent.MessageElement text = new MessageEvent.MessageElement();
+        text.setType("text");
+        text.setData(new MessageEvent.MessageData());
+        text.getData().setText("画只猫");
+        GroupMessageEvent event = new GroupMessageEvent();
+        event.setClient(client);
+        event.setMessage(List.of(reply, text));
+
+        var parsed = MessageBuilder.parseAsync(event);
+        // 解析不阻塞调用线程，引用的消息还在加载
+        assertFalse(parsed.isDone());
+        String echo = echoOf(transport.sent.get(0));
+        transport.listener.onFrame("{\"status\":\"failed\",\"retcode\":1400,\"echo\":\"" + echo + "\"}");
+
+        List<Message> messages = parsed.join();
+        assertEquals(1, messages.size());
+        assertEquals("画只猫", messages.get(0).getData().get("text"));
+        client.close();
+    }
+}
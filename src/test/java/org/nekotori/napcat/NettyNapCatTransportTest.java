@@ -0,0 +1,151 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NettyNapCatTransportTest {
+
+    private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger serverClosed = new AtomicInteger();
+
+    private DisposableServer server;
+
+    private URI endpoint;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.ws("/", (in, out) -> {
+                    in.receive().asString().doFinally(signal -> serverClosed.incrementAndGet()).subscribe(received::add);
+                    return out.sendString(Flux.range(0, 100).map(String::valueOf)).neverComplete();
+                }))
+                .bindNow();
+        endpoint = new URI("ws://127.0.0.1:" + server.port() + "/");
+    }
+
+    @AfterEach
+    void stop() {
+        server.disposeNow();
+    }
+
+    private static class Recorder implements NapCatTransport.Listener {
+
+        final List<String> frames = new CopyOnWriteArrayList<>();
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CountDownLatch all = new CountDownLatch(100);
+
+        @Override
+        public void onOpen() {
+        }
+
+        @Override
+        public void onFrame(String frame) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            frames.add(frame);
+            all.countDown();
+        }
+
+        @Override
+        public void onClose() {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+    }
+
+    @Test
+    void blockedListenerDoesNotStallOutbound() throws Exception {
+        NettyNapCatTransport transport = new NettyNapCatTransport();
+        Recorder recorder = new Recorder();
+        transport.connect(endpoint, "test", recorder);
+        try {
+            // 分发线程卡在第一帧上，事件循环仍然能把出站帧写出去
+            transport.send("ping");
+            assertEquals("ping", received.poll(5, TimeUnit.SECONDS));
+            assertTrue(recorder.frames.isEmpty());
+
+            recorder.release.countDown();
+            assertTrue(recorder.all.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(String.valueOf(i), recorder.frames.get(i));
+            }
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    void connectionsDoNotShareEventLoop() throws Exception {
+        NettyNapCatTransport blocked = new NettyNapCatTransport();
+        NettyNapCatTransport other = new NettyNapCatTransport();
+        Recorder stuck = new Recorder();
+        Recorder free = new Recorder();
+        free.release.countDown();
+        blocked.connect(endpoint, "test", stuck);
+        other.connect(endpoint, "test", free);
+        try {
+            assertTrue(free.all.await(5, TimeUnit.SECONDS));
+            assertTrue(stuck.frames.isEmpty());
+        } finally {
+            stuck.release.countDown();
+            blocked.close();
+            other.close();
+        }
+    }
+
+    @Test
+    void reconnectDisposesOldConnectionAndIgnoresItsCallbacks() throws Exception {
+        NettyNapCatTransport transport = new NettyNapCatTransport();
+        Recorder recorder = new Recorder();
+        recorder.release.countDown();
+        AtomicInteger closes = new AtomicInteger();
+        NapCatTransport.Listener listener = new Recorder() {
+            @Override
+            public void onFrame(String frame) {
+                recorder.onFrame(frame);
+            }
+
+            @Override
+            public void onClose() {
+                closes.incrementAndGet();
+            }
+        };
+        transport.connect(endpoint, "test", listener);
+        try {
+            // 旧连接还没断就重连，旧连接的结束回调不能把新连接标成断开
+            transport.connect(endpoint, "test", listener);
+            Thread.sleep(200);
+            assertEquals(1, serverClosed.get());
+            assertEquals(0, closes.get());
+            assertTrue(transport.isOpen());
+            transport.send("ping");
+            assertEquals("ping", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.nekotori.napcat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TyrusNapCatTransportTest {
+
+    private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger serverClosed = new AtomicInteger();
+
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private DisposableServer server;
+
+    private URI endpoint;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes.ws("/", (in, out) -> {
+                    sessions.incrementAndGet();
+                    in.receive().asString().doFinally(signal -> serverClosed.incrementAndGet()).subscribe(received::add);
+                    return out.sendString(Flux.just("hello")).neverComplete();
+                }))
+                .bindNow();
+        endpoint = new URI("ws://127.0.0.1:" + server.port() + "/");
+    }
+
+    @AfterEach
+    void stop() {
+        server.disposeNow();
+    }
+
+    private static class Counter implements NapCatTransport.Listener {
+
+        final AtomicInteger opens = new AtomicInteger();
+
+        final AtomicInteger closes = new AtomicInteger();
+
+        final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void onOpen() {
+            opens.incrementAndGet();
+        }
+
+        @Override
+        public void onFrame(String frame) {
+        }
+
+        @Override
+        public void onClose() {
+            closes.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.incrementAndGet();
+        }
+    }
+
+    @Test
+    void reconnectClosesOldSessionAndIgnoresItsCallbacks() throws Exception {
+        TyrusNapCatTransport transport = new TyrusNapCatTransport();
+        Counter counter = new Counter();
+        transport.connect(endpoint, "test", counter);
+        // 旧会话还开着时重连：旧会话被关掉，它的关闭回调不能让客户端以为新连接断了
+        transport.connect(endpoint, "test", counter);
+        try {
+            Thread.sleep(300);
+            assertEquals(2, sessions.get());
+            assertEquals(1, serverClosed.get());
+            assertEquals(2, counter.opens.get());
+            assertEquals(0, counter.closes.get());
+            assertEquals(0, counter.errors.get());
+            assertTrue(transport.isOpen());
+            transport.send("ping");
+            assertEquals("ping", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            transport.close();
+        }
+        Thread.sleep(300);
+        assertEquals(1, counter.closes.get());
+    }
+}
@@ -0,0 +1,82 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+    private static AdaptiveLimiter limiter(String provider, FileBasedBotConfiguration.Limit limit) {
+        FileBasedBotConfiguration.Llm llm = new FileBasedBotConfiguration.Llm();
+        llm.setLimits(Map.of(provider, limit));
+        AdaptiveLimiter.configure(llm);
+        return AdaptiveLimiter.of(provider, "test-key");
+    }
+
+    @Test
+    void tryAcquireStopsAtLimit() {
+        AdaptiveLimiter limiter = limiter("at-limit-test", FileBasedBotConfiguration.Limit.of(0, 0, 2, 2, 60_000));
+        AdaptiveLimiter.Lease first = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+
+        assertTrue(first.release());
+        assertFalse(first.release());
+        assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    void busySuccessIncreasesLimit() {
+        AdaptiveLimiter limiter = limiter("increase-test", FileBasedBotConfiguration.Limit.of(0, 0, 1, 4, 60_000));
+        AdaptiveLimiter.Lease lease = limiter.tryAcquire();
+        lease.onResponse(200);
+        lease.release();
+
+        assertEquals(2.0, limiter.stats().limit(), 1e-9);
+        assertEquals(1, limiter.stats().successes());
+    }
+
+    @Test
+    void overloadBacksOffOncePerCooldown() {
+        AdaptiveLimiter limiter = limiter("backoff-test", FileBasedBotConfiguration.Limit.of(0, 0, 4, 8, 60_000));
+        AdaptiveLimiter.Lease first = limiter.tryAcquire();
+        AdaptiveLimiter.Lease second = limiter.tryAcquire();
+        first.onResponse(429);
+        // 冷却期内的第二次失败只计数，不再收缩
+        second.onFailure();
+
+        assertEquals(4 * 0.7, limiter.stats().limit(), 1e-9);
+        assertEquals(2, limiter.stats().overloads());
+    }
+
+    @Test
+    void cancelRefundsRequestQuota() {
+        AdaptiveLimiter limiter = limiter("refund-test", FileBasedBotConfiguration.Limit.of(1, 0, 4, 4, 60_000));
+        AdaptiveLimiter.Lease lease = limiter.tryAcquire();
+        assertNotNull(lease);
+        lease.cancel();
+        assertEquals(0, limiter.stats().inFlight());
+
+        AdaptiveLimiter.Lease again = limiter.tryAcquire();
+        assertNotNull(again);
+        again.release();
+        // 用掉的配额不退，桶空时等下一次补充
+        assertNull(limiter.tryAcquire());
+        assertTrue(limiter.nanosUntilAdmit() > 0);
+    }
+
+    @Test
+    void keysSharingSuffixGetSeparateLimiters() {
+        AdaptiveLimiter.configure(null);
+        AdaptiveLimiter first = AdaptiveLimiter.of("key-test", "sk-aaaa-1234");
+        AdaptiveLimiter second = AdaptiveLimiter.of("key-test", "sk-bbbb-1234");
+
+        assertNotSame(first, second);
+        assertSame(first, AdaptiveLimiter.of("key-test", "sk-aaaa-1234"));
+        assertFalse(first.name().contains("1234"));
+    }
+}
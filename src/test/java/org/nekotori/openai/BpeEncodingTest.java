@@ -0,0 +1,69 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BpeEncodingTest {
+
+    @TempDir
+    Path dir;
+
+    // 单字节的 rank 等于字节值，merges 依次从 256 往后编号
+    private BpeEncoding encoding(String... merges) throws IOException {
+        List<String> lines = new ArrayList<>();
+        Base64.Encoder encoder = Base64.getEncoder();
+        for (int b = 0; b < 256; b++) {
+            lines.add(encoder.encodeToString(new byte[]{(byte) b}) + " " + b);
+        }
+        for (int i = 0; i < merges.length; i++) {
+            lines.add(encoder.encodeToString(merges[i].getBytes(StandardCharsets.UTF_8)) + " " + (256 + i));
+        }
+        Path file = dir.resolve("test.tiktoken");
+        Files.write(file, lines, StandardCharsets.US_ASCII);
+        return BpeEncoding.load("cl100k_test", file);
+    }
+
+    @Test
+    void lowerRankMergesFirst() throws IOException {
+        assertEquals(List.of(256, (int) 'c'), encoding("ab", "bc").encode("abc"));
+        assertEquals(List.of((int) 'a', 256), encoding("bc", "ab").encode("abc"));
+    }
+
+    @Test
+    void equalRanksMergeLeftmost() throws IOException {
+        assertEquals(List.of(256, (int) 'a'), encoding("aa").encode("aaa"));
+    }
+
+    @Test
+    void mergesBuildOnEarlierMerges() throws IOException {
+        BpeEncoding encoding = encoding("ab", "cd", "abcd");
+        assertEquals(List.of(258, (int) 'e'), encoding.encode("abcde"));
+        assertEquals(List.of(258), encoding.encode("abcd"));
+    }
+
+    @Test
+    void multiByteCharacters() throws IOException {
+        assertEquals(3, encoding().count("你"));
+        assertEquals(1, encoding("你").count("你"));
+    }
+
+    @Test
+    void countMatchesEncodeAcrossPieces() throws IOException {
+        BpeEncoding encoding = encoding("ab", " a", " ab", "12");
+        String text = "ab ab 1234, 你好!\n";
+        assertEquals(encoding.encode(text).size(), encoding.count(text));
+        // 第二次走片段缓存
+        assertEquals(encoding.encode(text).size(), encoding.count(text));
+        assertEquals(0, encoding.count(""));
+    }
+}
@@ -0,0 +1,49 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatDeltaParserTest {
+
+    @Test
+    void firstChoiceDelta() throws IOException {
+        var delta = ChatDeltaParser.parseChatChunk("{\"id\":\"x\",\"meta\":{\"a\":[1,2,{\"b\":3}]},"
+                + "\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"你好\","
+                + "\"reasoning_content\":\"想一想\"}},{\"index\":1,\"delta\":{\"content\":\"别的\"}}]}");
+
+        assertEquals("你好", delta.content());
+        assertEquals("想一想", delta.reasoningContent());
+        assertFalse(delta.done());
+    }
+
+    @Test
+    void nullAndMissingFields() throws IOException {
+        var delta = ChatDeltaParser.parseChatChunk("{\"choices\":[{\"delta\":{\"content\":null}}]}");
+        assertNull(delta.content());
+        assertNull(delta.reasoningContent());
+
+        assertNull(ChatDeltaParser.parseChatChunk("{\"choices\":[]}").content());
+        assertNull(ChatDeltaParser.parseChatChunk("{\"usage\":{\"total_tokens\":3}}").content());
+        assertNull(ChatDeltaParser.parseChatChunk("[]").content());
+    }
+
+    @Test
+    void ollamaLine() throws IOException {
+        var delta = ChatDeltaParser.parseOllamaLine("{\"model\":\"qwen\",\"message\":{\"role\":\"assistant\","
+                + "\"content\":\"喵\",\"images\":null},\"done\":false}");
+        assertEquals("喵", delta.content());
+        assertFalse(delta.done());
+
+        var last = ChatDeltaParser.parseOllamaLine("{\"message\":{\"content\":\"\"},\"done\":true,\"eval_count\":12}");
+        assertEquals("", last.content());
+        assertTrue(last.done());
+    }
+
+    @Test
+    void malformedChunkThrows() {
+        assertThrows(IOException.class, () -> ChatDeltaParser.parseChatChunk("{\"choices\":[{\"delta\":"));
+    }
+}
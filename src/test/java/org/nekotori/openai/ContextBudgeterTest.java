@@ -0,0 +1,42 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextBudgeterTest {
+
+    @Test
+    void keepsLongestSuffixThatFits() {
+        ContextBudgeter budgeter = ContextBudgeter.of("test", 6);
+        List<String> kept = budgeter.fitRecent(List.of("aaaa", "bbb", "cc", "d"), String::length);
+
+        assertEquals(List.of("bbb", "cc", "d"), kept);
+        assertEquals(0, budgeter.remaining());
+    }
+
+    @Test
+    void stopsAtFirstMessageThatDoesNotFit() {
+        ContextBudgeter budgeter = ContextBudgeter.of("test", 5);
+        // 更早的短消息放得下也不跳着带，保证带上的是连续的一段
+        assertEquals(List.of("c"), budgeter.fitRecent(List.of("a", "bbbbbbbb", "c"), String::length));
+        assertEquals(4, budgeter.remaining());
+    }
+
+    @Test
+    void reservedTokensComeOffTheBudget() {
+        ContextBudgeter budgeter = ContextBudgeter.of("test", 10).reserve(8);
+        assertEquals(List.of("b"), budgeter.fitRecent(List.of("aa", "b"), String::length));
+
+        ContextBudgeter exhausted = ContextBudgeter.of("test", 3).reserve(5);
+        assertTrue(exhausted.fitRecent(List.of("a"), String::length).isEmpty());
+    }
+
+    @Test
+    void wholeHistoryFitsWhenBudgetAllows() {
+        ContextBudgeter budgeter = ContextBudgeter.of("test", 100);
+        assertEquals(List.of("a", "b", "c"), budgeter.fitRecent(List.of("a", "b", "c"), String::length));
+    }
+}
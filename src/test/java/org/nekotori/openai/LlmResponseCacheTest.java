@@ -0,0 +1,178 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmResponseCacheTest {
+
+    private static final LlmCallContext GROUP_A =
+            new LlmCallContext(42L, 7, LlmCallContext.Priority.COMMAND, "sd");
+
+    private static final LlmCallContext GROUP_B =
+            new LlmCallContext(43L, 8, LlmCallContext.Priority.COMMAND, "sd");
+
+    // 一个调用方：记录收到的分段和拒绝，以及缓存让它自己发起的调用
+    private static final class Caller {
+
+        final List<String> segments = new CopyOnWriteArrayList<>();
+
+        final List<LlmScheduler.RejectReason> rejected = new CopyOnWriteArrayList<>();
+
+        final AtomicInteger upstreamCalls = new AtomicInteger();
+
+        final AtomicReference<LlmResponseCache.Flight> flight = new AtomicReference<>();
+
+        Caller begin(LlmCallContext context, ChatRequest request) {
+            LlmResponseCache.begin("test", context, request, segments::add, rejected::add, created -> {
+                upstreamCalls.incrementAndGet();
+                flight.set(created);
+            });
+            return this;
+        }
+
+        // 分段经 BlockingExecution 异步投递
+        void awaitSegments(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (segments.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, segments.size());
+        }
+
+        void awaitRejected() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (rejected.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(rejected.isEmpty());
+        }
+    }
+
+    @BeforeEach
+    void reset() {
+        configure(60, 512, 1_000_000);
+    }
+
+    private static void configure(long ttlSeconds, int maxEntries, long maxChars) {
+        FileBasedBotConfiguration.Llm llm = new FileBasedBotConfiguration.Llm();
+        llm.setCacheTtlSeconds(Map.of("sd", ttlSeconds));
+        llm.setCacheMaxEntries(maxEntries);
+        llm.setCacheMaxChars(maxChars);
+        LlmResponseCache.configure(llm);
+        LlmResponseCache.clear();
+    }
+
+    private static ChatRequest request(String prompt) {
+        ChatRequest request = new ChatRequest();
+        request.getMessages().add(new ChatMessage("user", prompt));
+        return request;
+    }
+
+    // 走一次完整的上游调用并写入缓存
+    private static void complete(String prompt, String... segments) {
+        Caller caller = new Caller().begin(GROUP_A, request(prompt));
+        assertEquals(1, caller.upstreamCalls.get());
+        for (String segment : segments) {
+            caller.flight.get().emit(segment);
+        }
+        caller.flight.get().finish(true);
+    }
+
+    private static boolean cached(String prompt) {
+        return new Caller().begin(GROUP_A, request(prompt)).upstreamCalls.get() == 0;
+    }
+
+    @Test
+    void sameRequestInFlightCallsUpstreamOnce() throws InterruptedException {
+        Caller leader = new Caller().begin(GROUP_A, request("画一只猫"));
+        leader.flight.get().emit("第一行");
+        // 后来者先补到已收到的分段，再接着收后续分段
+        Caller joined = new Caller().begin(GROUP_B, request("画一只猫"));
+        leader.flight.get().emit("第二行");
+        leader.flight.get().finish(true);
+
+        assertEquals(1, leader.upstreamCalls.get());
+        assertEquals(0, joined.upstreamCalls.get());
+        leader.awaitSegments(2);
+        joined.awaitSegments(2);
+        assertEquals(List.of("第一行", "第二行"), joined.segments);
+
+        Caller hit = new Caller().begin(GROUP_A, request("画一只猫"));
+        assertEquals(0, hit.upstreamCalls.get());
+        hit.awaitSegments(2);
+        LlmResponseCache.Stats stats = LlmResponseCache.stats();
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.coalesced());
+        assertEquals(1, stats.hits());
+    }
+
+    @Test
+    void rejectedLeaderLetsJoinedCallersCallThemselves() throws InterruptedException {
+        Caller leader = new Caller().begin(GROUP_A, request("画一只狗"));
+        Caller joined = new Caller().begin(GROUP_B, request("画一只狗"));
+        assertEquals(0, joined.upstreamCalls.get());
+
+        // 领头的群预算用完，另一个群的请求不该跟着被拒
+        leader.flight.get().reject(LlmScheduler.RejectReason.BUDGET);
+        leader.awaitRejected();
+        assertEquals(List.of(LlmScheduler.RejectReason.BUDGET), leader.rejected);
+        assertEquals(1, joined.upstreamCalls.get());
+        assertTrue(joined.rejected.isEmpty());
+
+        joined.flight.get().emit("一只狗");
+        joined.flight.get().finish(true);
+        joined.awaitSegments(1);
+        assertEquals(0, LlmResponseCache.stats().inFlight());
+    }
+
+    @Test
+    void expiredEntryIsFetchedAgain() throws InterruptedException {
+        configure(1, 512, 1_000_000);
+        complete("画一只鸟", "一只鸟");
+        assertTrue(cached("画一只鸟"));
+
+        Thread.sleep(1_100);
+        assertFalse(cached("画一只鸟"));
+        assertEquals(0, LlmResponseCache.stats().size());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedByEntryCount() {
+        configure(60, 2, 1_000_000);
+        complete("a", "回复 a");
+        complete("b", "回复 b");
+        // 读一次 a，b 成为最久未用的
+        assertTrue(cached("a"));
+        complete("c", "回复 c");
+
+        assertEquals(2, LlmResponseCache.stats().size());
+        assertEquals(1, LlmResponseCache.stats().evictions());
+        assertTrue(cached("a"));
+        assertTrue(cached("c"));
+        assertFalse(cached("b"));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedByTotalChars() {
+        configure(60, 512, 10);
+        complete("a", "12345");
+        complete("b", "12345");
+        complete("c", "123");
+
+        assertEquals(2, LlmResponseCache.stats().size());
+        assertEquals(8, LlmResponseCache.stats().chars());
+        assertFalse(cached("a"));
+        assertTrue(cached("b"));
+        assertTrue(cached("c"));
+    }
+}
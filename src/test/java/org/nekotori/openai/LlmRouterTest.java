@@ -0,0 +1,55 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmRouterTest {
+
+    // 按 Route 的 EWMA 规则推进 n 次失败后的错误率
+    private static double errorRateAfterFailures(int n) {
+        double errorRate = 0;
+        for (int i = 0; i < n; i++) {
+            errorRate = errorRate * 0.8 + 0.2;
+        }
+        return errorRate;
+    }
+
+    @Test
+    void alwaysFailingProviderRanksBehindSlowHealthyOne() {
+        double failing = LlmRouter.score(0, errorRateAfterFailures(5));
+        double slow = LlmRouter.score(8_000, 0);
+
+        assertTrue(failing > slow);
+    }
+
+    @Test
+    void singleFailureDoesNotOutweighLargeLatencyGap() {
+        double fastWithOneError = LlmRouter.score(1_000, errorRateAfterFailures(1));
+        double verySlow = LlmRouter.score(15_000, 0);
+
+        assertTrue(fastWithOneError < verySlow);
+    }
+
+    @Test
+    void unsampledProviderIsTriedFirst() {
+        assertEquals(0, LlmRouter.score(0, 0));
+        assertTrue(LlmRouter.score(0, 0) < LlmRouter.score(500, 0));
+    }
+
+    @Test
+    void localOnlyNeedsALocalRouteInTheClass() {
+        FileBasedBotConfiguration.Routing routing = new FileBasedBotConfiguration.Routing();
+        routing.setClasses(Map.of("chat", List.of("deepseek"), "mixed", List.of("deepseek", "ollama")));
+        LlmRouter.configure(routing, "test-key");
+
+        // 默认只有 deepseek 的 chat 类降级到只用本地时没有候选，仍按正常路由
+        assertFalse(LlmRouter.hasLocalRoute("chat"));
+        assertTrue(LlmRouter.hasLocalRoute("mixed"));
+        assertFalse(LlmRouter.hasLocalRoute("missing"));
+    }
+}
@@ -0,0 +1,170 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmSchedulerTest {
+
+    // 模拟旧接口：客户端内部用 unknown() 补上下文
+    private static final class LegacyClient {
+        static LlmCallContext invoke() {
+            return LlmCallContext.unknown();
+        }
+    }
+
+    // 并发上限固定为 1，出队顺序就是执行顺序
+    private static LlmScheduler scheduler(String provider) {
+        return scheduler(provider, 1);
+    }
+
+    private static LlmScheduler scheduler(String provider, int quantum) {
+        FileBasedBotConfiguration.Llm llm = new FileBasedBotConfiguration.Llm();
+        llm.setQuantum(quantum);
+        FileBasedBotConfiguration.Limit limit = FileBasedBotConfiguration.Limit.of(0, 0, 1, 1, 60_000);
+        llm.setLimits(Map.of(provider, limit));
+        AdaptiveLimiter.configure(llm);
+        LlmScheduler.configure(llm);
+        return LlmScheduler.of(AdaptiveLimiter.of(provider, "test-key"));
+    }
+
+    private static LlmCallContext context(long groupId, LlmCallContext.Priority priority) {
+        return new LlmCallContext(groupId, 1, priority, "test");
+    }
+
+    // 占住唯一的名额，返回的 future 完成时归还
+    private static CompletableFuture<Void> hold(LlmScheduler scheduler) throws InterruptedException {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(context(0, LlmCallContext.Priority.DIRECT), 1, slot -> {
+            started.countDown();
+            release.thenRun(slot::release);
+        }, reason -> fail("holder rejected: " + reason));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static void record(LlmScheduler scheduler, LlmCallContext context, List<String> order, CountDownLatch done) {
+        record(scheduler, context, 1, order, done);
+    }
+
+    private static void record(LlmScheduler scheduler, LlmCallContext context, int tokens, List<String> order,
+                               CountDownLatch done) {
+        scheduler.submit(context, tokens, slot -> {
+            order.add(context.priority().name().charAt(0) + ":" + context.groupId());
+            slot.release();
+            done.countDown();
+        }, reason -> fail("rejected: " + reason));
+    }
+
+    @Test
+    void groupsTakeTurnsWithinPriority() throws Exception {
+        LlmScheduler scheduler = scheduler("drr-test");
+        var release = hold(scheduler);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 3; i++) {
+            record(scheduler, context(1, LlmCallContext.Priority.DIRECT), order, done);
+        }
+        record(scheduler, context(2, LlmCallContext.Priority.DIRECT), order, done);
+        record(scheduler, context(2, LlmCallContext.Priority.DIRECT), order, done);
+        release.complete(null);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("D:1", "D:2", "D:1", "D:2", "D:1"), order);
+    }
+
+    @Test
+    void longRequestsSpendMoreOfTheGroupShare() throws Exception {
+        LlmScheduler scheduler = scheduler("weighted-drr-test", 1000);
+        var release = hold(scheduler);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        // 群 1 先到但一次要 3000 token，群 2 的短请求不用等它攒够额度
+        record(scheduler, context(1, LlmCallContext.Priority.DIRECT), 3000, order, done);
+        for (int i = 0; i < 3; i++) {
+            record(scheduler, context(2, LlmCallContext.Priority.DIRECT), 500, order, done);
+        }
+        release.complete(null);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("D:2", "D:2", "D:2", "D:1"), order);
+    }
+
+    @Test
+    void legacyCallSitesQueueSeparately() {
+        LlmCallContext first = LegacyClient.invoke();
+        LlmCallContext second = LegacyClient.invoke();
+        // 调用位置是客户端的调用方，不是客户端自己
+        assertTrue(first.callSite().startsWith("unknown:" + LlmSchedulerTest.class.getName() + ".legacyCallSitesQueueSeparately:"));
+        assertNotEquals(first.callSite(), second.callSite());
+        assertNotEquals(first.fairnessKey(), second.fairnessKey());
+        assertEquals(first.fairnessKey(), new LlmCallContext(null, 0, LlmCallContext.Priority.COMMAND,
+                first.callSite()).fairnessKey());
+        // 群和私聊的键不受影响
+        assertEquals(42L, context(42, LlmCallContext.Priority.DIRECT).fairnessKey());
+        assertEquals(-7L, new LlmCallContext(null, 7, LlmCallContext.Priority.DIRECT, "private").fairnessKey());
+    }
+
+    @Test
+    void completionTokensAreChargedWhenTheStreamEnds() throws Exception {
+        FileBasedBotConfiguration.Llm llm = new FileBasedBotConfiguration.Llm();
+        llm.setLimits(Map.of("tpm-test", FileBasedBotConfiguration.Limit.of(0, 6000, 4, 4, 60_000)));
+        AdaptiveLimiter.configure(llm);
+        LlmScheduler.configure(llm);
+        AdaptiveLimiter limiter = AdaptiveLimiter.of("tpm-test", "test-key");
+        LlmScheduler scheduler = LlmScheduler.of(limiter);
+
+        CompletableFuture<LlmScheduler.Slot> admitted = new CompletableFuture<>();
+        scheduler.submit(context(1, LlmCallContext.Priority.DIRECT), 1000, admitted::complete,
+                reason -> fail("rejected: " + reason));
+        LlmScheduler.Slot slot = admitted.get(5, TimeUnit.SECONDS);
+        assertEquals(5000, limiter.stats().tokenBucket(), 10);
+
+        // 输出的 token 在流结束时补扣，重复归还不会重复扣
+        slot.release(3000);
+        slot.release(3000);
+        assertEquals(2000, limiter.stats().tokenBucket(), 10);
+    }
+
+    @Test
+    void higherPriorityFirst() throws Exception {
+        LlmScheduler scheduler = scheduler("priority-test");
+        var release = hold(scheduler);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        record(scheduler, context(1, LlmCallContext.Priority.AMBIENT), order, done);
+        record(scheduler, context(2, LlmCallContext.Priority.COMMAND), order, done);
+        record(scheduler, context(3, LlmCallContext.Priority.DIRECT), order, done);
+        release.complete(null);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("D:3", "C:2", "A:1"), order);
+    }
+
+    @Test
+    void fullGroupQueueRejected() throws Exception {
+        LlmScheduler scheduler = scheduler("group-full-test");
+        var release = hold(scheduler);
+        CountDownLatch done = new CountDownLatch(4);
+        List<String> order = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            record(scheduler, context(9, LlmCallContext.Priority.DIRECT), order, done);
+        }
+        CompletableFuture<LlmScheduler.RejectReason> rejected = new CompletableFuture<>();
+        scheduler.submit(context(9, LlmCallContext.Priority.DIRECT), 1, slot -> fail("should be rejected"),
+                rejected::complete);
+
+        assertEquals(LlmScheduler.RejectReason.GROUP_FULL, rejected.get(5, TimeUnit.SECONDS));
+        release.complete(null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,97 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MentionCoalescerTest {
+
+    private final LinkedBlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+
+    private MentionCoalescer<String> coalescer(long windowMillis, long maxWaitMillis, int maxBatch) {
+        FileBasedBotConfiguration.Coalesce settings = new FileBasedBotConfiguration.Coalesce();
+        settings.setWindowMillis(windowMillis);
+        settings.setMaxWaitMillis(maxWaitMillis);
+        settings.setMaxBatch(maxBatch);
+        return new MentionCoalescer<>(settings, (groupId, items) -> batches.add(items));
+    }
+
+    @Test
+    void loneMentionIsNotDelayed() throws InterruptedException {
+        MentionCoalescer<String> coalescer = coalescer(1_500, 4_000, 5);
+        long start = System.nanoTime();
+        coalescer.submit(1, "a");
+
+        assertEquals(List.of("a"), batches.poll(1, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        // 窗口结束时没有跟随的 @，不再多发一批
+        assertNull(batches.poll(1_700, TimeUnit.MILLISECONDS));
+        assertEquals(0, coalescer.stats().pending());
+    }
+
+    @Test
+    void followersWithinWindowShareOneCall() throws InterruptedException {
+        MentionCoalescer<String> coalescer = coalescer(200, 2_000, 5);
+        coalescer.submit(1, "a");
+        coalescer.submit(1, "b");
+        coalescer.submit(1, "c");
+
+        assertEquals(List.of("a"), batches.poll(1, TimeUnit.SECONDS));
+        assertEquals(List.of("b", "c"), batches.poll(1, TimeUnit.SECONDS));
+        assertEquals(2, coalescer.stats().batches());
+    }
+
+    @Test
+    void fullBatchGoesOutImmediately() throws InterruptedException {
+        MentionCoalescer<String> coalescer = coalescer(10_000, 10_000, 2);
+        coalescer.submit(1, "a");
+        coalescer.submit(1, "b");
+        coalescer.submit(1, "c");
+
+        // 两批几乎同时交给阻塞线程，到达顺序不定
+        assertEquals(Set.of(List.of("a"), List.of("b", "c")),
+                Set.of(batches.poll(1, TimeUnit.SECONDS), batches.poll(1, TimeUnit.SECONDS)));
+        assertEquals(1, coalescer.stats().full());
+        // 攒满发出后下一条重新领头
+        coalescer.submit(1, "d");
+        assertEquals(List.of("d"), batches.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void maxWaitCapsAStream() throws InterruptedException {
+        MentionCoalescer<String> coalescer = coalescer(200, 300, 100);
+        coalescer.submit(1, "a");
+        assertEquals(List.of("a"), batches.poll(1, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        // 一直有人接着 @，窗口不断被续上，但从领头起最多等 maxWaitMillis
+        while (batches.isEmpty() && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2_000) {
+            coalescer.submit(1, "x");
+            Thread.sleep(50);
+        }
+        assertFalse(batches.isEmpty());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+    }
+
+    @Test
+    void groupsAreIndependentAndZeroWindowDisables() throws InterruptedException {
+        MentionCoalescer<String> coalescer = coalescer(200, 2_000, 5);
+        coalescer.submit(1, "a");
+        coalescer.submit(2, "b");
+        // 各自领头，都不等待
+        assertNotNull(batches.poll(1, TimeUnit.SECONDS));
+        assertNotNull(batches.poll(1, TimeUnit.SECONDS));
+
+        MentionCoalescer<String> disabled = coalescer(0, 0, 5);
+        disabled.submit(3, "c");
+        disabled.submit(3, "d");
+        assertNotNull(batches.poll(1, TimeUnit.SECONDS));
+        assertNotNull(batches.poll(1, TimeUnit.SECONDS));
+        assertEquals(2, disabled.stats().batches());
+    }
+}
@@ -0,0 +1,68 @@
+package org.nekotori.openai;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaClientTest {
+
+    private HttpServer server;
+
+    private String base;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/api/embed", exchange -> {
+            byte[] body = "{\"embeddings\":[[0.5,1.0]]}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // 模拟加载模型时迟迟不回
+        server.createContext("/slow/api/embed", exchange -> {
+            try {
+                Thread.sleep(2_000);
+                exchange.sendResponseHeaders(500, -1);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void embedParsesVectors() throws IOException {
+        float[][] vectors = OllamaClient.embed(base + "/api/embed", "bge-m3", List.of("你好"), Duration.ofSeconds(5));
+
+        assertEquals(1, vectors.length);
+        assertArrayEquals(new float[]{0.5f, 1.0f}, vectors[0]);
+    }
+
+    @Test
+    void timedEmbedGivesUpOnASlowServer() {
+        long start = System.nanoTime();
+        assertThrows(InterruptedIOException.class, () ->
+                OllamaClient.embed(base + "/slow/api/embed", "bge-m3", List.of("你好"), Duration.ofMillis(200)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_500);
+    }
+}
@@ -0,0 +1,50 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelevanceGateTest {
+
+    @TempDir
+    Path dir;
+
+    // 没有训练好的权重文件，只用内置的稠密特征权重
+    @BeforeEach
+    void configure() {
+        FileBasedBotConfiguration.Relevance relevance = new FileBasedBotConfiguration.Relevance();
+        relevance.setModelPath(dir.resolve("missing.model").toString());
+        FileBasedBotConfiguration.Llm llm = new FileBasedBotConfiguration.Llm();
+        llm.setRelevance(relevance);
+        RelevanceGate.configure(llm);
+    }
+
+    @Test
+    void keywordQuestionPassesAndFillerDoesNot() {
+        assertTrue(RelevanceGate.admit(1, "neko 在吗？"));
+        assertFalse(RelevanceGate.admit(2, "嗯"));
+        assertFalse(RelevanceGate.admit(3, "[CQ:image,file=a.png]"));
+    }
+
+    @Test
+    void commandsAreNotChimedInOn() {
+        assertFalse(RelevanceGate.admit(4, "-neko help"));
+    }
+
+    @Test
+    void hourlyBudgetPerGroup() {
+        long exhausted = RelevanceGate.stats().budgetExhausted();
+        // 默认 burst 为 2
+        assertTrue(RelevanceGate.admit(5, "neko 在吗？"));
+        assertTrue(RelevanceGate.admit(5, "neko 吃饭了吗？"));
+        assertFalse(RelevanceGate.admit(5, "neko 睡了吗？"));
+        assertEquals(exhausted + 1, RelevanceGate.stats().budgetExhausted());
+
+        assertTrue(RelevanceGate.admit(6, "neko 在吗？"));
+    }
+}
@@ -0,0 +1,70 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamSegmenterTest {
+
+    @Test
+    void linesSplitAcrossChunks() {
+        List<String> out = new ArrayList<>();
+        StreamSegmenter segmenter = StreamSegmenter.lines(out::add);
+        segmenter.append("第一");
+        segmenter.append("行\n第二行");
+        assertEquals(List.of("第一行"), out);
+        segmenter.append("\n\n  \n第三");
+        segmenter.close();
+
+        assertEquals(List.of("第一行", "第二行", "第三"), out);
+    }
+
+    @Test
+    void sentenceBoundaries() {
+        List<String> out = new ArrayList<>();
+        StreamSegmenter segmenter = new StreamSegmenter(StreamSegmenter.Boundary.SENTENCE, out::add);
+        segmenter.append("你好。今天吃什么？ ok!还");
+        segmenter.append("没想好");
+        segmenter.close();
+
+        assertEquals(List.of("你好。", "今天吃什么？", "ok!", "还没想好"), out);
+    }
+
+    @Test
+    void lineModeKeepsPunctuation() {
+        List<String> out = new ArrayList<>();
+        StreamSegmenter segmenter = StreamSegmenter.lines(out::add);
+        segmenter.append("你好。再见！");
+        segmenter.close();
+
+        assertEquals(List.of("你好。再见！"), out);
+    }
+
+    @Test
+    void appendAfterCloseIgnored() {
+        List<String> out = new ArrayList<>();
+        StreamSegmenter segmenter = StreamSegmenter.lines(out::add);
+        segmenter.append(" 末尾 ");
+        segmenter.close();
+        segmenter.append("更多\n");
+        segmenter.close();
+
+        assertEquals(List.of("末尾"), out);
+    }
+
+    @Test
+    void matchesLegacySplitOnSingleCharChunks() {
+        String reply = "[{\"type\":\"chat\",\"content\":\"a\"}]\n[{\"type\":\"chat\",\"content\":\"b\"}]\n";
+        List<String> out = new ArrayList<>();
+        StreamSegmenter segmenter = StreamSegmenter.lines(out::add);
+        for (char c : reply.toCharArray()) {
+            segmenter.append(String.valueOf(c));
+        }
+        segmenter.close();
+
+        assertEquals(List.of("[{\"type\":\"chat\",\"content\":\"a\"}]", "[{\"type\":\"chat\",\"content\":\"b\"}]"), out);
+    }
+}
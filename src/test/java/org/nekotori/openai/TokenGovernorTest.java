@@ -0,0 +1,106 @@
+package org.nekotori.openai;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenGovernorTest {
+
+    // 群日额度 10000，每次 deepseek 调用计费 600 + 2 × 100 = 800
+    @BeforeEach
+    void budget() {
+        FileBasedBotConfiguration.Budget budget = new FileBasedBotConfiguration.Budget();
+        budget.setGroupDailyLimit(10_000);
+        budget.setGroupMonthlyLimit(0);
+        budget.setUserDailyLimit(0);
+        TokenGovernor.configure(budget);
+    }
+
+    @AfterEach
+    void reset() {
+        TokenGovernor.configure(new FileBasedBotConfiguration.Budget());
+    }
+
+    private static LlmCallContext context(long groupId, long userId) {
+        return new LlmCallContext(groupId, userId, LlmCallContext.Priority.DIRECT, "test");
+    }
+
+    private static void calls(LlmCallContext context, int count) {
+        for (int i = 0; i < count; i++) {
+            TokenGovernor.record("deepseek", context, 600, 100);
+        }
+    }
+
+    @Test
+    void levelsFollowGroupUsage() {
+        LlmCallContext context = context(910_001L, 1);
+        assertEquals(TokenGovernor.Level.NORMAL, TokenGovernor.level(context));
+        calls(context, 9);
+        assertEquals(TokenGovernor.Level.SHORT_CONTEXT, TokenGovernor.level(context));
+        calls(context, 2);
+        assertEquals(TokenGovernor.Level.LOCAL_ONLY, TokenGovernor.level(context));
+        calls(context, 2);
+        assertEquals(TokenGovernor.Level.REFUSE, TokenGovernor.level(context));
+
+        // 其他群不受影响
+        assertEquals(TokenGovernor.Level.NORMAL, TokenGovernor.level(context(910_002L, 1)));
+    }
+
+    @Test
+    void localProviderIsFree() {
+        LlmCallContext context = context(910_003L, 2);
+        for (int i = 0; i < 20; i++) {
+            TokenGovernor.record("ollama", context, 600, 100);
+        }
+        assertEquals(TokenGovernor.Level.NORMAL, TokenGovernor.level(context));
+    }
+
+    @Test
+    void userLimitAppliesAcrossGroups() {
+        FileBasedBotConfiguration.Budget budget = new FileBasedBotConfiguration.Budget();
+        budget.setGroupDailyLimit(0);
+        budget.setGroupMonthlyLimit(0);
+        budget.setUserDailyLimit(1_600);
+        TokenGovernor.configure(budget);
+
+        calls(context(910_004L, 910_005L), 2);
+        assertEquals(TokenGovernor.Level.REFUSE, TokenGovernor.level(context(910_006L, 910_005L)));
+        assertEquals(TokenGovernor.Level.NORMAL, TokenGovernor.level(context(910_006L, 910_007L)));
+    }
+
+    @Test
+    void admitCountsDegradedCalls() {
+        LlmCallContext context = context(910_008L, 3);
+        calls(context, 13);
+        long refused = TokenGovernor.stats().refused();
+        assertEquals(TokenGovernor.Level.REFUSE, TokenGovernor.admit(context));
+        assertEquals(refused + 1, TokenGovernor.stats().refused());
+    }
+
+    @Test
+    void defaultBudgetIsUnlimited() {
+        TokenGovernor.configure(new FileBasedBotConfiguration.Budget());
+        LlmCallContext context = context(910_009L, 910_010L);
+        calls(context, 1_000);
+        assertEquals(TokenGovernor.Level.NORMAL, TokenGovernor.level(context));
+    }
+
+    @Test
+    void groupOnlyCallsDoNotChargeTheUser() {
+        FileBasedBotConfiguration.Budget budget = new FileBasedBotConfiguration.Budget();
+        budget.setGroupDailyLimit(1_600);
+        budget.setGroupMonthlyLimit(0);
+        budget.setUserDailyLimit(1_600);
+        TokenGovernor.configure(budget);
+
+        // 插话、摘要这类调用 userId 为 0，只占群额度，排队仍按群
+        LlmCallContext groupOnly = context(910_011L, 0);
+        assertEquals(910_011L, groupOnly.fairnessKey());
+        calls(groupOnly, 2);
+        assertEquals(TokenGovernor.Level.REFUSE, TokenGovernor.level(context(910_011L, 910_012L)));
+        assertEquals(TokenGovernor.Level.NORMAL, TokenGovernor.level(context(910_013L, 910_012L)));
+    }
+}
@@ -0,0 +1,27 @@
+package org.nekotori.persistence.sqlite;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupFeatureTest {
+
+    @Test
+    void parseIgnoresCaseSpacesAndUnknownNames() {
+        long bits = GroupFeature.parse(" Voice, CHAT ,unknown,,");
+        assertEquals(GroupFeature.VOICE.bit() | GroupFeature.CHAT.bit(), bits);
+        assertEquals(0, GroupFeature.parse(null));
+        assertEquals(0, GroupFeature.parse("  "));
+    }
+
+    @Test
+    void formatAndParseRoundTripEverySubset() {
+        int count = GroupFeature.values().length;
+        for (long bits = 0; bits < (1L << count); bits++) {
+            assertEquals(bits, GroupFeature.parse(GroupFeature.format(bits)));
+        }
+        // 写回时按声明顺序，名字和数据库里的一致
+        assertEquals("btlist,sd,chat", GroupFeature.format(GroupFeature.parse("chat,sd,btlist")));
+        assertEquals("", GroupFeature.format(0));
+    }
+}
@@ -0,0 +1,70 @@
+package org.nekotori.persistence.sqlite;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupPersistenceTest {
+
+    @TempDir
+    Path dir;
+
+    private GroupPersistence persistence;
+
+    @BeforeEach
+    void open() {
+        GroupPersistence.useDatabase("jdbc:sqlite:" + dir.resolve("bot.db"));
+        persistence = new GroupPersistence();
+        persistence.createTable();
+    }
+
+    @Test
+    void absentGroupIsCachedUntilCreated() {
+        // 第一次查询把“不存在”缓存下来
+        assertNull(persistence.getConfig(42L));
+        assertFalse(persistence.hasFeature(42L, GroupFeature.SD));
+
+        persistence.save(42L, "猫群", false, false, 10, null, "sd,voice");
+        GroupConfig config = persistence.getConfig(42L);
+        assertNotNull(config);
+        assertTrue(config.has(GroupFeature.SD));
+        assertTrue(config.has(GroupFeature.VOICE));
+        assertFalse(config.has(GroupFeature.CHAT));
+        assertEquals(10, config.credits());
+    }
+
+    @Test
+    void updateAndDeleteRefreshTheSnapshot() {
+        persistence.save(7L, "狗群", false, false, 5, "key", "btlist");
+        assertTrue(persistence.hasFeature(7L, GroupFeature.BTLIST));
+
+        GroupEntity entity = persistence.getGroupById(7L);
+        entity.setFeatures(GroupFeature.format(GroupFeature.parse(entity.getFeatures()) | GroupFeature.CHAT.bit()));
+        entity.setCredits(4);
+        persistence.updateGroup(entity);
+        assertEquals("btlist,chat", persistence.getGroupById(7L).getFeatures());
+        assertTrue(persistence.hasFeature(7L, GroupFeature.CHAT));
+        assertEquals(4, persistence.getConfig(7L).credits());
+
+        persistence.delete(7L);
+        assertNull(persistence.getConfig(7L));
+        persistence.save(7L, "狗群", false, false, 5, "key", "chat");
+        assertTrue(persistence.hasFeature(7L, GroupFeature.CHAT));
+        assertFalse(persistence.hasFeature(7L, GroupFeature.BTLIST));
+    }
+
+    @Test
+    void snapshotIsReloadedFromTheDatabase() {
+        persistence.save(9L, "鸟群", true, false, 1, null, "voice");
+        // 丢掉内存快照后从数据库重新加载，位集和写入时一致
+        GroupPersistence.useDatabase("jdbc:sqlite:" + dir.resolve("bot.db"));
+        GroupConfig config = new GroupPersistence().getConfig(9L);
+        assertNotNull(config);
+        assertEquals(GroupFeature.VOICE.bit(), config.features());
+        assertTrue(config.voiceChat());
+    }
+}
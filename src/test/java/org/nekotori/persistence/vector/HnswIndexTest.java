@@ -0,0 +1,131 @@
+package org.nekotori.persistence.vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+
+    @TempDir
+    Path dir;
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    @Test
+    void emptyIndexReturnsNothing() throws IOException {
+        try (HnswIndex index = HnswIndex.open(dir, DIMENSIONS, 8, 64)) {
+            assertEquals(0, index.size());
+            assertTrue(index.search(randomVector(new Random(1)), 5, 32).isEmpty());
+        }
+    }
+
+    @Test
+    void storedVectorFindsItself() throws IOException {
+        Random random = new Random(7);
+        List<float[]> vectors = new ArrayList<>();
+        try (HnswIndex index = HnswIndex.open(dir, DIMENSIONS, 8, 64)) {
+            for (int i = 0; i < 300; i++) {
+                float[] vector = randomVector(random);
+                vectors.add(vector);
+                index.add(i, 1000L + i, "message " + i, vector);
+            }
+            for (int i = 0; i < 300; i += 37) {
+                HnswIndex.Hit hit = index.search(vectors.get(i), 1, 64).get(0);
+                assertEquals(i, hit.userId());
+                assertEquals(1000L + i, hit.time());
+                assertEquals("message " + i, hit.text());
+                assertEquals(1.0, hit.score(), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    void recallAgainstBruteForce() throws IOException {
+        Random random = new Random(42);
+        List<float[]> vectors = new ArrayList<>();
+        int found = 0;
+        int expected = 0;
+        try (HnswIndex index = HnswIndex.open(dir, DIMENSIONS, 16, 100)) {
+            for (int i = 0; i < 2000; i++) {
+                float[] vector = randomVector(random);
+                vectors.add(vector);
+                index.add(i, i, "m" + i, vector);
+            }
+            for (int q = 0; q < 50; q++) {
+                float[] query = randomVector(random);
+                Set<Long> truth = new HashSet<>();
+                IntStream.range(0, vectors.size()).boxed()
+                        .sorted(Comparator.comparingDouble(i -> -cosine(query, vectors.get(i))))
+                        .limit(10)
+                        .forEach(i -> truth.add((long) i));
+                List<HnswIndex.Hit> hits = index.search(query, 10, 100);
+                assertEquals(10, hits.size());
+                for (int i = 1; i < hits.size(); i++) {
+                    assertTrue(hits.get(i - 1).score() >= hits.get(i).score());
+                }
+                expected += truth.size();
+                found += (int) hits.stream().filter(hit -> truth.contains(hit.userId())).count();
+            }
+        }
+        assertTrue(found >= expected * 0.9, "recall " + found + "/" + expected);
+    }
+
+    @Test
+    void reopenKeepsNodesAndLinks() throws IOException {
+        Random random = new Random(3);
+        List<float[]> vectors = new ArrayList<>();
+        try (HnswIndex index = HnswIndex.open(dir, DIMENSIONS, 8, 64)) {
+            for (int i = 0; i < 200; i++) {
+                float[] vector = randomVector(random);
+                vectors.add(vector);
+                index.add(i, i, "消息 " + i, vector);
+            }
+        }
+        try (HnswIndex index = HnswIndex.open(dir, DIMENSIONS, 8, 64)) {
+            assertEquals(200, index.size());
+            HnswIndex.Hit hit = index.search(vectors.get(123), 1, 64).get(0);
+            assertEquals(123, hit.userId());
+            assertEquals("消息 123", hit.text());
+            // 重新打开后继续写入
+            index.add(200, 200, "新消息", vectors.get(0));
+            assertEquals(201, index.size());
+        }
+    }
+
+    @Test
+    void mismatchedDimensionsRejected() throws IOException {
+        try (HnswIndex index = HnswIndex.open(dir, DIMENSIONS, 8, 64)) {
+            index.add(1, 1, "a", randomVector(new Random(5)));
+        }
+        assertThrows(IOException.class, () -> HnswIndex.open(dir, DIMENSIONS * 2, 8, 64));
+    }
+}
@@ -0,0 +1,86 @@
+package org.nekotori.resource;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpTransportTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private HttpServer server;
+
+    private String base;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void sameHostSharesOneClientAndPool() {
+        OkHttpClient chat = HttpTransport.client(base + "/v1/chat/completions");
+        OkHttpClient models = HttpTransport.client(base + "/v1/models?x=1");
+        assertSame(chat, models);
+
+        // 读超时不同的客户端仍然共用连接池和调度器
+        OkHttpClient slow = HttpTransport.client(base + "/v1/chat/completions", Duration.ofMinutes(5));
+        assertNotSame(chat, slow);
+        assertSame(chat.connectionPool(), slow.connectionPool());
+        assertSame(chat.dispatcher(), slow.dispatcher());
+        assertEquals(Duration.ofMinutes(5).toMillis(), slow.readTimeoutMillis());
+
+        // 端口不同就是另一个上游，各自一个池
+        OkHttpClient other = HttpTransport.client("http://127.0.0.1:1/v1");
+        assertNotSame(chat.connectionPool(), other.connectionPool());
+        assertNotSame(chat.dispatcher(), other.dispatcher());
+    }
+
+    @Test
+    void prewarmLeavesAConnectionInThePool() throws InterruptedException {
+        HttpTransport.prewarm(List.of(base + "/v1/chat/completions"));
+        OkHttpClient client = HttpTransport.client(base);
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((requests.get() == 0 || client.connectionPool().idleConnectionCount() == 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, requests.get());
+        assertEquals(1, client.connectionPool().connectionCount());
+    }
+
+    @Test
+    void prewarmToleratesBadAndUnreachableUrls() throws InterruptedException {
+        HttpTransport.prewarm(null);
+        // 非法地址跳过，连不上的主机只记日志，都不影响后面的地址
+        HttpTransport.prewarm(Arrays.asList("not a url", "http://127.0.0.1:1/", base + "/"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requests.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, requests.get());
+        assertTrue(HttpTransport.stats().containsKey("http://127.0.0.1:1/"));
+    }
+}
@@ -0,0 +1,88 @@
+package org.nekotori.util;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.nekotori.config.FileBasedBotConfiguration;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockingExecutionTest {
+
+    @BeforeAll
+    static void smallPool() {
+        FileBasedBotConfiguration.Execution execution = new FileBasedBotConfiguration.Execution();
+        execution.setPoolThreads(2);
+        execution.setPermits(Map.of("tts", 1, "handler", 2));
+        BlockingExecution.configure(execution);
+    }
+
+    @AfterAll
+    static void restore() {
+        BlockingExecution.configure(new FileBasedBotConfiguration.Execution());
+    }
+
+    @Test
+    void permitsReleasedFromPoolDoNotDeadlock() throws Exception {
+        // 请求数远多于线程数，许可在另一个池任务里归还，和 SovitsClient 的 SSE 回调一样
+        int requests = 20;
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        for (int i = 0; i < requests; i++) {
+            BlockingExecution.acquire("tts", permit -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                BlockingExecution.execute(() -> {
+                    running.decrementAndGet();
+                    permit.release();
+                    done.countDown();
+                });
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, peak.get());
+    }
+
+    @Test
+    void executeLimitsConcurrencyPerResource() throws Exception {
+        int tasks = 12;
+        CountDownLatch done = new CountDownLatch(tasks);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        for (int i = 0; i < tasks; i++) {
+            BlockingExecution.execute("handler", () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(peak.get() <= 2);
+    }
+
+    @Test
+    void throwingTaskReturnsPermit() throws Exception {
+        BlockingExecution.acquire("tts", permit -> {
+            throw new IllegalStateException("join failed");
+        });
+        CountDownLatch next = new CountDownLatch(1);
+        BlockingExecution.acquire("tts", permit -> {
+            permit.release();
+            next.countDown();
+        });
+
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+    }
+}